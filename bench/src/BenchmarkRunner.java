@@ -0,0 +1,290 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmark suites and writes their results in a machine readable format.
+ * Usage: BenchmarkRunner [-f regex] [-wi warmups] [-i iterations] [-t millis] [-p suite=v1,v2] [-o file] [-rf json|csv] [-l]
+ *    or: BenchmarkRunner compare base.json head.json [thresholdPercent]
+ *    or: BenchmarkRunner memory [outputs]
+ *    or: BenchmarkRunner simulate [options], see Simulation
+ *    or: BenchmarkRunner filters [transactions]
+ *    or: BenchmarkRunner reorg [depth], see ReorgCheck
+ */
+public final class BenchmarkRunner{
+    private static final PrintStream OUT = System.out; //Kept so results can be printed while the chain's own output is silenced
+    private static final PrintStream SILENT = new PrintStream(OutputStream.nullOutputStream());
+    private static volatile int sink; //Receives the result of every operation so it cannot be optimised away
+
+    private BenchmarkRunner(){}
+
+    /**
+     * Gets every benchmark suite
+     * @return The suites in the order they are run
+     */
+    static List<Suite> getSuites(){
+        List<Suite> suites = new ArrayList<>();
+        suites.add(new HashingBenchmarks.EncryptSha());
+        suites.add(new HashingBenchmarks.BlockHeader());
+        suites.add(new MiningBenchmarks.SingleThreaded());
+        suites.add(new MiningBenchmarks.Parallel());
+        suites.add(new SigningBenchmarks.KeyGen());
+        suites.add(new SigningBenchmarks.Sign());
+        suites.add(new SigningBenchmarks.Verify());
+        suites.add(new SigningBenchmarks.VerifyBlock());
+        suites.add(new MerkleBenchmarks.MerkleRoot());
+        suites.add(new MerkleBenchmarks.Append());
+        suites.add(new MerkleBenchmarks.Proof());
+        suites.add(new UTXOBenchmarks.Churn());
+        suites.add(new ChainBenchmarks.Balance());
+        suites.add(new ChainBenchmarks.ValidateChain());
+        suites.add(new ChainBenchmarks.Audit());
+        suites.add(new FilterBenchmarks.Rescan());
+        return suites;
+    }
+
+    public static void main(String[] args) throws Exception{
+        if(args.length > 0 && args[0].equals("compare")){
+            if(args.length < 3) throw new IllegalArgumentException("compare needs a base and a head result file");
+            double threshold = (args.length > 3) ? Double.parseDouble(args[3]) : 10.0;
+            System.exit(compare(Paths.get(args[1]), Paths.get(args[2]), threshold) ? 0 : 1);
+        }
+
+        if(args.length > 0 && args[0].equals("memory")){
+            UTXOBenchmarks.reportMemory((args.length > 1) ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+
+        if(args.length > 0 && args[0].equals("filters")){
+            FilterBenchmarks.reportFalsePositives((args.length > 1) ? Integer.parseInt(args[1]) : FilterBenchmarks.CHAIN_SIZE);
+            return;
+        }
+
+        if(args.length > 0 && args[0].equals("reorg")){
+            ReorgCheck.run((args.length > 1) ? Integer.parseInt(args[1]) : 50);
+            return;
+        }
+
+        if(args.length > 0 && args[0].equals("simulate")){
+            Simulation.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        //Read the options
+        String filter = ".*";
+        int warmups = 3;
+        int iterations = 5;
+        long millis = 1000;
+        String output = null;
+        String format = "json";
+        boolean list = false;
+        Map<String, String[]> params = new HashMap<>();
+        for(int i = 0; i < args.length; i++){
+            switch(args[i]){
+                case "-f": filter = args[++i]; break;
+                case "-wi": warmups = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-t": millis = Long.parseLong(args[++i]); break;
+                case "-o": output = args[++i]; break;
+                case "-rf": format = args[++i]; break;
+                case "-l": list = true; break;
+                case "-p":
+                    String[] override = args[++i].split("=", 2);
+                    params.put(override[0], override[1].split(","));
+                    break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        //Run every suite matching the filter with each of its parameters
+        Pattern pattern = Pattern.compile(filter);
+        List<Result> results = new ArrayList<>();
+        for(Suite suite : getSuites()){
+            if(!pattern.matcher(suite.getName()).find()) continue;
+            String[] values = params.getOrDefault(suite.getName(), suite.getParams());
+            for(String param : values){
+                if(list){
+                    OUT.println(suite.getName() + " " + param);
+                    continue;
+                }
+                Result result = run(suite, param, warmups, iterations, millis);
+                results.add(result);
+                OUT.println(result.toSummary());
+            }
+        }
+
+        if(output != null){
+            write(results, Paths.get(output), format);
+            OUT.println("Results written to " + output);
+        }
+    }
+
+    /**
+     * Runs one suite with one parameter, timing a number of warmup and measured iterations
+     * @param suite The suite to run
+     * @param param The parameter to set the suite up with
+     * @param warmups Number of iterations to run before measuring
+     * @param iterations Number of measured iterations
+     * @param millis Minimum length of each iteration
+     * @return The measured result
+     */
+    static Result run(Suite suite, String param, int warmups, int iterations, long millis) throws Exception{
+        System.setOut(SILENT);
+        try{
+            suite.setup(param);
+            for(int i = 0; i < warmups; i++){
+                iteration(suite, millis);
+            }
+            double[] scores = new double[iterations];
+            for(int i = 0; i < iterations; i++){
+                scores[i] = iteration(suite, millis);
+            }
+            suite.tearDown();
+            return new Result(suite.getName(), param, scores);
+        } finally{
+            System.setOut(OUT);
+        }
+    }
+
+    /**
+     * Repeats the suite's operation until the iteration time has passed, always running it at least once
+     * @param suite The suite to run
+     * @param millis Minimum length of the iteration
+     * @return The number of operations per second
+     */
+    private static double iteration(Suite suite, long millis) throws Exception{
+        long limit = millis * 1_000_000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do{
+            Object result = suite.run();
+            sink ^= (result == null) ? 0 : result.hashCode();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while(elapsed < limit);
+        return ops * 1_000_000_000.0 / elapsed;
+    }
+
+    /**
+     * Writes results to a file, as one JSON object per line or as CSV
+     * @param results The results to write
+     * @param path The file to write to
+     * @param format Either json or csv
+     */
+    static void write(List<Result> results, Path path, String format) throws IOException{
+        try(PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))){
+            if(format.equals("csv")){
+                writer.println("benchmark,param,score,error,unit,nsPerOp,iterations");
+                for(Result result : results){
+                    writer.println(result.toCsv());
+                }
+            } else{
+                writer.println("[");
+                for(int i = 0; i < results.size(); i++){
+                    writer.println(results.get(i).toJson() + ((i < results.size() - 1) ? "," : ""));
+                }
+                writer.println("]");
+            }
+        }
+    }
+
+    /**
+     * Compares two JSON result files and prints every benchmark whose throughput has changed
+     * @param base Results from the earlier commit
+     * @param head Results from the later commit
+     * @param threshold Percentage drop in throughput counted as a regression
+     * @return Whether there were no regressions
+     */
+    static boolean compare(Path base, Path head, double threshold) throws IOException{
+        Map<String, Double> baseScores = read(base);
+        Map<String, Double> headScores = read(head);
+        boolean passed = true;
+        for(Map.Entry<String, Double> entry : headScores.entrySet()){
+            Double before = baseScores.get(entry.getKey());
+            if(before == null) continue;
+            double change = (entry.getValue() - before) / before * 100;
+            String verdict = (change < -threshold) ? "REGRESSION" : (change > threshold) ? "improved" : "unchanged";
+            if(change < -threshold) passed = false;
+            System.out.printf(Locale.ROOT, "%-40s %14.2f -> %14.2f ops/s %+8.1f%% %s%n", entry.getKey(), before, entry.getValue(), change, verdict);
+        }
+        return passed;
+    }
+
+    /**
+     * Reads the scores from a JSON result file
+     * @param path The file to read
+     * @return Scores keyed by benchmark and parameter
+     */
+    private static Map<String, Double> read(Path path) throws IOException{
+        Pattern line = Pattern.compile("\"benchmark\":\"([^\"]*)\",\"param\":\"([^\"]*)\",\"score\":([0-9.eE+-]+)");
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for(String text : Files.readAllLines(path, StandardCharsets.UTF_8)){
+            Matcher matcher = line.matcher(text);
+            if(matcher.find()) scores.put(matcher.group(1) + ":" + matcher.group(2), Double.parseDouble(matcher.group(3)));
+        }
+        return scores;
+    }
+}
+
+/**
+ * The measured throughput of one suite with one parameter
+ */
+final class Result{
+    private final String benchmark; //Name of the suite
+    private final String param; //Parameter the suite was run with
+    private final double score; //Mean operations per second
+    private final double error; //Standard deviation of the operations per second
+    private final int iterations; //Number of measured iterations
+
+    /**
+     * Constructor for a new result
+     * @param benchmark Name of the suite
+     * @param param Parameter the suite was run with
+     * @param scores Operations per second of each measured iteration
+     */
+    Result(String benchmark, String param, double[] scores){
+        this.benchmark = benchmark;
+        this.param = param;
+        this.iterations = scores.length;
+
+        double sum = 0;
+        for(double s : scores) sum += s;
+        this.score = sum / scores.length;
+
+        double squares = 0;
+        for(double s : scores) squares += (s - score) * (s - score);
+        this.error = (scores.length > 1) ? Math.sqrt(squares / (scores.length - 1)) : 0;
+    }
+
+    double getNsPerOp(){
+        return 1_000_000_000.0 / score;
+    }
+
+    String toSummary(){
+        return String.format(Locale.ROOT, "%-28s %-10s %16.3f +- %12.3f ops/s %16.1f ns/op", benchmark, param, score, error, getNsPerOp());
+    }
+
+    String toJson(){
+        return String.format(Locale.ROOT, "{\"benchmark\":\"%s\",\"param\":\"%s\",\"score\":%.6f,\"error\":%.6f,\"unit\":\"ops/s\",\"nsPerOp\":%.3f,\"iterations\":%d}",
+            benchmark, param, score, error, getNsPerOp(), iterations);
+    }
+
+    String toCsv(){
+        return String.format(Locale.ROOT, "%s,%s,%.6f,%.6f,ops/s,%.3f,%d", benchmark, param, score, error, getNsPerOp(), iterations);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,57 @@
+/**
+ * Benchmarks of operations that grow with the size of the chain
+ */
+final class ChainBenchmarks{
+    private ChainBenchmarks(){}
+
+    /**
+     * Calculates a wallet's balance on chains with different numbers of transactions
+     */
+    static final class Balance implements Suite{
+        private Wallet wallet;
+
+        public String getName(){return "getBalance";}
+        public String[] getParams(){return new String[]{"1000", "10000", "100000"};}
+
+        public void setup(String param){
+            ChainFixture.ensure(Integer.parseInt(param));
+            wallet = ChainFixture.getWallets().get(0);
+        }
+
+        public Object run(){
+            return wallet.getBalance();
+        }
+    }
+
+    /**
+     * Validates chains with different numbers of transactions, which after the first run only checks blocks added since the last checkpoint
+     */
+    static final class ValidateChain implements Suite{
+        public String getName(){return "isValidChain";}
+        public String[] getParams(){return new String[]{"1000", "10000", "100000"};}
+
+        public void setup(String param){
+            ChainFixture.ensure(Integer.parseInt(param));
+        }
+
+        public Object run(){
+            return Jackchain.isValidChain();
+        }
+    }
+
+    /**
+     * Validates chains with different numbers of transactions from the genesis block, checking every signature
+     */
+    static final class Audit implements Suite{
+        public String getName(){return "auditChain";}
+        public String[] getParams(){return new String[]{"1000", "10000", "100000"};}
+
+        public void setup(String param){
+            ChainFixture.ensure(Integer.parseInt(param));
+        }
+
+        public Object run(){
+            return Jackchain.auditChain();
+        }
+    }
+}
\ No newline at end of file
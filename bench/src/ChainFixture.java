@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds synthetic chains on the global Jackchain for benchmarks to run against
+ */
+final class ChainFixture{
+    static final int WALLETS = 16; //Number of wallets passing funds between each other
+    static final int TRANSACTIONS_PER_BLOCK = 100; //Number of transactions mined into each block
+    static final float GENESIS_FUNDS = 1_000_000f; //Funds created by the genesis transaction, small enough to stay exact as a float
+
+    private static int builtSize = -1; //Number of transactions in the chain currently on Jackchain
+    private static List<Transaction> transactions = new ArrayList<>(); //Every transaction processed onto the current chain
+    private static List<Wallet> wallets = new ArrayList<>(); //Wallets used by the current chain
+
+    private ChainFixture(){}
+
+    /**
+     * Makes sure Jackchain holds a chain with the given number of transactions, rebuilding it if a different size was built last
+     * @param size Number of transactions after the genesis transaction
+     */
+    static void ensure(int size){
+        if(size == builtSize) return;
+        Jackchain.reset();
+        Random random = new Random(size); //Seeded so the same size always builds the same payments
+
+        //Fund the first wallet from the genesis block
+        wallets = new ArrayList<>();
+        for(int i = 0; i < WALLETS; i++){
+            wallets.add(new Wallet());
+        }
+        Jackchain.createGenesis(new Wallet(), wallets.get(0).getPublicKey(), GENESIS_FUNDS);
+
+        //Pass whole amounts between random wallets, mining a block every so often
+        transactions = new ArrayList<>();
+        Block block = new Block(Jackchain.getTip().getHash());
+        while(transactions.size() < size){
+            Wallet sender = wallets.get(random.nextInt(WALLETS));
+            Wallet receiver = wallets.get(random.nextInt(WALLETS));
+            Transaction transaction = sender.sendFunds(receiver.getPublicKey(), 1 + random.nextInt(10));
+            if(transaction == null || !block.addTransaction(transaction)) continue;
+            transactions.add(transaction);
+
+            if(block.getTransactions().size() == TRANSACTIONS_PER_BLOCK){
+                Jackchain.addBlock(block);
+                block = new Block(block.getHash());
+            }
+        }
+        if(!block.getTransactions().isEmpty()) Jackchain.addBlock(block);
+        builtSize = size;
+    }
+
+    static List<Transaction> getTransactions(){return transactions;}
+    static List<Wallet> getWallets(){return wallets;}
+}
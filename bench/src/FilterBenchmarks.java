@@ -0,0 +1,97 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmarks of rescanning the chain for a wallet with and without block filters
+ */
+final class FilterBenchmarks{
+    static final int CHAIN_SIZE = 10_000; //Transactions on the chain rescanned
+    static final int KEYS = 3; //Keys tracked by the rescanning wallet
+
+    private FilterBenchmarks(){}
+
+    /**
+     * Rescans the chain for a few keys that are new to it, either looking inside every block or only inside the blocks whose filters match
+     */
+    static final class Rescan implements Suite{
+        private boolean filtered;
+        private List<Block> blocks;
+        private List<PublicKey> owners;
+
+        public String getName(){return "rescan";}
+        public String[] getParams(){return new String[]{"full", "filtered"};}
+
+        public void setup(String param){
+            filtered = param.equals("filtered");
+            ChainFixture.ensure(CHAIN_SIZE);
+            blocks = Jackchain.snapshot().getBlocks();
+            owners = newOwners(KEYS);
+            for(Block block : blocks){
+                block.getFilter();
+            }
+        }
+
+        public Object run(){
+            return filtered ? BlockFilter.rescan(blocks, owners).getOutputs().size() : BlockFilter.scan(blocks, owners).size();
+        }
+    }
+
+    /**
+     * Prints the measured false positive rate of the filters against keys that are not on the chain, the size of the filters,
+     * and how much faster a filtered rescan is than looking inside every block
+     * @param size Number of transactions on the chain
+     */
+    static void reportFalsePositives(int size){
+        ChainFixture.ensure(size);
+        List<Block> blocks = Jackchain.snapshot().getBlocks();
+        List<PublicKey> owners = newOwners(100);
+
+        long bytes = 0;
+        for(Block block : blocks){
+            bytes += block.getFilter().getByteSize();
+        }
+        long tests = 0;
+        long matches = 0;
+        for(PublicKey owner : owners){
+            for(Block block : blocks){
+                tests++;
+                if(block.getFilter().mightContain(owner)) matches++;
+            }
+        }
+
+        //Time both rescans for one new key, repeating each so the times are not dominated by the clock
+        List<PublicKey> one = owners.subList(0, 1);
+        int repeats = 20;
+        long start = System.nanoTime();
+        for(int i = 0; i < repeats; i++){
+            BlockFilter.scan(blocks, one);
+        }
+        long full = System.nanoTime() - start;
+        start = System.nanoTime();
+        for(int i = 0; i < repeats; i++){
+            BlockFilter.rescan(blocks, one);
+        }
+        long filtered = System.nanoTime() - start;
+
+        System.out.printf(Locale.ROOT, "%d blocks, %.1f filter bytes per block%n", blocks.size(), (double) bytes / blocks.size());
+        System.out.printf(Locale.ROOT, "false positive rate %.3f%% measured, %.3f%% expected%n", 100.0 * matches / tests, 100 * expectedRate());
+        System.out.printf(Locale.ROOT, "rescan %.3f ms full, %.3f ms filtered, %.1fx faster%n", full / 1e6 / repeats, filtered / 1e6 / repeats, (double) full / filtered);
+    }
+
+    /**
+     * Gets the false positive rate a filter with the chosen bits per item and hashes should have
+     */
+    private static double expectedRate(){
+        return Math.pow(1 - Math.exp(-(double) BlockFilter.HASHES / BlockFilter.BITS_PER_ITEM), BlockFilter.HASHES);
+    }
+
+    private static List<PublicKey> newOwners(int count){
+        List<PublicKey> owners = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            owners.add(new Wallet().getPublicKey());
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Arrays;
+
+/**
+ * Benchmarks of the hashing used for ids and block headers
+ */
+final class HashingBenchmarks{
+    private HashingBenchmarks(){}
+
+    /**
+     * Hashes strings of different lengths with Block.encryptSha
+     */
+    static final class EncryptSha implements Suite{
+        private String input;
+
+        public String getName(){return "encryptSha";}
+        public String[] getParams(){return new String[]{"64", "1024"};}
+
+        public void setup(String param){
+            char[] chars = new char[Integer.parseInt(param)];
+            Arrays.fill(chars, 'a');
+            input = new String(chars);
+        }
+
+        public Object run(){
+            return Block.encryptSha(input);
+        }
+    }
+
+    /**
+     * Hashes a block header for successive counts, as each mining attempt does
+     */
+    static final class BlockHeader implements Suite{
+        private HeaderHasher hasher;
+        private int count;
+
+        public String getName(){return "blockHeaderHash";}
+        public String[] getParams(){return new String[]{"-"};}
+
+        public void setup(String param){
+            hasher = new Block("0").newHasher();
+        }
+
+        public Object run(){
+            return hasher.hash(count++)[0];
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+
+/**
+ * Benchmarks of building the merkle root of a block
+ */
+final class MerkleBenchmarks{
+    private MerkleBenchmarks(){}
+
+    /**
+     * Calculates the merkle root over different numbers of transactions
+     */
+    static final class MerkleRoot implements Suite{
+        private ArrayList<Transaction> transactions;
+
+        public String getName(){return "getMerkleRoot";}
+        public String[] getParams(){return new String[]{"100", "1000", "10000"};}
+
+        public void setup(String param){
+            int size = Integer.parseInt(param);
+            ChainFixture.ensure(size);
+            transactions = new ArrayList<>(ChainFixture.getTransactions().subList(0, size));
+        }
+
+        public Object run(){
+            return Block.getMerkleRoot(transactions);
+        }
+    }
+
+    /**
+     * Appends one more leaf to trees of different sizes, which only rehashes the new leaf's path
+     */
+    static final class Append implements Suite{
+        private ArrayList<String> ids;
+        private MerkleTree tree;
+
+        public String getName(){return "merkleAppend";}
+        public String[] getParams(){return new String[]{"1000", "10000", "100000"};}
+
+        public void setup(String param){
+            ids = syntheticIds(Integer.parseInt(param));
+        }
+
+        public Object run(){
+            //Rebuild the tree once it has doubled so its size stays near the parameter
+            if(tree == null || tree.size() >= ids.size() * 2) tree = new MerkleTree(ids);
+            tree.append(ids.get(tree.size() % ids.size()));
+            return tree.getRoot();
+        }
+    }
+
+    /**
+     * Builds the proof for a transaction and verifies it against the root
+     */
+    static final class Proof implements Suite{
+        private MerkleTree tree;
+        private ArrayList<String> ids;
+        private int next;
+
+        public String getName(){return "merkleProof";}
+        public String[] getParams(){return new String[]{"1000", "10000", "100000"};}
+
+        public void setup(String param){
+            ids = syntheticIds(Integer.parseInt(param));
+            tree = new MerkleTree(ids);
+        }
+
+        public Object run(){
+            int index = next++ % ids.size();
+            return MerkleTree.verify(ids.get(index), tree.getProof(index), tree.getRoot());
+        }
+    }
+
+    /**
+     * Generates transaction ids without the cost of signing real transactions
+     * @param size Number of ids
+     * @return The ids
+     */
+    static ArrayList<String> syntheticIds(int size){
+        ArrayList<String> ids = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            ids.add(Block.encryptSha(Integer.toString(i)));
+        }
+        return ids;
+    }
+}
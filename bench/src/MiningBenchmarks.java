@@ -0,0 +1,49 @@
+/**
+ * Benchmarks of mining whole blocks
+ */
+final class MiningBenchmarks{
+    private MiningBenchmarks(){}
+
+    /**
+     * Mines a new empty block on the calling thread at different difficulties
+     */
+    static final class SingleThreaded implements Suite{
+        private int diff;
+
+        public String getName(){return "mineBlock";}
+        public String[] getParams(){return new String[]{"2", "3", "4"};}
+
+        public void setup(String param){
+            diff = Integer.parseInt(param);
+        }
+
+        public Object run(){
+            Block block = new Block("0");
+            block.mineBlock(diff);
+            return block.getHash();
+        }
+    }
+
+    /**
+     * Mines a new empty block at difficulty 4 with different numbers of workers
+     */
+    static final class Parallel implements Suite{
+        private ParallelMiner miner;
+
+        public String getName(){return "mineBlockParallel";}
+        public String[] getParams(){return new String[]{"1", "2", "4", "8"};}
+
+        public void setup(String param){
+            miner = new ParallelMiner(Integer.parseInt(param));
+        }
+
+        public Object run(){
+            Block block = new Block("0");
+            return block.mineBlock(4, miner).getHash();
+        }
+
+        public void tearDown(){
+            miner.shutdown();
+        }
+    }
+}
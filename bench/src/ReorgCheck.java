@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times switching a block index between two branches and back, checking the outputs end up exactly where they started,
+ * then checks that malformed blocks and a flood of orphans leave the index as it was.
+ * The index is separate from the global chain, which only supplies the blocks of the first branch.
+ * Usage: BenchmarkRunner reorg [depth]
+ */
+final class ReorgCheck{
+    private ReorgCheck(){}
+
+    /**
+     * Runs the round trip and the checks, throwing if anything ends up different from what it should be
+     * @param depth Number of blocks undone by the first switch
+     */
+    static void run(int depth){
+        ChainFixture.ensure(depth * ChainFixture.TRANSACTIONS_PER_BLOCK);
+        List<Block> chain = Jackchain.snapshot().getBlocks();
+        List<Wallet> wallets = ChainFixture.getWallets();
+        ChainState state = new ChainState();
+        BlockIndex index = new BlockIndex(new ChainValidator(Jackchain.DIFF, new SignatureVerifier(), UTXOSet::new), state);
+        for(Block block : chain){
+            expect(index.accept(block).getStatus() == ChainChange.Status.CONNECTED, "the fixture's chain did not connect");
+        }
+        float[] balances = balances(index, wallets);
+        int outputs = index.getUTXOs().size();
+
+        //Switch to a heavier branch of empty blocks off the genesis block, which leaves only the genesis output
+        long start = System.nanoTime();
+        Block away = mineBranch(index, state, chain.get(0).getHash());
+        long switchAway = System.nanoTime() - start;
+        expect(index.getUTXOs().size() == 1 && index.getUTXOs().getBalance(wallets.get(0).getPublicKey()) == ChainFixture.GENESIS_FUNDS, "undoing the chain did not leave only the genesis output");
+
+        //Switch back by extending the first branch past it, which checks every one of its blocks again
+        start = System.nanoTime();
+        Block back = mineBranch(index, state, chain.get(chain.size() - 1).getHash());
+        long switchBack = System.nanoTime() - start;
+        expect(index.getUTXOs().size() == outputs && Arrays.equals(balances(index, wallets), balances), "the outputs differ after switching back");
+
+        //Blocks whose transactions carry no outputs, or inputs without the outputs they spend, are rejected without changing anything
+        Wallet sender = wallets.get(0);
+        for(Wallet wallet : wallets){
+            if(wallet.getConfirmedBalance() > sender.getConfirmedBalance()) sender = wallet;
+        }
+        Transaction payment = sender.sendFunds(wallets.get(1).getPublicKey(), 1);
+        expect(payment != null, "no wallet could pay");
+        ArrayList<TransactionInput> attached = new ArrayList<>();
+        ArrayList<TransactionInput> detached = new ArrayList<>();
+        for(TransactionInput input : payment.getInputs()){
+            TransactionInput copy = new TransactionInput(input.transactionOutputId);
+            copy.UTXO = index.getUTXOs().get(input.transactionOutputId);
+            attached.add(copy);
+            detached.add(new TransactionInput(input.transactionOutputId));
+        }
+        String noOutputs = Block.encryptSha("no outputs");
+        String withoutOutputs = Block.encryptSha("inputs without outputs");
+        List<Transaction> malformed = List.of(
+            new Transaction(noOutputs, payment.getSenderKey(), payment.getReceiverKey(), payment.getValue(), payment.getSignature(), attached, List.of()),
+            new Transaction(withoutOutputs, payment.getSenderKey(), payment.getReceiverKey(), payment.getValue(), payment.getSignature(), detached,
+                List.of(new TransactionOutput(payment.getReceiverKey(), payment.getValue(), withoutOutputs))));
+        for(Transaction transaction : malformed){
+            Block block = new Block(back.getHash(), System.currentTimeMillis(), null, 0, null, List.of(transaction));
+            block.mineBlock(Jackchain.DIFF);
+            expect(index.accept(block).getStatus() == ChainChange.Status.REJECTED, "a block holding transaction " + transaction.getID() + " was not rejected");
+            expect(state.snapshot().getTip() == back && index.getUTXOs().size() == outputs, "a rejected block changed the chain");
+        }
+
+        //Blocks whose parents never arrive are only kept up to the limit
+        for(int i = 0; i < BlockIndex.MAX_ORPHANS + 100; i++){
+            Block orphan = new Block(Block.encryptSha("missing " + i));
+            orphan.mineBlock(Jackchain.DIFF);
+            index.accept(orphan);
+        }
+        expect(index.getOrphanCount() == BlockIndex.MAX_ORPHANS, "the orphans grew past the limit to " + index.getOrphanCount());
+
+        System.out.printf(Locale.ROOT, "%d blocks undone in %.3f ms, redone with checks in %.3f ms, malformed blocks rejected, orphans capped at %d%n",
+            chain.size() - 1, switchAway / 1e6, switchBack / 1e6, index.getOrphanCount());
+    }
+
+    /**
+     * Mines a branch of empty blocks into an index until the branch has the most work and becomes the chain,
+     * which takes one more block than the chain has past the fork as every block has the same work
+     * @return The last block of the branch
+     */
+    private static Block mineBranch(BlockIndex index, ChainState state, String previous){
+        Block block;
+        do{
+            block = new Block(previous);
+            block.mineBlock(Jackchain.DIFF);
+            expect(index.accept(block).getStatus() != ChainChange.Status.REJECTED, "a block of empty blocks was rejected");
+            previous = block.getHash();
+        } while(state.snapshot().getTip() != block);
+        return block;
+    }
+
+    private static float[] balances(BlockIndex index, List<Wallet> wallets){
+        float[] balances = new float[wallets.size()];
+        for(int i = 0; i < balances.length; i++){
+            balances[i] = index.getUTXOs().getBalance(wallets.get(i).getPublicKey());
+        }
+        return balances;
+    }
+
+    private static void expect(boolean condition, String failure){
+        if(!condition) throw new IllegalStateException("Reorg check failed: " + failure);
+    }
+}
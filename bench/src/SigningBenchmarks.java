@@ -0,0 +1,88 @@
+import java.util.List;
+
+/**
+ * Benchmarks of signing and verifying transactions
+ */
+final class SigningBenchmarks{
+    private SigningBenchmarks(){}
+
+    private static final String[] SCHEMES = {"DSA", "ED25519", "ECDSA_P256"}; //Signature schemes each suite is run with
+
+    /**
+     * Generates a wallet's key pair
+     */
+    static final class KeyGen implements Suite{
+        private SignatureScheme scheme;
+
+        public String getName(){return "generateKeyPair";}
+        public String[] getParams(){return SCHEMES;}
+
+        public void setup(String param){
+            scheme = SignatureScheme.valueOf(param);
+        }
+
+        public Object run(){
+            return scheme.generateKeyPair();
+        }
+    }
+
+    /**
+     * Signs a transaction's data with the sender's private key
+     */
+    static final class Sign implements Suite{
+        private Wallet sender;
+        private Wallet receiver;
+
+        public String getName(){return "sign";}
+        public String[] getParams(){return SCHEMES;}
+
+        public void setup(String param){
+            sender = new Wallet(SignatureScheme.valueOf(param));
+            receiver = new Wallet(SignatureScheme.valueOf(param));
+        }
+
+        public Object run(){
+            return sender.createGenesisTransaction(receiver.getPublicKey(), 1f);
+        }
+    }
+
+    /**
+     * Verifies the signature on a transaction
+     */
+    static final class Verify implements Suite{
+        private Transaction transaction;
+
+        public String getName(){return "verify";}
+        public String[] getParams(){return SCHEMES;}
+
+        public void setup(String param){
+            SignatureScheme scheme = SignatureScheme.valueOf(param);
+            transaction = new Wallet(scheme).createGenesisTransaction(new Wallet(scheme).getPublicKey(), 1f);
+        }
+
+        public Object run(){
+            return transaction.verifySignature();
+        }
+    }
+
+    /**
+     * Verifies the signatures of a block of 100 transactions with different numbers of threads and no cache
+     */
+    static final class VerifyBlock implements Suite{
+        private SignatureVerifier verifier;
+        private List<Transaction> transactions;
+
+        public String getName(){return "verifyBlockSignatures";}
+        public String[] getParams(){return new String[]{"1", "2", "4", "8"};}
+
+        public void setup(String param){
+            verifier = new SignatureVerifier(Integer.parseInt(param), 0);
+            ChainFixture.ensure(ChainFixture.TRANSACTIONS_PER_BLOCK);
+            transactions = ChainFixture.getTransactions();
+        }
+
+        public Object run(){
+            return verifier.verifyAll(transactions);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,265 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Drives payments between many wallets through the real chain, from Wallet.sendFunds through Block.addTransaction,
+ * Jackchain.addBlock and Jackchain.isValidChain, and reports the sustained throughput, the latency from submitting
+ * a payment to its block joining the chain, heap use and garbage collection time.
+ * The payments made come from a seeded random, so a run with the same seed and options makes the same payments,
+ * although wallet keys and so hashes differ between runs.
+ * Usage: BenchmarkRunner simulate [-w uniform|hotspot|fanout] [-n wallets] [-b blocks] [-s payments per block] [-wb warmup blocks] [-seed seed]
+ */
+final class Simulation{
+    static final float FUNDS_PER_WALLET = 1000f; //Funds given to each funded wallet before the run
+    static final double HOT_FRACTION = 0.01; //Fraction of wallets in the hot set of the hotspot workload and paying out in the fanout workload
+    static final double HOT_SHARE = 0.9; //Chance each side of a hotspot payment is drawn from the hot set
+
+    private final Workload workload;
+    private final int walletCount; //Number of wallets making and receiving payments
+    private final int blocks; //Number of measured blocks
+    private final int paymentsPerBlock; //Payments attempted for each block
+    private final int warmupBlocks; //Blocks run before measuring, so the JIT and caches settle
+    private final Random random; //Chooses every payment, seeded so runs repeat
+
+    private List<Wallet> wallets;
+    private int hotCount; //Number of wallets in the hot set, which are the first wallets
+
+    /**
+     * The shape of the payments made
+     */
+    enum Workload{
+        UNIFORM, //Any wallet pays any other
+        HOTSPOT, //Most payments are made and received by a small set of wallets
+        FANOUT //A small set of wallets pays out to every other wallet, like an exchange or payroll
+    }
+
+    Simulation(Workload workload, int walletCount, int blocks, int paymentsPerBlock, int warmupBlocks, long seed){
+        this.workload = workload;
+        this.walletCount = walletCount;
+        this.blocks = blocks;
+        this.paymentsPerBlock = paymentsPerBlock;
+        this.warmupBlocks = warmupBlocks;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args){
+        Workload workload = Workload.UNIFORM;
+        int wallets = 2000;
+        int blocks = 50;
+        int payments = 200;
+        int warmups = 5;
+        long seed = 1;
+        for(int i = 0; i < args.length; i++){
+            switch(args[i]){
+                case "-w": workload = Workload.valueOf(args[++i].toUpperCase(Locale.ROOT)); break;
+                case "-n": wallets = Integer.parseInt(args[++i]); break;
+                case "-b": blocks = Integer.parseInt(args[++i]); break;
+                case "-s": payments = Integer.parseInt(args[++i]); break;
+                case "-wb": warmups = Integer.parseInt(args[++i]); break;
+                case "-seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if(wallets < 2) throw new IllegalArgumentException("A simulation needs at least two wallets");
+        new Simulation(workload, wallets, blocks, payments, warmups, seed).run().print();
+    }
+
+    /**
+     * Creates and funds the wallets, runs the warmup blocks, then runs and measures the remaining blocks
+     * @return The measurements
+     */
+    Report run(){
+        Jackchain.reset();
+        wallets = new ArrayList<>(walletCount);
+        for(int i = 0; i < walletCount; i++){
+            wallets.add(new Wallet());
+        }
+        hotCount = Math.max(1, (int) (walletCount * HOT_FRACTION));
+        fund();
+
+        for(int i = 0; i < warmupBlocks; i++){
+            runBlock(null);
+        }
+
+        //Measure from a clean heap, so garbage from setting up is not counted
+        System.gc();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for(MemoryPoolMXBean pool : pools){
+            pool.resetPeakUsage();
+        }
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+
+        Report report = new Report(workload, walletCount, paymentsPerBlock);
+        long start = System.nanoTime();
+        for(int i = 0; i < blocks; i++){
+            runBlock(report);
+        }
+        report.nanos = System.nanoTime() - start;
+
+        report.gcCount = gcCount() - gcCount;
+        report.gcMillis = gcMillis() - gcMillis;
+        for(MemoryPoolMXBean pool : pools){
+            if(pool.getType() == MemoryType.HEAP) report.peakHeap += pool.getPeakUsage().getUsed();
+        }
+        report.usedHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        report.height = Jackchain.snapshot().getHeight();
+        return report;
+    }
+
+    /**
+     * Funds every wallet that makes payments from a bank wallet given the whole supply by the genesis block.
+     * The fanout workload only funds the wallets paying out, giving them the whole supply between them.
+     */
+    private void fund(){
+        int funded = (workload == Workload.FANOUT) ? hotCount : walletCount;
+        float share = FUNDS_PER_WALLET * walletCount / funded;
+        Wallet bank = new Wallet();
+        Jackchain.createGenesis(new Wallet(), bank.getPublicKey(), share * funded);
+
+        Block block = new Block(Jackchain.getTip().getHash());
+        for(int i = 0; i < funded; i++){
+            Transaction transaction = bank.sendFunds(wallets.get(i).getPublicKey(), share);
+            if(transaction == null || !block.addTransaction(transaction)) throw new IllegalStateException("Could not fund wallet " + i);
+            if(block.getTransactions().size() == paymentsPerBlock){
+                Jackchain.addBlock(block);
+                block = new Block(block.getHash());
+            }
+        }
+        if(!block.getTransactions().isEmpty()) Jackchain.addBlock(block);
+    }
+
+    /**
+     * Makes a block's worth of payments, then mines the block and validates the chain
+     * @param report Where to record the block's payments, or null for a warmup block
+     */
+    private void runBlock(Report report){
+        long[] submitted = new long[paymentsPerBlock];
+        int count = 0;
+        int rejected = 0;
+        Block block = new Block(Jackchain.getTip().getHash());
+        for(int i = 0; i < paymentsPerBlock; i++){
+            Wallet sender = wallets.get(pickSender());
+            Wallet receiver = wallets.get(pickReceiver());
+            while(receiver == sender){
+                receiver = wallets.get(random.nextInt(walletCount));
+            }
+            float amount = 1 + random.nextInt(10);
+
+            long start = System.nanoTime();
+            Transaction transaction = sender.sendFunds(receiver.getPublicKey(), amount);
+            if(transaction == null || !block.addTransaction(transaction)){
+                rejected++;
+                continue;
+            }
+            submitted[count++] = start;
+        }
+
+        Jackchain.addBlock(block);
+        long included = System.nanoTime();
+        ChainValidator.Result valid = Jackchain.validateChain();
+        if(!valid.isValid()) throw new IllegalStateException("The chain failed validation at height " + valid.getHeight() + ": " + valid);
+
+        if(report == null) return;
+        for(int i = 0; i < count; i++){
+            report.record(included - submitted[i]);
+        }
+        report.rejected += rejected;
+    }
+
+    private int pickSender(){
+        switch(workload){
+            case HOTSPOT: return (random.nextDouble() < HOT_SHARE) ? random.nextInt(hotCount) : random.nextInt(walletCount);
+            case FANOUT: return random.nextInt(hotCount);
+            default: return random.nextInt(walletCount);
+        }
+    }
+
+    private int pickReceiver(){
+        if(workload == Workload.HOTSPOT && random.nextDouble() < HOT_SHARE) return random.nextInt(hotCount);
+        return random.nextInt(walletCount);
+    }
+
+    private static long gcCount(){
+        long total = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis(){
+        long total = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * The measurements of a simulation run
+     */
+    static final class Report{
+        private final Workload workload;
+        private final int wallets;
+        private final int paymentsPerBlock;
+        private long[] latencies = new long[1024]; //Nanoseconds from submitting each included payment to its block joining the chain
+        private int included; //Number of payments that joined the chain
+        private int rejected; //Number of payments refused, usually for a lack of funds
+        private long nanos; //Length of the measured run
+        private long gcCount; //Collections during the measured run
+        private long gcMillis; //Time spent collecting during the measured run
+        private long peakHeap; //Largest heap use during the measured run
+        private long usedHeap; //Heap in use at the end of the run
+        private int height; //Height of the chain at the end of the run
+
+        private Report(Workload workload, int wallets, int paymentsPerBlock){
+            this.workload = workload;
+            this.wallets = wallets;
+            this.paymentsPerBlock = paymentsPerBlock;
+        }
+
+        private void record(long latency){
+            if(included == latencies.length) latencies = Arrays.copyOf(latencies, included * 2);
+            latencies[included++] = latency;
+        }
+
+        /**
+         * Gets the included payments per second over the measured run
+         * @return The throughput
+         */
+        double getTransactionsPerSecond(){
+            return (nanos == 0) ? 0 : included * 1_000_000_000.0 / nanos;
+        }
+
+        /**
+         * Gets a percentile of the payment latencies
+         * @param fraction The percentile as a fraction, such as 0.99
+         * @return The latency in milliseconds
+         */
+        double getLatencyMillis(double fraction){
+            if(included == 0) return 0;
+            long[] sorted = Arrays.copyOf(latencies, included);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(fraction * included) - 1;
+            return sorted[Math.max(0, Math.min(included - 1, rank))] / 1_000_000.0;
+        }
+
+        void print(){
+            System.out.printf(Locale.ROOT, "workload %s, %d wallets, %d payments per block, height %d%n", workload.name().toLowerCase(Locale.ROOT), wallets, paymentsPerBlock, height);
+            System.out.printf(Locale.ROOT, "payments  %d included, %d rejected in %.2f s%n", included, rejected, nanos / 1e9);
+            System.out.printf(Locale.ROOT, "tps       %.1f%n", getTransactionsPerSecond());
+            System.out.printf(Locale.ROOT, "latency   p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                getLatencyMillis(0.5), getLatencyMillis(0.9), getLatencyMillis(0.99), getLatencyMillis(1));
+            System.out.printf(Locale.ROOT, "heap      %.1f MB peak, %.1f MB at end%n", peakHeap / 1048576.0, usedHeap / 1048576.0);
+            System.out.printf(Locale.ROOT, "gc        %d collections, %d ms%n", gcCount, gcMillis);
+        }
+    }
+}
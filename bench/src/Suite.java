@@ -0,0 +1,31 @@
+/**
+ * A parameterised benchmark of a single operation
+ */
+interface Suite{
+    /**
+     * @return The name results are reported under
+     */
+    String getName();
+
+    /**
+     * @return The parameters the suite is run with by default
+     */
+    String[] getParams();
+
+    /**
+     * Prepares the state the operation needs, outside of the timed iterations
+     * @param param The parameter for this run
+     */
+    void setup(String param) throws Exception;
+
+    /**
+     * Runs the operation being measured once
+     * @return A value derived from the operation so it cannot be optimised away
+     */
+    Object run() throws Exception;
+
+    /**
+     * Releases anything the setup created
+     */
+    default void tearDown() throws Exception{}
+}
\ No newline at end of file
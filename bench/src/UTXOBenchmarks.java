@@ -0,0 +1,118 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.security.PublicKey;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks of the unspent output stores, and a report of the memory each one uses per output
+ */
+final class UTXOBenchmarks{
+    static final int OWNERS = 64; //Number of distinct owners the synthetic outputs are spread across
+
+    private UTXOBenchmarks(){}
+
+    /**
+     * Creates a store by name
+     * @param kind Either heap or offheap
+     * @return A supplier of empty stores of that kind
+     */
+    static Supplier<UTXOStore> factory(String kind){
+        return kind.equals("offheap") ? OffHeapUTXOStore::new : UTXOSet::new;
+    }
+
+    /**
+     * Creates owner keys without the cost of generating full wallets for each
+     * @return The keys
+     */
+    static PublicKey[] owners(){
+        PublicKey[] owners = new PublicKey[OWNERS];
+        for(int i = 0; i < OWNERS; i++){
+            owners[i] = new Wallet().getPublicKey();
+        }
+        return owners;
+    }
+
+    /**
+     * Creates a synthetic output
+     * @param i Number used to derive the output and parent ids
+     * @param owners Keys to pick the owner from
+     * @return The output
+     */
+    static TransactionOutput output(int i, PublicKey[] owners){
+        return new TransactionOutput(Block.encryptSha("output" + i), owners[i % owners.length], 1 + (i % 100), Block.encryptSha("parent" + (i / 2)));
+    }
+
+    /**
+     * Spends one output and creates two in a store of 100k outputs, as processing a transaction does
+     */
+    static final class Churn implements Suite{
+        private static final int SIZE = 100_000;
+        private UTXOStore store;
+        private TransactionOutput[] outputs;
+        private int next;
+
+        public String getName(){return "utxoChurn";}
+        public String[] getParams(){return new String[]{"heap", "offheap"};}
+
+        public void setup(String param){
+            PublicKey[] owners = owners();
+            outputs = new TransactionOutput[SIZE * 2];
+            for(int i = 0; i < outputs.length; i++){
+                outputs[i] = output(i, owners);
+            }
+            store = factory(param).get();
+            for(int i = 0; i < SIZE; i++){
+                store.put(outputs[i]);
+            }
+            next = SIZE;
+        }
+
+        public Object run(){
+            //Cycle through twice as many outputs as the store holds so it stays the same size
+            TransactionOutput spent = outputs[(next - SIZE) % outputs.length];
+            store.remove(spent.id);
+            store.put(outputs[next % outputs.length]);
+            next++;
+            return store.getBalance(spent.receiver);
+        }
+    }
+
+    /**
+     * Fills each kind of store with a number of outputs and prints the heap and off heap bytes used per output
+     * @param count Number of outputs to store
+     */
+    static void reportMemory(int count){
+        PublicKey[] owners = owners();
+
+        //Build the outputs once up front so only the memory held by the store itself is measured
+        TransactionOutput[] outputs = new TransactionOutput[count];
+        for(int i = 0; i < count; i++){
+            outputs[i] = output(i, owners);
+        }
+        for(String kind : new String[]{"heap", "offheap"}){
+            long before = usedHeap();
+            UTXOStore store = factory(kind).get();
+            for(TransactionOutput output : outputs){
+                store.put(output);
+            }
+            long heap = usedHeap() - before;
+            long offHeap = (store instanceof OffHeapUTXOStore) ? ((OffHeapUTXOStore) store).getOffHeapBytes() : 0;
+            System.out.printf(Locale.ROOT, "%-8s %10d outputs %10.1f heap bytes/output %10.1f off heap bytes/output%n",
+                kind, store.size(), (double) heap / count, (double) offHeap / count);
+            store.clear();
+        }
+    }
+
+    /**
+     * Gets the heap in use after collecting garbage
+     * @return The bytes in use
+     */
+    private static long usedHeap(){
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for(int i = 0; i < 3; i++){
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
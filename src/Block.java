@@ -1,8 +1,9 @@
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Represents a block in the blockchain
@@ -12,8 +13,25 @@ public final class Block{
     private final String previous; //Hash value for the previous block
     private String merkleRoot; //Merkle root of the block, generated though repeatedly hashing the transactions in the block 
     private final ArrayList<Transaction> transactions = new ArrayList<>(); //Transactions included in this block
+    private final MerkleTree merkleTree = new MerkleTree(); //Merkle tree over the ids of the transactions, extended as each one is added
     private final long timeStamp; //Time the block is created
     private int count; //A sequentially increased number used to make the hash of the block match the chain's difficulty requiremnet
+    private int[] midstate; //Cached SHA-256 state after the previous hash and merkle root, cleared when the merkle root changes
+    private BlockFilter filter; //Filter over the owners of the block's outputs and the outputs it spends, built once the block is mined
+    private boolean pruned; //Whether this is a header only copy, whose transactions were dropped to save memory
+    private int transactionCount; //Number of transactions the block held, only set on a pruned copy
+
+    static final int HEADER_SIZE = 76; //Bytes in the binary header: previous hash, merkle root, time stamp, count
+    static final int COUNT_OFFSET = 72; //Position of the count in the binary header
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> SHA = ThreadLocal.withInitial(() -> {
+        try{
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e){
+            throw new RuntimeException(e);
+        }
+    }); //One reusable digest per thread
 
     /**
      * Constructor for a new block 
@@ -27,11 +45,102 @@ public final class Block{
     }
 
     /**
-     * Generates the hash for the current block by applying the encryption method to the previous block's hash, the time of creation, the current count, and the merkle root
-     * @return
+     * Constructor for a block that has already been mined, used when reading blocks back from storage or from other nodes
+     * @param previous Hash of the previous block
+     * @param timeStamp Time the block was created
+     * @param merkleRoot Merkle root the block was mined with
+     * @param count Count the block was mined with
+     * @param hash Hash the block was mined with
+     * @param transactions Transactions in the block, which are not processed again
+     */
+    Block(String previous, long timeStamp, String merkleRoot, int count, String hash, List<Transaction> transactions){
+        this.previous = previous;
+        this.timeStamp = timeStamp;
+        this.merkleRoot = merkleRoot;
+        this.count = count;
+        this.hash = hash;
+        for(Transaction transaction : transactions){
+            this.transactions.add(transaction);
+            merkleTree.append(transaction.getID());
+        }
+    }
+
+    /**
+     * Generates the hash for the current block by applying SHA-256 to the binary header of the previous block's hash, the merkle root, the time of creation, and the current count
+     * @return The hash as a hex string
      */
     public String calculateHash(){
-        return encryptSha(previous + Long.toString(timeStamp) + Integer.toString(count) + merkleRoot);
+        return calculateHash(count);
+    }
+
+    /**
+     * Generates the hash the block would have with a given count, without changing the block
+     * @param count The count to hash the block with
+     * @return The hash of the block at that count as a hex string
+     */
+    String calculateHash(int count){
+        return toHex(newHasher().hash(count));
+    }
+
+    /**
+     * Builds the fixed layout binary header of the block.
+     * The previous hash and merkle root fill the first 64 bytes so their hash state can be reused while mining.
+     * @return The header bytes with the count left as zero
+     */
+    byte[] getHeaderBytes(){
+        byte[] header = new byte[HEADER_SIZE];
+        hexToBytes(previous, header, 0);
+        hexToBytes(merkleRoot, header, 32);
+        for(int i = 0; i < 8; i++){
+            header[COUNT_OFFSET - 1 - i] = (byte) (timeStamp >>> (8 * i));
+        }
+        return header;
+    }
+
+    /**
+     * Gets the hash state after the unchanging first 64 bytes of the header, calculating it if the merkle root has changed
+     * @return The cached midstate
+     */
+    private int[] getMidstate(){
+        int[] cached = midstate;
+        if(cached == null){
+            cached = Sha256.initialState();
+            Sha256.compress(cached, getHeaderBytes(), 0, new int[64]);
+            midstate = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * Creates a hasher for the block's header, each thread hashing the block should use its own
+     * @return A new hasher starting from the block's midstate
+     */
+    HeaderHasher newHasher(){
+        return new HeaderHasher(getMidstate(), getHeaderBytes());
+    }
+
+    /**
+     * Checks whether a hash meets a difficulty requirement
+     * @param hash The hash to check as a hex string
+     * @param diff The difficulty (number of leading zeroes) the hash should have
+     * @return Whether the hash has at least the required number of leading zeroes
+     */
+    public static boolean meetsDifficulty(String hash, int diff){
+        if(hash.length() < diff) return false;
+        for(int i = 0; i < diff; i++){
+            if(hash.charAt(i) != '0') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a raw digest meets a difficulty requirement, each hex zero being four zero bits
+     * @param digest The digest to check
+     * @param diff The difficulty (number of leading zeroes) the hash should have
+     * @return Whether the digest has at least the required number of leading zero bits
+     */
+    static boolean meetsDifficulty(byte[] digest, int diff){
+        return Sha256.leadingZeroBits(digest) >= diff * 4;
     }
 
     /**
@@ -39,18 +148,59 @@ public final class Block{
      * @param diff The difficulty (number of leading zeroes) the final hash should have
      */
     public void mineBlock(int diff){
-        //Generate the merkle root using the current transactions
-        merkleRoot = getMerkleRoot(transactions);
-
-        //Generate a string of the required number of zeroes to compare to the hash attempts
-        String target = new String(new char[diff]).replace('\0', '0');
+        //Take the merkle root from the tree kept up to date as transactions were added
+        setMerkleRoot(merkleTree.getRoot());
 
-        //Rehash the block, generating a new count every time, until there are the required number of zeroes
-        while(!hash.substring(0, diff).equals(target)){
+        //Rehash the binary header, generating a new count every time, until there are the required number of zeroes
+        long start = ChainEvents.isEnabled() ? System.nanoTime() : 0;
+        int first = count;
+        HeaderHasher hasher = newHasher();
+        while(!meetsDifficulty(hasher.hash(count), diff)){
             count++;
-            hash = calculateHash();
         }
-        System.out.println("Block Mined!!! : " + hash);
+        hash = toHex(hasher.hash(count));
+        filter = BlockFilter.build(this);
+        if(ChainEvents.isEnabled()) ChainEvents.blockMined(this, (long) count - first + 1, System.nanoTime() - start);
+    }
+
+    /**
+     * Mines the block by splitting the search for a count across the workers of a parallel miner
+     * @param diff The difficulty (number of leading zeroes) the final hash should have
+     * @param miner The miner to run the search on
+     * @return The result of the search, including the number of attempts per second
+     */
+    public MiningResult mineBlock(int diff, ParallelMiner miner){
+        //Take the merkle root from the tree kept up to date as transactions were added
+        setMerkleRoot(merkleTree.getRoot());
+
+        //Search for a count giving the required number of zeroes and apply it to the block
+        MiningResult result = miner.mine(this, diff);
+        if(result == null) throw new IllegalStateException("No count meets difficulty " + diff);
+        finishMining(result);
+        return result;
+    }
+
+    /**
+     * Starts mining the block on a parallel miner without waiting, so the search can be cancelled if the block goes out of date.
+     * No transactions should be added to the block once the search has started.
+     * @param diff The difficulty (number of leading zeroes) the final hash should have
+     * @param miner The miner to run the search on
+     * @return The running search, whose result is applied with finishMining
+     */
+    MiningSearch startMining(int diff, ParallelMiner miner){
+        setMerkleRoot(merkleTree.getRoot());
+        return miner.start(this, diff);
+    }
+
+    /**
+     * Applies the winning count of a search to the block
+     * @param result The result of the search
+     */
+    void finishMining(MiningResult result){
+        count = result.getNonce();
+        hash = result.getHash();
+        filter = BlockFilter.build(this);
+        if(ChainEvents.isEnabled()) ChainEvents.blockMined(this, result.getAttempts(), result.getElapsedNanos());
     }
 
     /**
@@ -62,70 +212,154 @@ public final class Block{
         //If no transaction is given, nothing can be added
         if(transaction == null) return false;
         
-        //If this is not the first block and the transaction cannot be processed correctly, it should not be added
-        if(!previous.equals("0") && transaction.processTransaction() != true){
-            System.out.println("Transaction failed to process.");
-            return false;
-        }
+        //If this is not the first block and the transaction cannot be processed correctly, it should not be added.
+        //Processing reports why the transaction was rejected
+        if(!previous.equals("0") && transaction.processTransaction() != true) return false;
 
         //Add the transaction
         transactions.add(transaction);
-        System.out.println("Transaction successfullly added.");
+        merkleTree.append(transaction.getID());
+        if(ChainEvents.isEnabled()) ChainEvents.transactionAdded(this, transaction);
         return true;
     }
 
+    /**
+     * Creates a copy of the mined block holding only its header and filter, so the transactions can be dropped from memory.
+     * The copy has the same hash but no transactions
+     * @return The header only copy
+     */
+    Block pruned(){
+        Block copy = new Block(previous, timeStamp, merkleRoot, count, hash, List.of());
+        copy.pruned = true;
+        copy.transactionCount = getTransactionCount();
+        copy.filter = getFilter();
+        return copy;
+    }
+
+    /**
+     * Creates a header only copy of a stored block without decoding its transactions, such as for the blocks a snapshot of the outputs already covers.
+     * Its filter is not known, so it has no filter and anything matching filters has to look inside it
+     * @return The header only copy
+     */
+    static Block header(String previous, long timeStamp, String merkleRoot, int count, String hash, int transactionCount){
+        Block block = new Block(previous, timeStamp, merkleRoot, count, hash, List.of());
+        block.pruned = true;
+        block.transactionCount = transactionCount;
+        return block;
+    }
+
+    /**
+     * Estimates the heap memory held by the block's transactions and everything only they refer to, which pruning the block frees
+     * @return The estimated number of bytes
+     */
+    long estimateTransactionMemory(){
+        long bytes = 0;
+        for(Transaction transaction : transactions){
+            bytes += transaction.estimateMemory();
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds a transaction that has already been processed, such as one moved from another block built on the same unspent outputs
+     * @param transaction The processed transaction
+     */
+    void addProcessed(Transaction transaction){
+        transactions.add(transaction);
+        merkleTree.append(transaction.getID());
+    }
+
     /**
      * Encrypts a string using the SHA-256 algorithm
      * @param plain The plaintext to be encrypted
      * @return The encrypted text
      */
     public static String encryptSha(String plain){
-        try{
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(plain.getBytes("UTF-8"));
-
-            StringBuilder hexString = new StringBuilder();
-            for(int i = 0; i < hash.length; i++){
-                String hex = Integer.toHexString(0xff & hash[i]);
-                if(hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e){
-            throw new RuntimeException(e);
+        return toHex(SHA.get().digest(plain.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Converts bytes to a lowercase hex string
+     * @param bytes The bytes to convert
+     * @return The hex string
+     */
+    static String toHex(byte[] bytes){
+        char[] out = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++){
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xf];
         }
+        return new String(out);
     }
 
     /**
-     * Gets the merkle root of the transactions in the block by repeatedly hashing the ids of transactions in the block
+     * Decodes a hex string of up to 64 characters into a 32 byte field, right aligned so shorter strings such as the genesis "0" fill with leading zeroes
+     * @param hex The hex string, null or empty giving all zeroes
+     * @param out The array to write the field to
+     * @param off Offset of the field in the array
+     */
+    static void hexToBytes(String hex, byte[] out, int off){
+        if(hex == null) return;
+        if(hex.length() > 64) throw new IllegalArgumentException("Hash too long: " + hex);
+        int end = off + 32;
+        for(int i = hex.length(); i > 0; i -= 2){
+            int low = Character.digit(hex.charAt(i - 1), 16);
+            int high = (i > 1) ? Character.digit(hex.charAt(i - 2), 16) : 0;
+            if(low < 0 || high < 0) throw new IllegalArgumentException("Not a hex hash: " + hex);
+            out[--end] = (byte) ((high << 4) | low);
+        }
+    }
+
+    /**
+     * Gets the merkle root of a list of transactions by hashing the ids of the transactions together in pairs
      * @param transactions The transactions in the block
      * @return The generated merkle root
      */
     public static String getMerkleRoot(ArrayList<Transaction> transactions){
-        //Start by filling the previous layer with the raw ids of the transactions
-        int count = transactions.size();
-        ArrayList<String> previousTreeLayer = new ArrayList<>();
-
+        ArrayList<String> ids = new ArrayList<>(transactions.size());
         for(Transaction transaction : transactions){
-            previousTreeLayer.add(transaction.getID());
+            ids.add(transaction.getID());
         }
+        return new MerkleTree(ids).getRoot();
+    }
 
-        ArrayList<String> treeLayer = previousTreeLayer;
-
-        //Rehash the ids together in pairs until there is only 1 string left  
-        while(count > 1){
-            treeLayer = new ArrayList<>();
-            for(int i = 1; i < previousTreeLayer.size(); i++){
-                treeLayer.add(encryptSha(previousTreeLayer.get(i - 1) + previousTreeLayer.get(i)));
-            }
-            count = treeLayer.size();
-            previousTreeLayer = treeLayer;
-        }
+    /**
+     * Generates a proof that a transaction is in the block, which can be checked against the merkle root without the other transactions
+     * @param index Position of the transaction in the block
+     * @return The proof for the transaction
+     */
+    public MerkleProof getMerkleProof(int index){
+        return merkleTree.getProof(index);
+    }
 
-        return (treeLayer.size() == 1) ? treeLayer.get(0) : "";
+    /**
+     * Sets the merkle root and clears the midstate that was calculated from the old one
+     * @param merkleRoot The new merkle root
+     */
+    private void setMerkleRoot(String merkleRoot){
+        this.merkleRoot = merkleRoot;
+        this.midstate = null;
     }
 
     public String getHash(){return this.hash;}
     public String getPrevious(){return this.previous;}
+    public String getMerkleRoot(){return this.merkleRoot;}
+    public long getTimeStamp(){return this.timeStamp;}
+    public int getCount(){return this.count;}
+
+    /**
+     * Gets the block's filter, building it for blocks read back from storage or received from other nodes
+     * @return The filter over the owners of the block's outputs and the outputs it spends, or null for a header only copy whose filter is not known
+     */
+    public BlockFilter getFilter(){
+        BlockFilter built = filter;
+        if(built == null && !pruned){
+            built = BlockFilter.build(this);
+            filter = built;
+        }
+        return built;
+    }
     public ArrayList<Transaction> getTransactions(){return this.transactions;}
+    public boolean isPruned(){return this.pruned;}
+    public int getTransactionCount(){return pruned ? this.transactionCount : this.transactions.size();}
 }
\ No newline at end of file
@@ -0,0 +1,352 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts blocks and transactions to and from a compact binary format.
+ * Hashes are stored as raw bytes rather than hex, and output owners that match the sender or receiver are stored as a single flag.
+ */
+final class BlockCodec{
+    private static final byte OWNER_RECEIVER = 0; //Output owned by the transaction's receiver
+    private static final byte OWNER_SENDER = 1; //Output owned by the transaction's sender
+    private static final byte OWNER_OTHER = 2; //Output owned by a key written out in full
+
+    //Fewest bytes each counted entry can take, so a count can be checked against the bytes left before reading that many
+    private static final int MIN_KEY = 3; //Algorithm length and encoded key length
+    private static final int MIN_TRANSACTION = 21; //Id, two keys, value, signature length, and input and output counts
+    private static final int MIN_INPUT = 2; //Output id and whether the spent output follows
+    private static final int MIN_OUTPUT = 7; //Id, owner flag, value and parent id
+    private static final int MIN_STORED_OUTPUT = 10; //Id, owner position, value and parent id
+
+    private static final int MAX_KEYS = 10000; //Most decoded keys to remember
+    private static final LinkedHashMap<String, PublicKey> KEYS = new LinkedHashMap<>(16, 0.75f, true){ //Recently decoded keys, so keys seen again are not decoded again and share one object
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PublicKey> eldest){
+            return size() > MAX_KEYS;
+        }
+    };
+
+    private BlockCodec(){}
+
+    /**
+     * Encodes a block with all its transactions
+     * @param block The block to encode
+     * @return The encoded bytes
+     */
+    static byte[] encodeBlock(Block block){
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + block.getTransactions().size() * 512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeHex(out, block.getHash());
+            writeHex(out, block.getPrevious());
+            writeHex(out, block.getMerkleRoot());
+            out.writeLong(block.getTimeStamp());
+            out.writeInt(block.getCount());
+            out.writeInt(block.getTransactions().size());
+            for(Transaction transaction : block.getTransactions()){
+                writeTransaction(out, transaction);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decodes a block with all its transactions
+     * @param in Buffer positioned at the start of the block
+     * @return The decoded block
+     */
+    static Block decodeBlock(ByteBuffer in){
+        String hash = readHex(in);
+        String previous = readHex(in);
+        String merkleRoot = readHex(in);
+        long timeStamp = in.getLong();
+        int count = in.getInt();
+        int size = readCount(in, MIN_TRANSACTION, "transactions");
+        List<Transaction> transactions = new ArrayList<>();
+        for(int i = 0; i < size; i++){
+            transactions.add(readTransaction(in));
+        }
+        return new Block(previous, timeStamp, merkleRoot, count, hash, transactions);
+    }
+
+    /**
+     * Decodes only the header of an encoded block, leaving its transactions unread
+     * @param in Buffer positioned at the start of the block
+     * @return A header only copy of the block
+     */
+    static Block decodeHeader(ByteBuffer in){
+        String hash = readHex(in);
+        String previous = readHex(in);
+        String merkleRoot = readHex(in);
+        long timeStamp = in.getLong();
+        int count = in.getInt();
+        return Block.header(previous, timeStamp, merkleRoot, count, hash, in.getInt());
+    }
+
+    /**
+     * Writes a set of unspent outputs, writing each owner's key once before the outputs and each output with the position of its owner's key
+     * @param out The stream to write to
+     * @param UTXOs The outputs to write
+     */
+    static void writeOutputs(DataOutputStream out, UTXOView UTXOs) throws IOException{
+        LinkedHashMap<PublicKey, Integer> keys = new LinkedHashMap<>();
+        UTXOs.forEach(output -> keys.putIfAbsent(output.receiver, keys.size()));
+        out.writeInt(keys.size());
+        for(PublicKey key : keys.keySet()){
+            writeKey(out, key);
+        }
+
+        out.writeInt(UTXOs.size());
+        try{
+            UTXOs.forEach(output -> {
+                try{
+                    writeHex(out, output.id);
+                    out.writeInt(keys.get(output.receiver));
+                    out.writeFloat(output.val);
+                    writeHex(out, output.parentTransactionId);
+                } catch(IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch(UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads a set of unspent outputs written by writeOutputs
+     * @param in Buffer positioned at the start of the outputs
+     * @return The outputs
+     */
+    static List<TransactionOutput> readOutputs(ByteBuffer in){
+        int keyCount = readCount(in, MIN_KEY, "keys");
+        List<PublicKey> keys = new ArrayList<>();
+        for(int i = 0; i < keyCount; i++){
+            keys.add(readKey(in));
+        }
+
+        int size = readCount(in, MIN_STORED_OUTPUT, "outputs");
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for(int i = 0; i < size; i++){
+            String id = readHex(in);
+            int key = in.getInt();
+            if(key < 0 || key >= keys.size()) throw new IllegalArgumentException("Output refers to key " + key + " of " + keys.size());
+            PublicKey owner = keys.get(key);
+            float val = in.getFloat();
+            outputs.add(new TransactionOutput(id, owner, val, readHex(in)));
+        }
+        return outputs;
+    }
+
+    /**
+     * Writes a transaction with its inputs, the outputs those inputs spent, and its own outputs
+     * @param out The stream to write to
+     * @param transaction The transaction to write
+     */
+    static void writeTransaction(DataOutputStream out, Transaction transaction) throws IOException{
+        writeHex(out, transaction.getID());
+        writeKey(out, transaction.getSenderKey());
+        writeKey(out, transaction.getReceiverKey());
+        out.writeFloat(transaction.getValue());
+        writeBytes(out, transaction.getSignature());
+
+        //Inputs keep the value and parent of the output they spent, their owner is always the sender
+        out.writeInt(transaction.getInputs().size());
+        for(TransactionInput input : transaction.getInputs()){
+            writeHex(out, input.transactionOutputId);
+            out.writeBoolean(input.UTXO != null);
+            if(input.UTXO != null){
+                writeHex(out, input.UTXO.parentTransactionId);
+                out.writeFloat(input.UTXO.val);
+            }
+        }
+
+        out.writeInt(transaction.getOutputs().size());
+        for(TransactionOutput output : transaction.getOutputs()){
+            writeHex(out, output.id);
+            if(output.receiver.equals(transaction.getReceiverKey())){
+                out.writeByte(OWNER_RECEIVER);
+            } else if(output.receiver.equals(transaction.getSenderKey())){
+                out.writeByte(OWNER_SENDER);
+            } else{
+                out.writeByte(OWNER_OTHER);
+                writeKey(out, output.receiver);
+            }
+            out.writeFloat(output.val);
+            writeHex(out, output.parentTransactionId);
+        }
+    }
+
+    /**
+     * Reads a transaction written by writeTransaction
+     * @param in Buffer positioned at the start of the transaction
+     * @return The decoded transaction
+     */
+    static Transaction readTransaction(ByteBuffer in){
+        String id = readHex(in);
+        PublicKey sender = readKey(in);
+        PublicKey receiver = readKey(in);
+        float val = in.getFloat();
+        byte[] signature = readBytes(in);
+
+        int inputCount = readCount(in, MIN_INPUT, "inputs");
+        ArrayList<TransactionInput> inputs = new ArrayList<>();
+        for(int i = 0; i < inputCount; i++){
+            TransactionInput input = new TransactionInput(readHex(in));
+            if(in.get() != 0){
+                String parent = readHex(in);
+                input.UTXO = new TransactionOutput(input.transactionOutputId, sender, in.getFloat(), parent);
+            }
+            inputs.add(input);
+        }
+
+        int outputCount = readCount(in, MIN_OUTPUT, "outputs");
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for(int i = 0; i < outputCount; i++){
+            String outputId = readHex(in);
+            byte owner = in.get();
+            PublicKey key = (owner == OWNER_RECEIVER) ? receiver : (owner == OWNER_SENDER) ? sender : readKey(in);
+            float outputVal = in.getFloat();
+            outputs.add(new TransactionOutput(outputId, key, outputVal, readHex(in)));
+        }
+        return new Transaction(id, sender, receiver, val, signature, inputs, outputs);
+    }
+
+    /**
+     * Reads a count of entries, checking it against the bytes left so a corrupt or hostile count cannot claim more entries than could follow
+     * @param in Buffer positioned at the count
+     * @param minEntrySize Fewest bytes each entry can take
+     * @param what What is being counted, reported with any failure
+     * @return The count
+     */
+    private static int readCount(ByteBuffer in, int minEntrySize, String what){
+        int count = in.getInt();
+        if(count < 0 || count > in.remaining() / minEntrySize) throw new IllegalArgumentException("Claims " + count + " " + what + " with " + in.remaining() + " bytes left");
+        return count;
+    }
+
+    /**
+     * Writes a hex string as raw bytes after its length in characters, so odd lengths such as "0" and null survive
+     * @param out The stream to write to
+     * @param hex The hex string, or null
+     */
+    static void writeHex(DataOutputStream out, String hex) throws IOException{
+        if(hex == null){
+            out.writeByte(-1);
+            return;
+        }
+        byte[] bytes = new byte[32];
+        Block.hexToBytes(hex, bytes, 0);
+        int length = (hex.length() + 1) / 2;
+        out.writeByte(hex.length());
+        out.write(bytes, 32 - length, length);
+    }
+
+    /**
+     * Reads a hex string written by writeHex
+     * @param in Buffer positioned at the string
+     * @return The hex string, or null
+     */
+    static String readHex(ByteBuffer in){
+        int chars = in.get();
+        if(chars < 0) return null;
+        byte[] bytes = new byte[(chars + 1) / 2];
+        in.get(bytes);
+        String hex = Block.toHex(bytes);
+        return (hex.length() > chars) ? hex.substring(1) : hex;
+    }
+
+    /**
+     * Writes a public key as its algorithm name and X.509 encoding
+     * @param out The stream to write to
+     * @param key The key to write
+     */
+    static void writeKey(DataOutputStream out, PublicKey key) throws IOException{
+        byte[] algorithm = key.getAlgorithm().getBytes(StandardCharsets.UTF_8);
+        out.writeByte(algorithm.length);
+        out.write(algorithm);
+        writeBytes(out, key.getEncoded());
+    }
+
+    /**
+     * Reads a public key written by writeKey, reusing the key object if the same key has been read before
+     * @param in Buffer positioned at the key
+     * @return The decoded key
+     */
+    static PublicKey readKey(ByteBuffer in){
+        int length = in.get() & 0xff;
+        if(length > in.remaining()) throw new IllegalArgumentException("Key algorithm claims " + length + " bytes with " + in.remaining() + " bytes left");
+        byte[] algorithm = new byte[length];
+        in.get(algorithm);
+        byte[] encoded = readBytes(in);
+        return decodeKey(new String(algorithm, StandardCharsets.UTF_8), encoded);
+    }
+
+    /**
+     * Decodes a public key from its X.509 encoding, reusing the key object if the same key has been decoded recently
+     * @param algorithm The key algorithm
+     * @param encoded The encoded key
+     * @return The decoded key
+     */
+    static PublicKey decodeKey(String algorithm, byte[] encoded){
+        String name = algorithm + ":" + Base64.getEncoder().encodeToString(encoded);
+        synchronized(KEYS){
+            PublicKey key = KEYS.get(name);
+            if(key != null) return key;
+        }
+
+        //Decode outside the lock so threads decoding other keys do not wait, keeping whichever copy is remembered first
+        PublicKey key;
+        try{
+            key = KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+        } catch(GeneralSecurityException e){
+            throw new RuntimeException(e);
+        }
+        synchronized(KEYS){
+            PublicKey existing = KEYS.putIfAbsent(name, key);
+            return (existing == null) ? key : existing;
+        }
+    }
+
+    /**
+     * Writes a byte array after its length
+     * @param out The stream to write to
+     * @param bytes The bytes, or null
+     */
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException{
+        if(bytes == null){
+            out.writeShort(-1);
+            return;
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a byte array written by writeBytes
+     * @param in Buffer positioned at the array
+     * @return The bytes, or null
+     */
+    static byte[] readBytes(ByteBuffer in){
+        int length = in.getShort();
+        if(length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,248 @@
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * A Bloom filter over the owners of a block's outputs and the ids of the outputs its transactions spend,
+ * so a wallet tracking a few keys can skip every block the filter rules out rather than checking each output.
+ * A filter never misses an item in the block but sometimes matches one that is not, at a rate set by the bits per item.
+ * The bit positions are salted with the block's hash, so an item that falsely matches one block is no more likely to match the next.
+ */
+public final class BlockFilter{
+    public static final int BITS_PER_ITEM = 10; //Filter bits for each item, giving about a 1% false positive rate
+    public static final int HASHES = 7; //Bits set for each item, the best number for ten bits per item
+
+    private final long[] bits; //The filter's bits
+    private final long size; //Number of bits
+    private final long salt; //Mixed into every item's hash, taken from the block's hash
+
+    private BlockFilter(int items, long salt){
+        this.size = Math.max(64, (long) items * BITS_PER_ITEM);
+        this.bits = new long[(int) ((size + 63) >>> 6)];
+        this.salt = salt;
+    }
+
+    /**
+     * Builds the filter of a mined block
+     * @param block The block
+     * @return The filter over the block's output owners and spent output ids
+     */
+    public static BlockFilter build(Block block){
+        int items = 0;
+        for(Transaction transaction : block.getTransactions()){
+            items += transaction.getOutputs().size() + transaction.getInputs().size();
+        }
+        BlockFilter filter = new BlockFilter(items, salt(block.getHash()));
+        for(Transaction transaction : block.getTransactions()){
+            for(TransactionOutput output : transaction.getOutputs()){
+                filter.add(hash(output.receiver));
+            }
+            for(TransactionInput input : transaction.getInputs()){
+                filter.add(hash(input.transactionOutputId));
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Checks whether a key may own an output in the block
+     * @param owner The key
+     * @return False if the key definitely owns none of the block's outputs
+     */
+    public boolean mightContain(PublicKey owner){
+        return mightContain(hash(owner));
+    }
+
+    /**
+     * Checks whether the block may spend an output
+     * @param outputId Id of the output
+     * @return False if the block definitely does not spend the output
+     */
+    public boolean mightContain(String outputId){
+        return mightContain(hash(outputId));
+    }
+
+    /**
+     * Checks an item by the hash of its bytes, so an item tested against many filters is only hashed once
+     * @param item Hash of the item from one of the hash methods
+     * @return False if the item is definitely not in the filter
+     */
+    boolean mightContain(long item){
+        long first = mix(item ^ salt);
+        long step = mix(first) | 1;
+        for(int i = 0; i < HASHES; i++){
+            long bit = Long.remainderUnsigned(first + i * step, size);
+            if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private void add(long item){
+        long first = mix(item ^ salt);
+        long step = mix(first) | 1;
+        for(int i = 0; i < HASHES; i++){
+            long bit = Long.remainderUnsigned(first + i * step, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Gets the size of the filter
+     * @return The number of bytes of bits
+     */
+    public int getByteSize(){
+        return bits.length * Long.BYTES;
+    }
+
+    static long hash(PublicKey owner){
+        return hash(owner.getEncoded());
+    }
+
+    static long hash(String outputId){
+        return hash(outputId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hashes bytes with 64 bit FNV-1a, which is only used to place items in filters so does not need to be cryptographic
+     */
+    private static long hash(byte[] bytes){
+        long hash = 0xcbf29ce484222325L;
+        for(byte b : bytes){
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Scrambles the bits of a value, the finaliser of SplitMix64
+     */
+    private static long mix(long value){
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    private static long salt(String blockHash){
+        return Long.parseUnsignedLong(blockHash.substring(blockHash.length() - 16), 16);
+    }
+
+    /**
+     * Finds the unspent outputs a set of keys own by walking a chain, only looking inside the blocks whose filters match
+     * one of the keys or one of the outputs found so far
+     * @param blocks The chain, from the genesis block
+     * @param owners The keys to find outputs for
+     * @return The outputs found and how many blocks were looked inside
+     * @throws IllegalStateException If a matching block has been pruned, as its outputs can no longer be looked at
+     */
+    public static Rescan rescan(List<Block> blocks, Collection<PublicKey> owners){
+        return rescan(blocks, owners, height -> {
+            throw new IllegalStateException("Block " + height + " matches but has been pruned, so its outputs cannot be rescanned");
+        });
+    }
+
+    /**
+     * Finds the unspent outputs a set of keys own by walking a chain that may hold pruned blocks, only looking inside the blocks whose filters match
+     * @param blocks The chain, from the genesis block
+     * @param owners The keys to find outputs for
+     * @param reader Reads a pruned block back whole by height, only called for pruned blocks whose filters match
+     * @return The outputs found and how many blocks were looked inside
+     */
+    static Rescan rescan(List<Block> blocks, Collection<PublicKey> owners, IntFunction<Block> reader){
+        long[] ownerHashes = new long[owners.size()];
+        int n = 0;
+        for(PublicKey owner : owners){
+            ownerHashes[n++] = hash(owner);
+        }
+        HashMap<String, TransactionOutput> found = new HashMap<>(); //Outputs found and not yet spent, by id
+        HashMap<String, Long> foundHashes = new HashMap<>(); //Filter hash of each found output's id
+
+        Rescan rescan = new Rescan();
+        for(int height = 0; height < blocks.size(); height++){
+            Block block = blocks.get(height);
+            BlockFilter filter = block.getFilter();
+            boolean match = filter == null; //A block without a filter always has to be looked inside
+            for(int i = 0; i < ownerHashes.length && !match; i++){
+                match = filter.mightContain(ownerHashes[i]);
+            }
+            if(!match){
+                for(long outputHash : foundHashes.values()){
+                    if(filter.mightContain(outputHash)){
+                        match = true;
+                        break;
+                    }
+                }
+            }
+            rescan.blocks++;
+            if(!match) continue;
+
+            //Look inside the block, counting it as a false positive if nothing in it concerns the keys
+            rescan.matched++;
+            if(block.isPruned()) block = reader.apply(height);
+            boolean relevant = false;
+            for(Transaction transaction : block.getTransactions()){
+                for(TransactionInput input : transaction.getInputs()){
+                    if(found.remove(input.transactionOutputId) != null){
+                        foundHashes.remove(input.transactionOutputId);
+                        relevant = true;
+                    }
+                }
+                for(TransactionOutput output : transaction.getOutputs()){
+                    if(owners.contains(output.receiver)){
+                        found.put(output.id, output);
+                        foundHashes.put(output.id, hash(output.id));
+                        relevant = true;
+                    }
+                }
+            }
+            if(!relevant) rescan.falsePositives++;
+        }
+        rescan.outputs = new ArrayList<>(found.values());
+        return rescan;
+    }
+
+    /**
+     * Finds the unspent outputs a set of keys own by looking inside every block, which is what a rescan without filters costs
+     * @param blocks The chain, from the genesis block
+     * @param owners The keys to find outputs for
+     * @return The outputs found
+     * @throws IllegalStateException If a block has been pruned
+     */
+    public static List<TransactionOutput> scan(List<Block> blocks, Collection<PublicKey> owners){
+        Map<String, TransactionOutput> found = new HashMap<>();
+        for(Block block : blocks){
+            if(block.isPruned()) throw new IllegalStateException("The chain holds pruned blocks, so its outputs cannot be scanned");
+            for(Transaction transaction : block.getTransactions()){
+                for(TransactionInput input : transaction.getInputs()){
+                    found.remove(input.transactionOutputId);
+                }
+                for(TransactionOutput output : transaction.getOutputs()){
+                    if(owners.contains(output.receiver)) found.put(output.id, output);
+                }
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * The result of a rescan
+     */
+    public static final class Rescan{
+        private List<TransactionOutput> outputs; //Unspent outputs the keys own
+        private int blocks; //Blocks whose filters were tested
+        private int matched; //Blocks whose filters matched, so were looked inside
+        private int falsePositives; //Matched blocks that held nothing for the keys
+
+        private Rescan(){}
+
+        public List<TransactionOutput> getOutputs(){return this.outputs;}
+        public int getBlocks(){return this.blocks;}
+        public int getMatched(){return this.matched;}
+        public int getFalsePositives(){return this.falsePositives;}
+    }
+}
@@ -0,0 +1,445 @@
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Every known block by hash, forming a tree of competing branches, with the branch holding the most work kept as the chain.
+ * Each block on the chain keeps an undo log of the outputs it spent and created, so switching to a heavier branch only
+ * undoes the blocks back to where the branches split and applies the new ones, rather than rebuilding the outputs from the genesis block.
+ * The chain is published to a ChainState with a view of its outputs, so readers see the switch all at once.
+ */
+public final class BlockIndex{
+    private static final List<ChainValidator.Undo> PRUNED = Collections.emptyList(); //Undo log of a pruned block, which can no longer be undone
+    public static final int MAX_ORPHANS = 1000; //Most blocks kept waiting for their parents, the longest waiting are dropped first
+    public static final int STALE_DEPTH = 1000; //Side branches whose highest block is this far below the tip are forgotten
+    private static final int SWEEP_INTERVAL = 100; //Blocks the tip moves up between looking for stale side branches
+
+    private final ChainValidator validator; //Checks blocks as they are connected
+    private final ChainState state; //Where the chain is published
+    private final BigInteger blockWork; //Work of every block, set by the required difficulty rather than by how far its hash happens to beat it
+    private final SharedUTXOStore UTXOs = new SharedUTXOStore(); //Unspent outputs after the tip, whose views are published with the chain
+    private final HashMap<String, Entry> entries = new HashMap<>(); //Every known block by hash
+    private final LinkedHashMap<String, List<Block>> orphans = new LinkedHashMap<>(); //Blocks whose parent is not known yet, by the parent's hash, longest waiting first
+    private int orphanCount; //Number of blocks across the orphan lists
+    private Entry tip; //Last block on the chain, null when there is no genesis block
+    private int prunedHeight; //Blocks on the chain below this height are header only copies without undo logs
+    private int sweptHeight; //Height of the tip when stale side branches were last looked for
+
+    /**
+     * Constructor for an empty index
+     * @param validator Checks blocks as they are connected
+     * @param state Where the chain is published
+     */
+    public BlockIndex(ChainValidator validator, ChainState state){
+        this.validator = validator;
+        this.state = state;
+        this.blockWork = work(validator.getDiff());
+    }
+
+    /**
+     * Adds a block to the index after checking its hash and proof of work, connecting it if its branch now has the most work.
+     * Any stored orphans that follow the block are added after it.
+     * @param block The block
+     * @return What happened to the block and how the chain changed
+     */
+    public synchronized ChainChange accept(Block block){
+        return accept(block, false);
+    }
+
+    /**
+     * Adds a block to the index
+     * @param block The block
+     * @param trusted Whether the block is already known to be valid, such as one read back from storage, so its checks can be skipped
+     * @return What happened to the block and how the chain changed
+     */
+    synchronized ChainChange accept(Block block, boolean trusted){
+        ChainChange change = add(block, trusted);
+        if(change.getStatus() == ChainChange.Status.REJECTED || change.getStatus() == ChainChange.Status.ORPHAN || change.getStatus() == ChainChange.Status.KNOWN) return change;
+
+        //Add any orphans waiting on this block, then any waiting on them, always checking them as they came from other nodes even when the block is trusted
+        ArrayDeque<String> parents = new ArrayDeque<>();
+        parents.add(block.getHash());
+        while(!parents.isEmpty()){
+            List<Block> waiting = orphans.remove(parents.poll());
+            if(waiting == null) continue;
+            orphanCount -= waiting.size();
+            for(Block orphan : waiting){
+                ChainChange next = add(orphan, false);
+                if(next.getStatus() == ChainChange.Status.CONNECTED || next.getStatus() == ChainChange.Status.STORED){
+                    change.merge(next);
+                    parents.add(orphan.getHash());
+                }
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Adds a single block, switching to its branch if that branch now has the most work
+     */
+    private ChainChange add(Block block, boolean trusted){
+        if(entries.containsKey(block.getHash())) return new ChainChange(ChainChange.Status.KNOWN);
+
+        //Check the parts of the block that do not depend on its branch
+        if(!trusted && (!block.getHash().equals(block.calculateHash()) || !Block.meetsDifficulty(block.getHash(), validator.getDiff()))){
+            return new ChainChange(ChainChange.Status.REJECTED);
+        }
+
+        Entry parent = null;
+        if(block.getPrevious().equals("0")){
+            //Only one genesis block is ever accepted
+            if(!entries.isEmpty()) return new ChainChange(ChainChange.Status.REJECTED);
+        } else{
+            parent = entries.get(block.getPrevious());
+            if(parent == null){
+                addOrphan(block);
+                return new ChainChange(ChainChange.Status.ORPHAN);
+            }
+            if(parent.invalid) return new ChainChange(ChainChange.Status.REJECTED);
+        }
+
+        Entry entry = new Entry(block, parent, blockWork);
+        entries.put(block.getHash(), entry);
+        if(tip != null && entry.work.compareTo(tip.work) <= 0) return new ChainChange(ChainChange.Status.STORED);
+        return reorganize(entry, trusted);
+    }
+
+    /**
+     * Keeps a block until its parent arrives, dropping the longest waiting orphans once there are too many
+     * so a node sending blocks that never connect cannot grow the index without limit
+     * @param block The block
+     */
+    private void addOrphan(Block block){
+        List<Block> waiting = orphans.computeIfAbsent(block.getPrevious(), hash -> new ArrayList<>());
+        for(Block orphan : waiting){
+            if(orphan.getHash().equals(block.getHash())) return;
+        }
+        waiting.add(block);
+        orphanCount++;
+
+        Iterator<List<Block>> eldest = orphans.values().iterator();
+        while(orphanCount > MAX_ORPHANS){
+            orphanCount -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Makes a block the tip, undoing the chain back to where its branch splits off and connecting the branch.
+     * If a block on the branch is invalid it and its descendants are marked invalid and the old chain is restored.
+     * If anything throws part way through, the old chain is restored before the exception is passed on.
+     * @param target The new tip
+     * @param trusted Whether the branch's blocks can skip their checks
+     * @return How the chain changed
+     */
+    private ChainChange reorganize(Entry target, boolean trusted){
+        //Walk both branches back to the block they share
+        List<Entry> disconnect = new ArrayList<>();
+        List<Entry> connect = new ArrayList<>();
+        Entry from = tip;
+        Entry to = target;
+        while(from != to){
+            if(from != null && (to == null || from.height >= to.height)){
+                disconnect.add(from);
+                from = from.parent;
+            } else{
+                connect.add(to);
+                to = to.parent;
+            }
+        }
+        Collections.reverse(connect);
+        int forkHeight = (from == null) ? 0 : from.height + 1;
+
+        //Pruned blocks cannot be undone, so a branch splitting off below them is kept but never connected
+        if(forkHeight < prunedHeight) return new ChainChange(ChainChange.Status.STORED);
+
+        int undone = 0;
+        int connectedCount = 0;
+        try{
+            //Undo the old branch from its tip
+            for(; undone < disconnect.size(); undone++){
+                undo(disconnect.get(undone));
+            }
+
+            //Connect the new branch, backing out completely if any block is invalid
+            for(; connectedCount < connect.size(); connectedCount++){
+                if(!connect(connect.get(connectedCount), trusted)){
+                    for(int j = connectedCount; j < connect.size(); j++){
+                        connect.get(j).invalid = true;
+                    }
+                    restore(disconnect, undone, connect, connectedCount);
+                    return new ChainChange(ChainChange.Status.REJECTED);
+                }
+            }
+        } catch(RuntimeException e){
+            restore(disconnect, undone, connect, connectedCount);
+            throw e;
+        }
+
+        List<Block> disconnected = new ArrayList<>(disconnect.size());
+        for(Entry entry : disconnect){
+            disconnected.add(entry.block);
+        }
+        List<Block> connected = new ArrayList<>(connect.size());
+        for(Entry entry : connect){
+            connected.add(entry.block);
+        }
+
+        tip = target;
+        if(disconnect.isEmpty() && connect.size() == 1) state.append(target.block, UTXOs.view());
+        else state.reorganize(forkHeight, connected, UTXOs.view());
+        if(tip.height - sweptHeight >= SWEEP_INTERVAL) forgetStaleBranches();
+        return new ChainChange(ChainChange.Status.CONNECTED, forkHeight, disconnected, connected);
+    }
+
+    /**
+     * Puts the old chain back after switching to a branch failed part way
+     * @param disconnect The old chain's blocks back to the fork, from its tip
+     * @param undone Number of those blocks that were undone
+     * @param connect The new branch's blocks from the fork
+     * @param connected Number of those blocks that were connected
+     */
+    private void restore(List<Entry> disconnect, int undone, List<Entry> connect, int connected){
+        for(int i = connected - 1; i >= 0; i--){
+            undo(connect.get(i));
+        }
+        for(int i = undone - 1; i >= 0; i--){
+            connect(disconnect.get(i), true);
+        }
+    }
+
+    /**
+     * Forgets the side branches whose highest block is more than the stale depth below the tip, which are kept
+     * by nothing but this index and would take more work than the chain has gained since to become the chain
+     */
+    private void forgetStaleBranches(){
+        sweptHeight = tip.height;
+        int oldest = tip.height - STALE_DEPTH;
+
+        //Keep every side block below a side block that is still recent
+        HashSet<Entry> recent = new HashSet<>();
+        for(Entry entry : entries.values()){
+            if(entry.undo != null || entry.height <= oldest) continue;
+            Entry branch = entry;
+            while(branch != null && branch.undo == null && recent.add(branch)){
+                branch = branch.parent;
+            }
+        }
+        entries.values().removeIf(entry -> entry.undo == null && !recent.contains(entry));
+    }
+
+    /**
+     * Applies a block's transactions to the outputs, keeping the undo log
+     * @param entry The block, whose parent must be the tip of the outputs
+     * @param trusted Whether the block's checks can be skipped
+     * @return Whether the block is valid, the outputs are left unchanged if it is not or if checking it throws
+     */
+    private boolean connect(Entry entry, boolean trusted){
+        List<ChainValidator.Undo> undo = new ArrayList<>();
+        boolean valid;
+        try{
+            if(entry.parent == null || trusted){
+                ChainValidator.applyBlock(entry.block, UTXOs, undo);
+                valid = true;
+            } else{
+                valid = validator.connectBlock(entry.height, entry.parent.block, entry.block, UTXOs, undo);
+            }
+        } catch(RuntimeException e){
+            rollBack(undo);
+            throw e;
+        }
+        if(!valid){
+            rollBack(undo);
+            return false;
+        }
+        entry.undo = undo;
+        return true;
+    }
+
+    /**
+     * Reverses the partial changes of a block that could not be connected
+     * @param undo The changes made so far
+     */
+    private void rollBack(List<ChainValidator.Undo> undo){
+        for(int i = undo.size() - 1; i >= 0; i--){
+            undo.get(i).apply(UTXOs);
+        }
+    }
+
+    /**
+     * Reverses a connected block's changes to the outputs and drops its undo log
+     * @param entry The block, which must be the tip of the outputs
+     */
+    private void undo(Entry entry){
+        //Apply the log backwards, so the earliest change to each id decides what it goes back to
+        for(int i = entry.undo.size() - 1; i >= 0; i--){
+            entry.undo.get(i).apply(UTXOs);
+        }
+        entry.undo = null;
+    }
+
+    /**
+     * Swaps the chain's blocks below a height for header only copies and drops their undo logs, publishing the copies to the chain state.
+     * The chain can no longer switch to a branch that splits off below the height
+     * @param height Height of the first block to keep whole
+     * @return The blocks that were pruned, with their transactions, from the lowest
+     */
+    synchronized List<Block> prune(int height){
+        if(tip == null || height <= prunedHeight) return new ArrayList<>();
+        height = Math.min(height, tip.height + 1);
+
+        Entry entry = tip;
+        while(entry.height >= height){
+            entry = entry.parent;
+        }
+        List<Entry> pruning = new ArrayList<>(height - prunedHeight);
+        for(; entry != null && entry.height >= prunedHeight; entry = entry.parent){
+            pruning.add(entry);
+        }
+        Collections.reverse(pruning);
+
+        List<Block> pruned = new ArrayList<>(pruning.size());
+        List<Block> copies = new ArrayList<>(pruning.size());
+        for(Entry prunedEntry : pruning){
+            pruned.add(prunedEntry.block);
+            prunedEntry.block = prunedEntry.block.pruned();
+            prunedEntry.undo = PRUNED;
+            copies.add(prunedEntry.block);
+        }
+        state.replace(prunedHeight, copies);
+        prunedHeight = height;
+        return pruned;
+    }
+
+    /**
+     * Starts an empty index from header only copies of a chain's blocks and the outputs after them, such as a snapshot read back from storage.
+     * The blocks are treated as pruned, so the chain can never switch to a branch splitting off below them
+     * @param headers Header only copies of the chain's blocks, from the genesis block
+     * @param outputs The unspent outputs after the last block
+     */
+    synchronized void load(List<Block> headers, UTXOView outputs){
+        if(!entries.isEmpty()) throw new IllegalStateException("Only an empty index can be loaded");
+        for(int i = 0; i < headers.size(); i++){
+            String previous = (i == 0) ? "0" : headers.get(i - 1).getHash();
+            if(!headers.get(i).getPrevious().equals(previous)) throw new IllegalArgumentException("The block at height " + i + " does not follow the one before it");
+        }
+
+        Entry parent = null;
+        for(Block block : headers){
+            Entry entry = new Entry(block, parent, blockWork);
+            entry.undo = PRUNED;
+            entries.put(block.getHash(), entry);
+            parent = entry;
+        }
+        tip = parent;
+        prunedHeight = headers.size();
+        sweptHeight = prunedHeight;
+        UTXOs.set(outputs);
+        state.reorganize(0, headers, outputs);
+    }
+
+    /**
+     * Checks whether a block is in the index, on any branch
+     * @param hash Hash of the block
+     * @return Whether the block is known
+     */
+    public synchronized boolean contains(String hash){
+        return entries.containsKey(hash);
+    }
+
+    /**
+     * Gets a block on any branch
+     * @param hash Hash of the block
+     * @return The block, or null if it is not known
+     */
+    public synchronized Block getBlock(String hash){
+        Entry entry = entries.get(hash);
+        return (entry == null) ? null : entry.block;
+    }
+
+    /**
+     * Gets the height of a block on any branch
+     * @param hash Hash of the block
+     * @return The block's height, or -1 if it is not known
+     */
+    public synchronized int getHeight(String hash){
+        Entry entry = entries.get(hash);
+        return (entry == null) ? -1 : entry.height;
+    }
+
+    /**
+     * Checks whether a block is on the chain rather than a side branch
+     * @param hash Hash of the block
+     * @return Whether the block is on the chain
+     */
+    public synchronized boolean isOnChain(String hash){
+        Entry entry = entries.get(hash);
+        return entry != null && entry.undo != null;
+    }
+
+    /**
+     * Gets the total work of the chain
+     * @return The sum of the work of every block on the chain
+     */
+    public synchronized BigInteger getChainWork(){
+        return (tip == null) ? BigInteger.ZERO : tip.work;
+    }
+
+    /**
+     * Gets the outputs after the tip, which must only be read while holding the index's lock
+     * @return The unspent outputs of the chain
+     */
+    UTXOStore getUTXOs(){return this.UTXOs;}
+
+    public synchronized int size(){return entries.size();}
+    public synchronized int getPrunedHeight(){return this.prunedHeight;}
+    public synchronized int getOrphanCount(){return this.orphanCount;}
+
+    /**
+     * Forgets every block and output
+     */
+    public synchronized void clear(){
+        entries.clear();
+        orphans.clear();
+        orphanCount = 0;
+        tip = null;
+        prunedHeight = 0;
+        sweptHeight = 0;
+        UTXOs.clear();
+        state.clear();
+    }
+
+    /**
+     * Gets the work of a block mined at a difficulty, doubling for each zero bit the difficulty requires
+     * @param diff The difficulty (number of leading hex zeroes) every block has to meet
+     * @return The work of each block
+     */
+    static BigInteger work(int diff){
+        return BigInteger.ONE.shiftLeft(diff * 4);
+    }
+
+    /**
+     * A known block with its place in the tree
+     */
+    private static final class Entry{
+        private Block block; //The block, swapped for a header only copy once pruned
+        private final Entry parent; //Entry of the previous block, null for the genesis block
+        private final int height;
+        private final BigInteger work; //Total work of the branch up to and including this block
+        private List<ChainValidator.Undo> undo; //Changes the block made to the outputs, only kept while it is on the chain
+        private boolean invalid; //Whether the block or one before it failed validation
+
+        private Entry(Block block, Entry parent, BigInteger blockWork){
+            this.block = block;
+            this.parent = parent;
+            this.height = (parent == null) ? 0 : parent.height + 1;
+            this.work = (parent == null) ? blockWork : parent.work.add(blockWork);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read only list of blocks split into fixed size pages, so appending only copies the page being filled and the array of pages.
+ * A new list may write into the last page of the list it was made from, but only past the end of that list, which it never reads.
+ * Only the newest list is appended to, and truncating copies the partly filled last page, so no list ever sees a slot change.
+ */
+final class BlockList extends AbstractList<Block> implements RandomAccess{
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS; //Blocks in each page
+
+    static final BlockList EMPTY = new BlockList(new Block[0][], 0);
+
+    private final Block[][] pages; //Pages of blocks, only the last of which may be partly filled
+    private final int size; //Number of blocks in the list
+
+    private BlockList(Block[][] pages, int size){
+        this.pages = pages;
+        this.size = size;
+    }
+
+    @Override
+    public Block get(int index){
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("No block at height " + index);
+        return pages[index >>> PAGE_BITS][index & (PAGE_SIZE - 1)];
+    }
+
+    @Override
+    public int size(){return size;}
+
+    /**
+     * Creates a list with a block added to the end
+     * @param block The block to add
+     * @return The new list, this list is unchanged
+     */
+    BlockList append(Block block){
+        int page = size >>> PAGE_BITS;
+        Block[][] nextPages = pages;
+        if(page == pages.length){
+            nextPages = Arrays.copyOf(pages, page + 1);
+            nextPages[page] = new Block[PAGE_SIZE];
+        }
+        nextPages[page][size & (PAGE_SIZE - 1)] = block;
+        return new BlockList(nextPages, size + 1);
+    }
+
+    /**
+     * Creates a list with a run of blocks swapped for others, copying each page they are in
+     * @param from Index of the first block swapped
+     * @param blocks The blocks to put in their place
+     * @return The new list, this list is unchanged
+     */
+    BlockList replace(int from, List<Block> blocks){
+        if(blocks.isEmpty()) return this;
+        if(from < 0 || from + blocks.size() > size) throw new IndexOutOfBoundsException("No blocks at heights " + from + " to " + (from + blocks.size() - 1));
+        Block[][] nextPages = Arrays.copyOf(pages, pages.length);
+        int copied = -1; //Last page copied
+        for(int i = 0; i < blocks.size(); i++){
+            int index = from + i;
+            int page = index >>> PAGE_BITS;
+            if(page != copied){
+                nextPages[page] = Arrays.copyOf(pages[page], PAGE_SIZE);
+                copied = page;
+            }
+            nextPages[page][index & (PAGE_SIZE - 1)] = blocks.get(i);
+        }
+        return new BlockList(nextPages, size);
+    }
+
+    /**
+     * Creates a list of the first blocks of this list
+     * @param newSize Number of blocks to keep
+     * @return The new list, this list is unchanged
+     */
+    BlockList truncate(int newSize){
+        if(newSize >= size) return this;
+        int pageCount = (newSize + PAGE_SIZE - 1) >>> PAGE_BITS;
+        Block[][] nextPages = Arrays.copyOf(pages, pageCount);
+
+        //Copy a partly kept page, so blocks appended to the new list do not overwrite blocks this list still holds
+        if((newSize & (PAGE_SIZE - 1)) != 0){
+            nextPages[pageCount - 1] = Arrays.copyOf(pages[pageCount - 1], PAGE_SIZE);
+            Arrays.fill(nextPages[pageCount - 1], newSize & (PAGE_SIZE - 1), PAGE_SIZE, null);
+        }
+        return new BlockList(nextPages, newSize);
+    }
+}
\ No newline at end of file
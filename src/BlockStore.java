@@ -0,0 +1,460 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores mined blocks on disk in append only segment files, with a fixed size index of each block's hash and position by height.
+ * Opening a store only reads the index, blocks are read on demand through memory mapped segments.
+ * Each record and index entry has a checksum, so a store cut off part way through a write is truncated back to its last complete block.
+ * A snapshot of the unspent outputs after a stored block can be kept alongside, so restoring the chain only decodes the blocks after it.
+ */
+public final class BlockStore implements Closeable{
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024; //Size at which a new segment file is started
+
+    private static final String INDEX_FILE = "index.dat";
+    private static final String SNAPSHOT_FILE = "utxos.dat"; //Unspent outputs after a stored block: height (4), hash (32), outputs, checksum (4)
+    private static final int ENTRY_SIZE = 52; //Index entry: hash (32), segment (4), offset (8), length (4), checksum (4)
+    private static final int RECORD_HEADER = 8; //Record header: payload length (4), payload checksum (4)
+
+    private final Path directory; //Directory holding the index and segments
+    private final long segmentSize; //Size at which a new segment file is started
+    private final boolean sync; //Whether each append is forced to disk before returning
+    private final FileChannel index; //Index of every stored block by height
+    private final List<FileChannel> segments = new ArrayList<>(); //Segment files, in order
+    private final List<MappedByteBuffer> mapped = new ArrayList<>(); //Read only mapping of each segment, null until first read
+    private final HashMap<String, Integer> heights = new HashMap<>(); //Height of each stored block by hash
+    private final List<String> hashes = new ArrayList<>(); //Hash of each stored block by height
+
+    /**
+     * Constructor for a store, use open to create one
+     */
+    private BlockStore(Path directory, long segmentSize, boolean sync) throws IOException{
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.index = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens a store, creating it if the directory is empty and recovering it if the last write did not complete
+     * @param directory Directory holding the store
+     * @return The opened store
+     */
+    public static BlockStore open(Path directory) throws IOException{
+        return open(directory, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * Opens a store, creating it if the directory is empty and recovering it if the last write did not complete
+     * @param directory Directory holding the store
+     * @param segmentSize Size at which a new segment file is started
+     * @param sync Whether each append should be forced to disk before returning
+     * @return The opened store
+     */
+    public static BlockStore open(Path directory, long segmentSize, boolean sync) throws IOException{
+        Files.createDirectories(directory);
+        BlockStore store = new BlockStore(directory, segmentSize, sync);
+        try{
+            store.recover();
+        } catch(IOException | RuntimeException e){
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * Loads the index, dropping any entries after the first that fails its checksum or points past the end of its segment,
+     * then trims the segments back to the end of the last indexed block
+     */
+    private void recover() throws IOException{
+        //Open every segment that exists
+        for(int i = 0; Files.exists(segmentPath(i)); i++){
+            segments.add(FileChannel.open(segmentPath(i), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            mapped.add(null);
+        }
+
+        //Read entries until one is incomplete or damaged
+        long entries = index.size() / ENTRY_SIZE;
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        int valid = 0;
+        int lastSegment = -1;
+        long lastEnd = 0;
+        for(; valid < entries; valid++){
+            entry.clear();
+            index.read(entry, (long) valid * ENTRY_SIZE);
+            entry.flip();
+            if(!checksum(entry.array(), 0, ENTRY_SIZE - 4, entry.getInt(ENTRY_SIZE - 4))) break;
+
+            int segment = entry.getInt(32);
+            long offset = entry.getLong(36);
+            int length = entry.getInt(44);
+            if(segment >= segments.size() || offset + length > segments.get(segment).size()) break;
+
+            byte[] hash = new byte[32];
+            entry.get(0, hash);
+            String hex = Block.toHex(hash);
+            heights.put(hex, valid);
+            hashes.add(hex);
+            lastSegment = segment;
+            lastEnd = offset + length;
+        }
+
+        //Walk back over the last entries until one whose record passes its checksum
+        while(valid > 0 && !checkRecord(valid - 1)){
+            valid--;
+            heights.remove(hashes.remove(valid));
+            Location location = (valid > 0) ? locate(valid - 1) : null;
+            lastSegment = (location == null) ? -1 : location.segment;
+            lastEnd = (location == null) ? 0 : location.offset + location.length;
+        }
+
+        //Drop the unused end of the index and any record written after the last indexed one
+        index.truncate((long) valid * ENTRY_SIZE);
+        for(int i = segments.size() - 1; i > Math.max(lastSegment, 0); i--){
+            segments.remove(i).close();
+            mapped.remove(i);
+            Files.delete(segmentPath(i));
+        }
+        if(!segments.isEmpty()) segments.get(segments.size() - 1).truncate(lastSegment < 0 ? 0 : lastEnd);
+
+        //Forget mappings made while checking, as they may cover bytes that were just cut off
+        for(int i = 0; i < mapped.size(); i++){
+            mapped.set(i, null);
+        }
+    }
+
+    /**
+     * Appends a mined block to the end of the store
+     * @param block The block to store
+     * @return Height the block was stored at
+     */
+    public synchronized int append(Block block) throws IOException{
+        byte[] payload = BlockCodec.encodeBlock(block);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+        record.putInt(payload.length).putInt(crc(payload, 0, payload.length)).put(payload).flip();
+
+        //Start a new segment if this record would take the current one over its size
+        if(segments.isEmpty() || (segments.get(segments.size() - 1).size() > 0 && segments.get(segments.size() - 1).size() + record.remaining() > segmentSize)){
+            segments.add(FileChannel.open(segmentPath(segments.size()), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            mapped.add(null);
+        }
+        int segment = segments.size() - 1;
+        FileChannel channel = segments.get(segment);
+        long offset = channel.size();
+        int length = record.remaining();
+        while(record.hasRemaining()){
+            channel.write(record, offset + record.position());
+        }
+        if(sync) channel.force(false);
+
+        //Only index the block once its record is written, so a crash never leaves an entry without a record
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        byte[] hash = new byte[32];
+        Block.hexToBytes(block.getHash(), hash, 0);
+        entry.put(hash).putInt(segment).putLong(offset).putInt(length);
+        entry.putInt(crc(entry.array(), 0, ENTRY_SIZE - 4)).flip();
+        int height = hashes.size();
+        while(entry.hasRemaining()){
+            index.write(entry, (long) height * ENTRY_SIZE + entry.position());
+        }
+        if(sync) index.force(false);
+
+        heights.put(block.getHash(), height);
+        hashes.add(block.getHash());
+        return height;
+    }
+
+    /**
+     * Reads a block from the store
+     * @param height Height of the block
+     * @return The decoded block
+     */
+    public synchronized Block read(int height) throws IOException{
+        Location location = locate(height);
+        ByteBuffer record = map(location);
+        int length = record.getInt();
+        int expected = record.getInt();
+        ByteBuffer payload = record.slice().limit(length);
+        if(crc(payload.duplicate()) != expected) throw new IOException("Block at height " + height + " is corrupt");
+        return BlockCodec.decodeBlock(payload);
+    }
+
+    /**
+     * Reads only the header of a stored block, without decoding its transactions or checking its checksum, which is checked once the block is read whole
+     * @param height Height of the block
+     * @return A header only copy of the block
+     */
+    public synchronized Block readHeader(int height) throws IOException{
+        ByteBuffer record = map(locate(height));
+        return BlockCodec.decodeHeader(record.position(RECORD_HEADER).slice());
+    }
+
+    /**
+     * Reads every block from a height to the end of the store
+     * @param from Height of the first block
+     * @return The decoded blocks in order
+     */
+    public synchronized List<Block> readFrom(int from) throws IOException{
+        List<Block> blocks = new ArrayList<>(Math.max(0, size() - from));
+        for(int i = from; i < size(); i++){
+            blocks.add(read(i));
+        }
+        return blocks;
+    }
+
+    /**
+     * Removes every block from a height to the end of the store, used when the chain switches to another branch
+     * @param height Height of the first block to remove
+     */
+    public synchronized void truncate(int height) throws IOException{
+        if(height >= size()) return;
+        Location location = locate(height);
+
+        //Cut the index first, so a crash part way through leaves records without entries, which recovery already trims
+        index.truncate((long) height * ENTRY_SIZE);
+        if(sync) index.force(false);
+        for(int i = segments.size() - 1; i > location.segment; i--){
+            segments.remove(i).close();
+            mapped.remove(i);
+            Files.delete(segmentPath(i));
+        }
+        segments.get(location.segment).truncate(location.offset);
+        for(int i = hashes.size() - 1; i >= height; i--){
+            heights.remove(hashes.remove(i));
+        }
+
+        //Forget mappings, as they may cover bytes that were just cut off
+        for(int i = 0; i < mapped.size(); i++){
+            mapped.set(i, null);
+        }
+    }
+
+    /**
+     * Writes the unspent outputs after a stored block, replacing any written before, so the chain can be restored
+     * without reading the blocks up to it. The outputs are written to a temporary file that is then moved over the old one,
+     * so a crash part way through leaves the old outputs in place. Appends can carry on while the outputs are written
+     * @param height Number of blocks the outputs are after
+     * @param hash Hash of the last of those blocks
+     * @param UTXOs The unspent outputs after the block, which must not change while they are written
+     * @return Whether the outputs were written, which they are not if the store does not hold the block
+     */
+    public boolean writeSnapshot(int height, String hash, UTXOView UTXOs) throws IOException{
+        if(!holds(height, hash)) return false;
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            byte[] hashBytes = new byte[32];
+            Block.hexToBytes(hash, hashBytes, 0);
+            out.writeInt(height);
+            out.write(hashBytes);
+            BlockCodec.writeOutputs(out, UTXOs);
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+
+        //Only replace the old outputs if the block was not cut off while the new ones were written
+        synchronized(this){
+            if(!holds(height, hash)){
+                Files.delete(temporary);
+                return false;
+            }
+            Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the unspent outputs written by writeSnapshot
+     * @return The outputs and the height they are after, or null if there are none, they fail their checksum,
+     * or the store no longer holds the block they are after
+     */
+    public synchronized Snapshot readSnapshot() throws IOException{
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if(!Files.exists(path)) return null;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            if(channel.size() < 40) return null;
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int expected = buffer.getInt(buffer.limit() - 4);
+            if(crc(buffer.duplicate().limit(buffer.limit() - 4)) != expected) return null;
+
+            int height = buffer.getInt();
+            byte[] hash = new byte[32];
+            buffer.get(hash);
+            if(!holds(height, Block.toHex(hash))) return null;
+            return new Snapshot(height, UTXOView.of(BlockCodec.readOutputs(buffer)));
+        }
+    }
+
+    /**
+     * Checks whether the store holds a block at a height
+     * @param height Number of blocks up to and including the block
+     * @param hash Hash of the block
+     * @return Whether the block is stored at that height
+     */
+    private synchronized boolean holds(int height, String hash){
+        return height > 0 && height <= hashes.size() && hashes.get(height - 1).equals(hash);
+    }
+
+    /**
+     * Checks the record of every stored block against its checksum
+     * @return Height of the first corrupt block, or -1 if every block is intact
+     */
+    public synchronized int verify() throws IOException{
+        for(int i = 0; i < size(); i++){
+            if(!checkRecord(i)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the record of a stored block against its checksum
+     * @param height Height of the block
+     * @return Whether the record is complete and matches its checksum
+     */
+    private boolean checkRecord(int height) throws IOException{
+        Location location = locate(height);
+        if(location.length < RECORD_HEADER || location.offset + location.length > segments.get(location.segment).size()) return false;
+        ByteBuffer record = map(location);
+        int length = record.getInt();
+        int expected = record.getInt();
+        if(length != location.length - RECORD_HEADER) return false;
+        return crc(record) == expected;
+    }
+
+    /**
+     * Reads where a block's record is from its index entry
+     * @param height Height of the block
+     * @return The segment, offset and length of the record
+     */
+    private Location locate(int height) throws IOException{
+        if(height < 0 || height >= hashes.size()) throw new IndexOutOfBoundsException("No block at height " + height);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        index.read(entry, (long) height * ENTRY_SIZE);
+        return new Location(entry.getInt(32), entry.getLong(36), entry.getInt(44));
+    }
+
+    /**
+     * Gets a view of a record through its segment's mapping, remapping the segment if it has grown past the old mapping
+     * @param location Where the record is
+     * @return A buffer over exactly the record
+     */
+    private ByteBuffer map(Location location) throws IOException{
+        MappedByteBuffer buffer = mapped.get(location.segment);
+        if(buffer == null || buffer.capacity() < location.offset + location.length){
+            FileChannel channel = segments.get(location.segment);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.set(location.segment, buffer);
+        }
+        return buffer.slice((int) location.offset, location.length);
+    }
+
+    /**
+     * Gets the hash of a stored block
+     * @param height Height of the block
+     * @return The block's hash
+     */
+    public synchronized String getHash(int height){
+        return hashes.get(height);
+    }
+
+    /**
+     * Gets the height of a stored block
+     * @param hash Hash of the block
+     * @return The block's height, or -1 if it is not stored
+     */
+    public synchronized int getHeight(String hash){
+        return heights.getOrDefault(hash, -1);
+    }
+
+    /**
+     * Gets the number of stored blocks
+     * @return The number of blocks
+     */
+    public synchronized int size(){
+        return hashes.size();
+    }
+
+    /**
+     * Forces every write to disk and closes the files
+     */
+    @Override
+    public synchronized void close() throws IOException{
+        for(FileChannel segment : segments){
+            segment.force(false);
+            segment.close();
+        }
+        segments.clear();
+        mapped.clear();
+        index.force(false);
+        index.close();
+    }
+
+    private Path segmentPath(int segment){
+        return directory.resolve(String.format("blocks-%05d.dat", segment));
+    }
+
+    private static int crc(byte[] bytes, int offset, int length){
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int crc(ByteBuffer buffer){
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+    private static boolean checksum(byte[] bytes, int offset, int length, int expected){
+        return crc(bytes, offset, length) == expected;
+    }
+
+    /**
+     * The unspent outputs after a stored block, read back from the store
+     */
+    public static final class Snapshot{
+        private final int height; //Number of blocks the outputs are after
+        private final UTXOView UTXOs; //The unspent outputs after those blocks
+
+        private Snapshot(int height, UTXOView UTXOs){
+            this.height = height;
+            this.UTXOs = UTXOs;
+        }
+
+        public int getHeight(){return this.height;}
+        public UTXOView getUTXOs(){return this.UTXOs;}
+    }
+
+    /**
+     * Where a block's record is in the segments
+     */
+    private static final class Location{
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        private Location(int segment, long offset, int length){
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of adding a block to a block index
+ */
+final class ChainChange{
+    /**
+     * What happened to the block
+     */
+    enum Status{
+        CONNECTED, //The block is on the chain
+        STORED, //The block is valid so far but on a branch with less work
+        ORPHAN, //The block's parent is not known yet, it is kept until the parent arrives
+        KNOWN, //The block was already in the index
+        REJECTED //The block or its branch is invalid
+    }
+
+    private Status status;
+    private int forkHeight; //Height of the first block that changed, -1 if the chain did not change
+    private final List<Block> disconnected; //Blocks removed from the chain, starting from the old tip
+    private final List<Block> connected; //Blocks added to the chain, in order
+
+    ChainChange(Status status){
+        this(status, -1, new ArrayList<>(), new ArrayList<>());
+    }
+
+    ChainChange(Status status, int forkHeight, List<Block> disconnected, List<Block> connected){
+        this.status = status;
+        this.forkHeight = forkHeight;
+        this.disconnected = disconnected;
+        this.connected = connected;
+    }
+
+    /**
+     * Folds a later change into this one, so a block that was connected and then disconnected again appears in neither list
+     * @param later The change made after this one
+     */
+    void merge(ChainChange later){
+        if(later.status == Status.CONNECTED) status = Status.CONNECTED;
+        if(forkHeight < 0 || (later.forkHeight >= 0 && later.forkHeight < forkHeight)) forkHeight = later.forkHeight;
+        for(Block block : later.disconnected){
+            if(!connected.isEmpty() && connected.get(connected.size() - 1) == block) connected.remove(connected.size() - 1);
+            else disconnected.add(block);
+        }
+        connected.addAll(later.connected);
+    }
+
+    public Status getStatus(){return this.status;}
+    public int getForkHeight(){return this.forkHeight;}
+    public List<Block> getDisconnected(){return this.disconnected;}
+    public List<Block> getConnected(){return this.connected;}
+
+    /**
+     * Checks whether the chain changed
+     * @return Whether any block was connected or disconnected
+     */
+    public boolean changedChain(){
+        return !connected.isEmpty() || !disconnected.isEmpty();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+/**
+ * Sends events to the registered listeners.
+ * Callers check isEnabled before building an event or reading the clock, so with no listeners registered
+ * each event site costs a single read of a volatile field.
+ */
+final class ChainEvents{
+    private static final ChainListener[] NONE = new ChainListener[0];
+
+    private static volatile ChainListener[] listeners = NONE; //Registered listeners, replaced rather than changed so it can be read without locking
+
+    private ChainEvents(){}
+
+    /**
+     * Checks whether any listener is registered
+     * @return Whether events should be sent
+     */
+    static boolean isEnabled(){
+        return listeners.length > 0;
+    }
+
+    static synchronized void add(ChainListener listener){
+        if(listener == null) throw new IllegalArgumentException("Listener cannot be null");
+        ChainListener[] current = listeners;
+        ChainListener[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = listener;
+        listeners = next;
+    }
+
+    static synchronized boolean remove(ChainListener listener){
+        ChainListener[] current = listeners;
+        for(int i = 0; i < current.length; i++){
+            if(current[i] != listener) continue;
+            ChainListener[] next = new ChainListener[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+            listeners = next;
+            return true;
+        }
+        return false;
+    }
+
+    static void blockMined(Block block, long attempts, long nanos){
+        for(ChainListener listener : listeners) listener.blockMined(block, attempts, nanos);
+    }
+
+    static void transactionAdded(Block block, Transaction transaction){
+        for(ChainListener listener : listeners) listener.transactionAdded(block, transaction);
+    }
+
+    static void transactionRejected(Transaction transaction, String reason){
+        for(ChainListener listener : listeners) listener.transactionRejected(transaction, reason);
+    }
+
+    static void signaturesVerified(int count, long nanos){
+        for(ChainListener listener : listeners) listener.signaturesVerified(count, nanos);
+    }
+
+    static void blockValidated(int height, long nanos){
+        for(ChainListener listener : listeners) listener.blockValidated(height, nanos);
+    }
+
+    static void validationFailed(int height, String reason){
+        for(ChainListener listener : listeners) listener.validationFailed(height, reason);
+    }
+
+    static void chainValidated(int height, long nanos){
+        for(ChainListener listener : listeners) listener.chainValidated(height, nanos);
+    }
+
+    static void chainChanged(Block tip){
+        for(ChainListener listener : listeners) listener.chainChanged(tip);
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Receives events from mining, transaction processing and validation.
+ * Every method does nothing by default, so a listener only overrides the events it needs.
+ * Events are delivered synchronously on the thread that caused them, so listeners should return quickly.
+ */
+public interface ChainListener{
+    /**
+     * Called when a block has been mined
+     * @param block The mined block
+     * @param attempts Number of hashes tried
+     * @param nanos Time spent searching
+     */
+    default void blockMined(Block block, long attempts, long nanos){}
+
+    /**
+     * Called when a transaction has been processed and added to a block
+     * @param block The block the transaction was added to
+     * @param transaction The transaction
+     */
+    default void transactionAdded(Block block, Transaction transaction){}
+
+    /**
+     * Called when a transaction could not be created or processed
+     * @param transaction The transaction, or null if it was never created
+     * @param reason Why the transaction was rejected
+     */
+    default void transactionRejected(Transaction transaction, String reason){}
+
+    /**
+     * Called after signatures have been checked
+     * @param count Number of signatures checked, not counting those skipped as already verified
+     * @param nanos Time taken to check them
+     */
+    default void signaturesVerified(int count, long nanos){}
+
+    /**
+     * Called after a block has passed validation
+     * @param height Height of the block
+     * @param nanos Time taken to validate the block
+     */
+    default void blockValidated(int height, long nanos){}
+
+    /**
+     * Called when a block fails validation
+     * @param height Height of the block
+     * @param reason Why the block is invalid
+     */
+    default void validationFailed(int height, String reason){}
+
+    /**
+     * Called when the whole chain has been found to be valid
+     * @param height Number of blocks on the chain
+     * @param nanos Time taken to validate the chain
+     */
+    default void chainValidated(int height, long nanos){}
+
+    /**
+     * Called when the chain has moved to a new tip, by growing or by switching branches
+     * @param tip The new last block
+     */
+    default void chainChanged(Block tip){}
+}
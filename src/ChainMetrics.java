@@ -0,0 +1,130 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms built from chain events, with gauges read from the chain when asked.
+ * Metrics are only gathered while the instance is registered as a listener, and can be published through JMX.
+ */
+public final class ChainMetrics implements ChainListener, ChainMetricsMXBean{
+    public static final String OBJECT_NAME = "jackchain:type=ChainMetrics"; //Name the metrics are registered under in JMX
+
+    private final LongAdder blocksMined = new LongAdder();
+    private final LongAdder hashAttempts = new LongAdder();
+    private final LongAdder miningNanos = new LongAdder(); //Total time spent mining, for the hash rate
+    private final LongAdder transactionsAdded = new LongAdder();
+    private final LongAdder transactionsRejected = new LongAdder();
+    private final LongAdder signaturesVerified = new LongAdder();
+    private final LongAdder blocksValidated = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+
+    private final LatencyHistogram miningTime = new LatencyHistogram(); //Time to mine each block
+    private final LatencyHistogram signatureTime = new LatencyHistogram(); //Time to verify each signature
+    private final LatencyHistogram validationTime = new LatencyHistogram(); //Time to validate each block
+
+    private final IntSupplier UTXOCount; //Reads the number of unspent outputs
+    private final IntSupplier mempoolDepth; //Reads the number of transactions waiting to be mined
+    private final IntSupplier height; //Reads the number of blocks on the chain
+
+    /**
+     * Constructor for metrics reading their gauges from Jackchain
+     */
+    public ChainMetrics(){
+        this(() -> Jackchain.snapshot().getUTXOs().size(), () -> Jackchain.getMempool().size(), () -> Jackchain.snapshot().getHeight());
+    }
+
+    /**
+     * Constructor for metrics with their own gauges
+     * @param UTXOCount Reads the number of unspent outputs
+     * @param mempoolDepth Reads the number of transactions waiting to be mined
+     * @param height Reads the number of blocks on the chain
+     */
+    public ChainMetrics(IntSupplier UTXOCount, IntSupplier mempoolDepth, IntSupplier height){
+        this.UTXOCount = UTXOCount;
+        this.mempoolDepth = mempoolDepth;
+        this.height = height;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     * @return The name the metrics were registered under
+     */
+    public ObjectName registerMBean(){
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+            return name;
+        } catch(JMException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void blockMined(Block block, long attempts, long nanos){
+        blocksMined.increment();
+        hashAttempts.add(attempts);
+        miningNanos.add(nanos);
+        miningTime.record(nanos);
+    }
+
+    @Override
+    public void transactionAdded(Block block, Transaction transaction){
+        transactionsAdded.increment();
+    }
+
+    @Override
+    public void transactionRejected(Transaction transaction, String reason){
+        transactionsRejected.increment();
+    }
+
+    @Override
+    public void signaturesVerified(int count, long nanos){
+        if(count == 0) return;
+        signaturesVerified.add(count);
+        signatureTime.record(nanos / count, count);
+    }
+
+    @Override
+    public void blockValidated(int height, long nanos){
+        blocksValidated.increment();
+        validationTime.record(nanos);
+    }
+
+    @Override
+    public void validationFailed(int height, String reason){
+        validationFailures.increment();
+    }
+
+    @Override public long getBlocksMined(){return blocksMined.sum();}
+    @Override public long getHashAttempts(){return hashAttempts.sum();}
+
+    @Override
+    public double getHashesPerSecond(){
+        long nanos = miningNanos.sum();
+        return (nanos == 0) ? 0 : hashAttempts.sum() * 1e9 / nanos;
+    }
+
+    @Override public double getMiningTimeMeanMillis(){return miningTime.getMean() / 1e6;}
+    @Override public double getMiningTimeP99Millis(){return miningTime.getPercentile(0.99) / 1e6;}
+    @Override public long getTransactionsAdded(){return transactionsAdded.sum();}
+    @Override public long getTransactionsRejected(){return transactionsRejected.sum();}
+    @Override public long getSignaturesVerified(){return signaturesVerified.sum();}
+    @Override public double getSignatureVerifyMeanMicros(){return signatureTime.getMean() / 1e3;}
+    @Override public double getSignatureVerifyP99Micros(){return signatureTime.getPercentile(0.99) / 1e3;}
+    @Override public long getBlocksValidated(){return blocksValidated.sum();}
+    @Override public long getValidationFailures(){return validationFailures.sum();}
+    @Override public double getValidationTimeMeanMicros(){return validationTime.getMean() / 1e3;}
+    @Override public double getValidationTimeP99Micros(){return validationTime.getPercentile(0.99) / 1e3;}
+    @Override public int getUTXOCount(){return UTXOCount.getAsInt();}
+    @Override public int getMempoolDepth(){return mempoolDepth.getAsInt();}
+    @Override public int getChainHeight(){return height.getAsInt();}
+
+    LatencyHistogram getMiningTime(){return this.miningTime;}
+    LatencyHistogram getSignatureTime(){return this.signatureTime;}
+    LatencyHistogram getValidationTime(){return this.validationTime;}
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+/**
+ * The chain metrics published through JMX
+ */
+public interface ChainMetricsMXBean{
+    long getBlocksMined();
+    long getHashAttempts();
+    double getHashesPerSecond();
+    double getMiningTimeMeanMillis();
+    double getMiningTimeP99Millis();
+
+    long getTransactionsAdded();
+    long getTransactionsRejected();
+
+    long getSignaturesVerified();
+    double getSignatureVerifyMeanMicros();
+    double getSignatureVerifyP99Micros();
+
+    long getBlocksValidated();
+    long getValidationFailures();
+    double getValidationTimeMeanMicros();
+    double getValidationTimeP99Micros();
+
+    int getUTXOCount();
+    int getMempoolDepth();
+    int getChainHeight();
+}
@@ -0,0 +1,36 @@
+import java.util.List;
+
+/**
+ * The chain at a single point in time
+ */
+final class ChainSnapshot{
+    final BlockList blocks; //Blocks on the chain, in order
+    private final UTXOView UTXOs; //Unspent outputs after the last block
+
+    ChainSnapshot(BlockList blocks, UTXOView UTXOs){
+        this.blocks = blocks;
+        this.UTXOs = UTXOs;
+    }
+
+    /**
+     * Gets the number of blocks on the chain
+     * @return The number of blocks, 0 if there is no genesis block yet
+     */
+    public int getHeight(){return blocks.size();}
+
+    /**
+     * Gets the last block on the chain
+     * @return The tip, or null if the chain is empty
+     */
+    public Block getTip(){
+        return blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+    }
+
+    /**
+     * Gets the blocks on the chain
+     * @return A read only list of the blocks
+     */
+    public List<Block> getBlocks(){return this.blocks;}
+
+    public UTXOView getUTXOs(){return this.UTXOs;}
+}
\ No newline at end of file
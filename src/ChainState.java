@@ -0,0 +1,86 @@
+import java.util.List;
+
+/**
+ * The blocks on the chain and the unspent outputs after them, changed by a single writer and read through immutable snapshots.
+ * Every change builds a new snapshot and publishes it with a single volatile write, so readers never take a lock
+ * and always see a height, tip and set of outputs that belong together.
+ */
+public final class ChainState{
+    private final Object writeLock = new Object(); //Held while a change is made, so there is only ever one writer
+    private volatile ChainSnapshot current = new ChainSnapshot(BlockList.EMPTY, UTXOView.empty()); //Most recently published snapshot
+
+    /**
+     * Gets the current state of the chain, which never changes once returned
+     * @return The latest snapshot
+     */
+    public ChainSnapshot snapshot(){
+        return current;
+    }
+
+    /**
+     * Adds a block to the end of the chain
+     * @param block The mined block
+     * @param UTXOs The unspent outputs after the block
+     * @return The snapshot that includes the block
+     */
+    public ChainSnapshot append(Block block, UTXOView UTXOs){
+        synchronized(writeLock){
+            ChainSnapshot next = new ChainSnapshot(current.blocks.append(block), UTXOs);
+            current = next;
+            return next;
+        }
+    }
+
+    /**
+     * Replaces the end of the chain with another branch. Readers see the old chain until the whole switch is published.
+     * @param height Number of blocks kept, the height of the first replaced block
+     * @param blocks The blocks of the new branch, in order
+     * @param UTXOs The unspent outputs after the new branch
+     * @return The snapshot of the new chain
+     */
+    public ChainSnapshot reorganize(int height, List<Block> blocks, UTXOView UTXOs){
+        synchronized(writeLock){
+            BlockList nextBlocks = current.blocks.truncate(height);
+            for(Block block : blocks){
+                nextBlocks = nextBlocks.append(block);
+            }
+            ChainSnapshot next = new ChainSnapshot(nextBlocks, UTXOs);
+            current = next;
+            return next;
+        }
+    }
+
+    /**
+     * Swaps blocks on the chain for copies with the same hashes, such as header only copies of old blocks, leaving the unspent outputs unchanged
+     * @param height Height of the first block swapped
+     * @param blocks The copies, in order
+     * @return The snapshot holding the copies
+     */
+    public ChainSnapshot replace(int height, List<Block> blocks){
+        synchronized(writeLock){
+            ChainSnapshot previous = current;
+            ChainSnapshot next = new ChainSnapshot(previous.blocks.replace(height, blocks), previous.getUTXOs());
+            current = next;
+            return next;
+        }
+    }
+
+    /**
+     * Runs an action while holding the write lock, so no other change can happen part way through it
+     * @param action The action to run
+     */
+    public void write(Runnable action){
+        synchronized(writeLock){
+            action.run();
+        }
+    }
+
+    /**
+     * Removes every block and output
+     */
+    public void clear(){
+        synchronized(writeLock){
+            current = new ChainSnapshot(BlockList.EMPTY, UTXOView.empty());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,433 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Validates the chain, keeping a checkpoint of the last validated block and the unspent outputs after it
+ * so each call only has to check the blocks added since the previous one.
+ * Only applying a block's transactions to the unspent outputs depends on the blocks before it, so the other checks
+ * of many blocks are run in parallel first and the transactions are then applied in order.
+ */
+public final class ChainValidator{
+    private final int diff; //Required difficulty of every block
+    private final SignatureVerifier verifier; //Verifier used for incremental validation
+    public static final int WINDOW = 1024; //Most blocks checked in parallel before their transactions are applied in order
+
+    private final SignatureVerifier auditVerifier = new SignatureVerifier(Runtime.getRuntime().availableProcessors(), 0); //Verifier with no cache, so audits check every signature
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors()); //Pool the checks of a window of blocks are split across
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jackchain-audit");
+        thread.setDaemon(true);
+        return thread;
+    }); //Thread that background audits are run on
+
+    private int validatedHeight = -1; //Height of the last validated block, -1 if nothing has been validated
+    private String validatedHash; //Hash of the last validated block, used to notice if the chain has been replaced
+    private Supplier<UTXOStore> storeFactory; //Creates the stores validation tracks unspent outputs in
+    private UTXOStore UTXOs; //Unspent outputs after the last validated block
+
+    /**
+     * Constructor for a new validator
+     * @param diff Required difficulty of every block
+     * @param verifier Verifier used to check signatures during incremental validation
+     * @param storeFactory Creates the stores validation tracks unspent outputs in
+     */
+    public ChainValidator(int diff, SignatureVerifier verifier, Supplier<UTXOStore> storeFactory){
+        this.diff = diff;
+        this.verifier = verifier;
+        this.storeFactory = storeFactory;
+        this.UTXOs = storeFactory.get();
+    }
+
+    /**
+     * Changes the kind of store unspent outputs are tracked in, clearing the checkpoint
+     * @param storeFactory Creates the stores validation tracks unspent outputs in
+     */
+    public synchronized void setStoreFactory(Supplier<UTXOStore> storeFactory){
+        this.storeFactory = storeFactory;
+        this.UTXOs = storeFactory.get();
+        reset();
+    }
+
+    /**
+     * Validates the blocks added since the last checkpoint, moving the checkpoint to the end of the chain if they are valid.
+     * If the checkpointed block is no longer on the chain, the whole chain is validated again.
+     * @param chain The chain to validate
+     * @return Whether the chain is valid
+     */
+    public boolean validate(List<Block> chain){
+        return validateChain(chain).isValid();
+    }
+
+    /**
+     * Validates the blocks added since the last checkpoint, moving the checkpoint to the last valid block
+     * @param chain The chain to validate
+     * @return The result, holding the block and transaction of the first failure if the chain is invalid
+     */
+    public synchronized Result validateChain(List<Block> chain){
+        long start = ChainEvents.isEnabled() ? System.nanoTime() : 0;
+
+        //Start again from the genesis block if the chain no longer holds the checkpoint
+        if(validatedHeight < 0 || validatedHeight >= chain.size() || !chain.get(validatedHeight).getHash().equals(validatedHash)){
+            reset();
+            if(chain.isEmpty()){
+                if(ChainEvents.isEnabled()) ChainEvents.chainValidated(0, System.nanoTime() - start);
+                return Result.VALID;
+            }
+            applyBlock(chain.get(0), UTXOs, null);
+            validatedHeight = 0;
+            validatedHash = chain.get(0).getHash();
+        }
+
+        //Check the new blocks against the checkpointed outputs, which are left after the last valid block
+        Result result = checkBlocks(chain, validatedHeight + 1, UTXOs, verifier, true);
+        int last = result.isValid() ? chain.size() - 1 : result.getHeight() - 1;
+        if(last > validatedHeight){
+            validatedHeight = last;
+            validatedHash = chain.get(last).getHash();
+        }
+
+        if(result.isValid() && ChainEvents.isEnabled()) ChainEvents.chainValidated(chain.size(), System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Validates the whole chain from the genesis block, checking every signature again rather than trusting the cache.
+     * The checkpoint is left unchanged.
+     * @param chain The chain to validate
+     * @return Whether the chain is valid
+     */
+    public boolean audit(List<Block> chain){
+        return auditChain(chain).isValid();
+    }
+
+    /**
+     * Validates the whole chain from the genesis block, checking every signature again rather than trusting the cache
+     * @param chain The chain to validate
+     * @return The result, holding the block and transaction of the first failure if the chain is invalid
+     */
+    public Result auditChain(List<Block> chain){
+        long start = ChainEvents.isEnabled() ? System.nanoTime() : 0;
+        UTXOStore tempUTXOs; //A temporary store for the UTXOs during the check
+        synchronized(this){
+            tempUTXOs = storeFactory.get();
+        }
+        if(chain.isEmpty()) return Result.VALID;
+        applyBlock(chain.get(0), tempUTXOs, null);
+
+        Result result = checkBlocks(chain, 1, tempUTXOs, auditVerifier, false);
+        if(result.isValid() && ChainEvents.isEnabled()) ChainEvents.chainValidated(chain.size(), System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Runs a full audit on a background thread
+     * @param chain The chain to validate, which is copied so blocks added during the audit are not included
+     * @return A future completed with whether the chain is valid
+     */
+    public CompletableFuture<Boolean> auditInBackground(List<Block> chain){
+        List<Block> copy = new ArrayList<>(chain);
+        return CompletableFuture.supplyAsync(() -> audit(copy), background);
+    }
+
+    /**
+     * Runs a full audit on a background thread without copying the chain, for chains that never change such as snapshots
+     * @param chain The chain to validate
+     * @return A future completed with whether the chain is valid
+     */
+    CompletableFuture<Boolean> auditSnapshotInBackground(List<Block> chain){
+        return CompletableFuture.supplyAsync(() -> audit(chain), background);
+    }
+
+    /**
+     * Checks a single block against the block before it and the unspent outputs using the incremental verifier,
+     * applying the block's transactions to the outputs
+     * @param height Height of the block being checked, reported with any failure
+     * @param previous The block before the one being checked
+     * @param current The block being checked
+     * @param UTXOs Unspent outputs before the block, updated as the block's transactions are applied
+     * @param undo List to record each change to the outputs in, which is left holding any partial changes if the block is invalid
+     * @return Whether the block is valid
+     */
+    boolean connectBlock(int height, Block previous, Block current, UTXOStore UTXOs, List<Undo> undo){
+        Result result = checkBlock(height, previous, current, verifier, true);
+        if(result.isValid()) result = applyTransactions(height, current, UTXOs, undo);
+        return report(result).isValid();
+    }
+
+    /**
+     * Checks the blocks of a chain from a height onwards in windows. The checks of each block that do not depend on the blocks before it,
+     * its hash, link, difficulty, merkle root and signatures, are spread across the pool for a whole window,
+     * then the window's transactions are applied to the outputs one block after another, which is the only check that depends on earlier blocks.
+     * @param chain The chain being checked
+     * @param from Height of the first block to check, whose previous block is already valid
+     * @param UTXOs Unspent outputs before the first block, left as they are after the last valid block
+     * @param verifier Verifier to check the signatures with
+     * @param undoFailures Whether to undo the partial changes of an invalid block, which is not needed if the outputs are thrown away
+     * @return The result, holding the first block to fail. Within a block every signature is checked before any output, so a bad signature is reported ahead of a bad input earlier in the block
+     */
+    private Result checkBlocks(List<Block> chain, int from, UTXOStore UTXOs, SignatureVerifier verifier, boolean undoFailures){
+        Block previous = (from < chain.size()) ? chain.get(from - 1) : null;
+        for(int start = from; start < chain.size(); start += WINDOW){
+            //Gather the window first, as a pruned chain reads its blocks from the store
+            int end = Math.min(chain.size(), start + WINDOW);
+            Block[] blocks = new Block[end - start + 1]; //The window's blocks after the one before them
+            blocks[0] = previous;
+            for(int i = start; i < end; i++){
+                blocks[i - start + 1] = chain.get(i);
+            }
+            //Read once, as a listener registering partway through the window would find no times to report
+            boolean timed = ChainEvents.isEnabled();
+            long[] nanos = timed ? new long[end - start] : null;
+
+            //The outputs are only applied up to the first block whose own checks fail, whose failure then comes first
+            Result failed = checkWindow(blocks, start, verifier, nanos);
+            int stop = failed.isValid() ? end : failed.getHeight();
+            for(int i = start; i < stop; i++){
+                long blockStart = timed ? System.nanoTime() : 0;
+                List<Undo> undo = undoFailures ? new ArrayList<>() : null;
+                Result result = applyTransactions(i, blocks[i - start + 1], UTXOs, undo);
+                if(!result.isValid()){
+                    if(undo != null){
+                        for(int j = undo.size() - 1; j >= 0; j--){
+                            undo.get(j).apply(UTXOs);
+                        }
+                    }
+                    return report(result);
+                }
+                if(timed) ChainEvents.blockValidated(i, nanos[i - start] + System.nanoTime() - blockStart);
+            }
+            if(!failed.isValid()) return report(failed);
+            previous = blocks[blocks.length - 1];
+        }
+        return Result.VALID;
+    }
+
+    /**
+     * Runs the checks that do not depend on the unspent outputs on a window of blocks. With fewer blocks than threads
+     * the blocks are checked in turn with each block's signatures split across the verifier's pool, otherwise the blocks are split across the pool
+     * @param blocks The window's blocks after the block before them
+     * @param start Height of the window's first block
+     * @param verifier Verifier to check the signatures with
+     * @param nanos Array to record the time each block took in, or null
+     * @return The result, holding the failure of the lowest block that failed
+     */
+    private Result checkWindow(Block[] blocks, int start, SignatureVerifier verifier, long[] nanos){
+        int count = blocks.length - 1;
+        boolean acrossBlocks = count >= pool.getParallelism();
+        IntFunction<Result> check = i -> {
+            long blockStart = (nanos != null) ? System.nanoTime() : 0;
+            Result result = checkBlock(start + i, blocks[i], blocks[i + 1], verifier, !acrossBlocks);
+            if(nanos != null) nanos[i] = System.nanoTime() - blockStart;
+            return result;
+        };
+
+        if(!acrossBlocks){
+            for(int i = 0; i < count; i++){
+                Result result = check.apply(i);
+                if(!result.isValid()) return result;
+            }
+            return Result.VALID;
+        }
+        try{
+            //The stream is ordered, so the first failure found is the lowest even though later blocks may be checked first
+            return pool.submit(() -> IntStream.range(0, count)
+                .parallel()
+                .mapToObj(check)
+                .filter(result -> !result.isValid())
+                .findFirst()
+                .orElse(Result.VALID)).get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch(ExecutionException e){
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs the checks of a block that do not depend on the unspent outputs: its hash, its link to the block before,
+     * its difficulty, its merkle root against its transactions, and its signatures
+     * @param height Height of the block being checked, reported with any failure
+     * @param previous The block before the one being checked
+     * @param current The block being checked
+     * @param verifier Verifier to check the block's signatures with
+     * @param parallel Whether to split the block's signatures across the verifier's pool
+     * @return The result of the checks
+     */
+    private Result checkBlock(int height, Block previous, Block current, SignatureVerifier verifier, boolean parallel){
+        //Fail if the current block's hash is not what it should be
+        if(!current.getHash().equals(current.calculateHash())) return new Result(height, -1, "Current hashes not aligning");
+
+        //Fail if the actual previous hash does not match the expected previous hash
+        if(!previous.getHash().equals(current.getPrevious())) return new Result(height, -1, "Previous hashes not aligning");
+
+        //Fail if the current hash does not meet the required difficulty
+        if(!Block.meetsDifficulty(current.getHash(), diff)) return new Result(height, -1, "This block has not been mined");
+
+        //Fail if the transactions are not the ones the header was mined with
+        if(!Block.getMerkleRoot(current.getTransactions()).equals(current.getMerkleRoot())) return new Result(height, -1, "Merkle root does not match the transactions");
+
+        //Fail if any signature in the block cannot be verified
+        int invalid = verifier.verifyAll(current.getTransactions(), parallel);
+        if(invalid >= 0) return new Result(height, invalid, "Signature is invalid");
+        return Result.VALID;
+    }
+
+    /**
+     * Checks a block's transactions against the unspent outputs, applying them to the outputs
+     * @param height Height of the block being checked, reported with any failure
+     * @param current The block being checked
+     * @param UTXOs Unspent outputs before the block, updated as the block's transactions are applied
+     * @param undo List to record each change to the outputs in, or null if the changes never need to be undone
+     * @return The result of the checks
+     */
+    private static Result applyTransactions(int height, Block current, UTXOStore UTXOs, List<Undo> undo){
+        TransactionOutput tempOutput;
+
+        //Iterate over every transaction in the current block
+        for(int j = 0; j < current.getTransactions().size(); j++){
+            Transaction currentTransaction = current.getTransactions().get(j);
+
+            //Fail if the transaction pays nobody, which a block from another node may claim
+            if(currentTransaction.getOutputs().isEmpty()) return new Result(height, j, "No outputs");
+
+            //Iterate over the inputs to the transaction, totalling the outputs they spend as the chain holds them
+            float inputsValue = 0.0f;
+            for(TransactionInput input : currentTransaction.getInputs()){
+                tempOutput = UTXOs.get(input.transactionOutputId);
+
+                //Fail if there are no inputs
+                if(tempOutput == null) return new Result(height, j, "No input");
+
+                //Fail if the input does not carry the output it spends, or carries a different one
+                if(input.UTXO == null) return new Result(height, j, "Input without output");
+                if(input.UTXO.val != tempOutput.val) return new Result(height, j, "Input is invalid");
+
+                //Fail if the output being spent is not the sender's, the same rule a node applies to loose transactions
+                if(!tempOutput.isOwner(currentTransaction.getSenderKey())) return new Result(height, j, "Input is not owned by the sender");
+
+                inputsValue += tempOutput.val;
+                UTXOs.remove(input.transactionOutputId);
+                if(undo != null) undo.add(new Undo(input.transactionOutputId, tempOutput));
+            }
+
+            //Fail if there is an inconsistency between the amount going in and out
+            if(inputsValue != currentTransaction.getOutputsValue()) return new Result(height, j, "Inputs are not equal to outputs");
+
+            //Fail if the expected and actual receiver or amount do not align, or any change is paid to someone other than the sender
+            List<TransactionOutput> outputs = currentTransaction.getOutputs();
+            if(!outputs.get(0).receiver.equals(currentTransaction.getReceiverKey())) return new Result(height, j, "Receiver is incorrect");
+            if(outputs.get(0).val != currentTransaction.getValue()) return new Result(height, j, "Value is incorrect");
+            for(int k = 1; k < outputs.size(); k++){
+                if(!outputs.get(k).isOwner(currentTransaction.getSenderKey())) return new Result(height, j, "Change is not paid to the sender");
+            }
+
+            //Iterate over all the outputs of the transaction, failing rather than replacing an output that is still unspent
+            for(TransactionOutput output : outputs){
+                if(UTXOs.contains(output.id)) return new Result(height, j, "Output already exists");
+                if(undo != null) undo.add(new Undo(output.id, null));
+                UTXOs.put(output);
+            }
+        }
+        return Result.VALID;
+    }
+
+    /**
+     * Reports a failure to the listeners
+     * @param result The result of a check
+     * @return The same result
+     */
+    private static Result report(Result result){
+        if(!result.isValid() && ChainEvents.isEnabled()) ChainEvents.validationFailed(result.getHeight(), result.toString());
+        return result;
+    }
+
+    /**
+     * Applies a block's transactions to the outputs without checking them, used for the genesis block and for blocks already known to be valid
+     * @param block The block
+     * @param UTXOs The outputs to change
+     * @param undo List to record each change in, or null
+     */
+    static void applyBlock(Block block, UTXOStore UTXOs, List<Undo> undo){
+        for(Transaction transaction : block.getTransactions()){
+            for(TransactionInput input : transaction.getInputs()){
+                TransactionOutput spent = UTXOs.remove(input.transactionOutputId);
+                if(spent != null && undo != null) undo.add(new Undo(input.transactionOutputId, spent));
+            }
+            for(TransactionOutput output : transaction.getOutputs()){
+                if(undo != null) undo.add(new Undo(output.id, UTXOs.get(output.id)));
+                UTXOs.put(output);
+            }
+        }
+    }
+
+    /**
+     * Clears the checkpoint so the next validation starts from the genesis block
+     */
+    public synchronized void reset(){
+        validatedHeight = -1;
+        validatedHash = null;
+        UTXOs.clear();
+    }
+
+    public synchronized int getValidatedHeight(){return this.validatedHeight;}
+    public int getDiff(){return this.diff;}
+
+    /**
+     * The result of validating a chain, which on failure names the first invalid block and the transaction that failed in it, signatures being checked before outputs as they always have been
+     */
+    public static final class Result{
+        static final Result VALID = new Result(-1, -1, null);
+
+        private final int height; //Height of the invalid block, -1 if the chain is valid
+        private final int transaction; //Position of the invalid transaction in the block, -1 if the block's header is invalid
+        private final String reason; //Why the block is invalid, null if the chain is valid
+
+        private Result(int height, int transaction, String reason){
+            this.height = height;
+            this.transaction = transaction;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString(){
+            if(isValid()) return "Valid";
+            return (transaction < 0) ? reason : reason + " on transaction " + transaction;
+        }
+
+        public boolean isValid(){return this.reason == null;}
+        public int getHeight(){return this.height;}
+        public int getTransaction(){return this.transaction;}
+        public String getReason(){return this.reason;}
+    }
+
+    /**
+     * A change to a set of outputs, holding what an output id mapped to before the change
+     */
+    static final class Undo{
+        final String id; //Id of the changed output
+        final TransactionOutput before; //Output the id mapped to before, or null if there was none
+
+        Undo(String id, TransactionOutput before){
+            this.id = id;
+            this.before = before;
+        }
+
+        /**
+         * Restores the output id to what it mapped to before the change
+         * @param UTXOs The outputs to restore
+         */
+        void apply(UTXOStore UTXOs){
+            if(before == null) UTXOs.remove(id);
+            else UTXOs.put(before);
+        }
+    }
+}
\ No newline at end of file
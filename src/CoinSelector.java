@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses which of a wallet's unspent outputs a payment spends.
+ * Every input costs an output lookup when the transaction is processed and again each time the chain is validated,
+ * so the strategies try to keep the number of inputs, and the change left over, small.
+ */
+public interface CoinSelector{
+    CoinSelector LARGEST_FIRST = new LargestFirstSelector();
+    CoinSelector MINIMAL_INPUTS = new MinimalInputsSelector();
+    CoinSelector BRANCH_AND_BOUND = new BranchAndBoundSelector(10_000, MINIMAL_INPUTS);
+    CoinSelector DEFAULT = BRANCH_AND_BOUND; //Selector wallets use unless told otherwise
+
+    /**
+     * Chooses outputs worth at least a target amount
+     * @param available The outputs that can be spent
+     * @param target The amount to pay
+     * @return The chosen outputs, or null if the available outputs are not worth enough
+     */
+    List<TransactionOutput> select(Collection<TransactionOutput> available, float target);
+}
+
+/**
+ * Spends the largest outputs until the target is reached, which uses few inputs but grinds large outputs down into change
+ */
+final class LargestFirstSelector implements CoinSelector{
+    @Override
+    public List<TransactionOutput> select(Collection<TransactionOutput> available, float target){
+        List<TransactionOutput> selected = new ArrayList<>();
+        double total = 0;
+        for(TransactionOutput output : sort(available)){
+            if(total >= target) break;
+            selected.add(output);
+            total += output.val;
+        }
+        return (total >= target) ? selected : null;
+    }
+
+    /**
+     * Sorts outputs from the largest to the smallest value
+     * @param outputs The outputs to sort
+     * @return A new sorted list
+     */
+    static List<TransactionOutput> sort(Collection<TransactionOutput> outputs){
+        List<TransactionOutput> sorted = new ArrayList<>(outputs);
+        sorted.sort(Comparator.comparingDouble((TransactionOutput output) -> output.val).reversed());
+        return sorted;
+    }
+}
+
+/**
+ * Uses the fewest inputs possible, then swaps the last of them for the smallest output that still reaches the target,
+ * so a payment one output can cover spends the closest output rather than the largest
+ */
+final class MinimalInputsSelector implements CoinSelector{
+    @Override
+    public List<TransactionOutput> select(Collection<TransactionOutput> available, float target){
+        List<TransactionOutput> sorted = LargestFirstSelector.sort(available);
+
+        //The fewest inputs are always the largest outputs
+        int count = 0;
+        double total = 0;
+        while(count < sorted.size() && total < target){
+            total += sorted.get(count++).val;
+        }
+        if(total < target) return null;
+
+        //Replace the last input with the smallest output after it that still covers the rest
+        double rest = total - sorted.get(count - 1).val;
+        int last = count - 1;
+        for(int i = sorted.size() - 1; i >= count; i--){
+            if(rest + sorted.get(i).val >= target){
+                last = i;
+                break;
+            }
+        }
+        List<TransactionOutput> selected = new ArrayList<>(sorted.subList(0, count - 1));
+        selected.add(sorted.get(last));
+        return selected;
+    }
+}
+
+/**
+ * Searches for outputs adding up to exactly the target, so the payment creates no change output,
+ * preferring the match with the fewest inputs. Outputs are tried from the largest, skipping any branch
+ * that goes over the target or cannot reach it with the outputs left. Values are added in float in the order the outputs
+ * become inputs, as processing the transaction adds them, so a match found here also leaves no change when it is processed.
+ * The search gives up after a number of steps, or is skipped for wallets with too many outputs to search, falling back to another selector.
+ */
+final class BranchAndBoundSelector implements CoinSelector{
+    private static final int MAX_OUTPUTS = 1000; //Most outputs searched, which also bounds the depth of the search
+    private final int maxSteps; //Most branches tried before falling back
+    private final CoinSelector fallback; //Selector used when there is no exact match
+
+    BranchAndBoundSelector(int maxSteps, CoinSelector fallback){
+        this.maxSteps = maxSteps;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public List<TransactionOutput> select(Collection<TransactionOutput> available, float target){
+        //Outputs worth more than the target can never be part of an exact match
+        List<TransactionOutput> sorted = new ArrayList<>(available.size());
+        for(TransactionOutput output : LargestFirstSelector.sort(available)){
+            if(output.val <= target) sorted.add(output);
+        }
+        if(sorted.size() > MAX_OUTPUTS) return fallback.select(available, target);
+
+        double[] remaining = new double[sorted.size() + 1]; //Value of the outputs from each position to the end
+        for(int i = sorted.size() - 1; i >= 0; i--){
+            remaining[i] = remaining[i + 1] + sorted.get(i).val;
+        }
+        if(remaining[0] < target) return fallback.select(available, target);
+
+        Search search = new Search(sorted, remaining, target);
+        search.run(0, 0f, new boolean[sorted.size()], 0);
+        if(search.best == null) return fallback.select(available, target);
+
+        List<TransactionOutput> selected = new ArrayList<>(search.bestCount);
+        for(int i = 0; i < sorted.size(); i++){
+            if(search.best[i]) selected.add(sorted.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * The state of one search
+     */
+    private final class Search{
+        private final List<TransactionOutput> sorted;
+        private final double[] remaining;
+        private final float target;
+        private final double slack; //Most the float totals can be below the exact sums through rounding, so bounding on the exact sums never cuts off a float match
+        private int steps;
+        private boolean[] best; //Outputs in the best match so far, null if none
+        private int bestCount;
+
+        private Search(List<TransactionOutput> sorted, double[] remaining, float target){
+            this.sorted = sorted;
+            this.remaining = remaining;
+            this.target = target;
+            this.slack = (double) Math.ulp(target) * (sorted.size() + 1);
+        }
+
+        /**
+         * Decides whether to include the output at a position, then moves on to the next
+         * @param position Position of the output to decide on
+         * @param total Value of the outputs included so far, added in float in order
+         * @param included Which outputs are included
+         * @param count Number of outputs included
+         */
+        private void run(int position, float total, boolean[] included, int count){
+            if(++steps > maxSteps) return;
+            if(total == target){
+                if(best == null || count < bestCount){
+                    best = included.clone();
+                    bestCount = count;
+                }
+                return;
+            }
+            //Stop if the outputs left cannot reach the target, or no match here could beat the best one
+            if(position == sorted.size() || total + remaining[position] + slack < target) return;
+            if(best != null && count + 1 >= bestCount) return;
+
+            float value = sorted.get(position).val;
+            if(total + value <= target){
+                included[position] = true;
+                run(position + 1, total + value, included, count + 1);
+                included[position] = false;
+            }
+            run(position + 1, total, included, count);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Prints chain events to the console with the same messages the chain used to print directly
+ */
+public final class ConsoleListener implements ChainListener{
+    @Override
+    public void blockMined(Block block, long attempts, long nanos){
+        System.out.println("Block Mined!!! : " + block.getHash());
+    }
+
+    @Override
+    public void transactionAdded(Block block, Transaction transaction){
+        System.out.println("Transaction successfullly added.");
+    }
+
+    @Override
+    public void transactionRejected(Transaction transaction, String reason){
+        System.out.println(reason);
+    }
+
+    @Override
+    public void validationFailed(int height, String reason){
+        System.out.println(reason);
+    }
+
+    @Override
+    public void chainValidated(int height, long nanos){
+        System.out.println("Chain is valid");
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Hashes a block header for many different counts, reusing the midstate of the unchanging part of the header.
+ * Each instance holds its own scratch space, so one should be used per thread.
+ */
+final class HeaderHasher{
+    private final int[] midstate; //Hash state after the previous hash and merkle root
+    private final int[] state = new int[8]; //Working hash state
+    private final int[] w = new int[64]; //Message schedule scratch space
+    private final byte[] tail = new byte[Sha256.BLOCK_SIZE]; //Final padded chunk holding the timestamp and count
+    private final byte[] digest = new byte[32]; //Digest of the last attempt
+
+    /**
+     * Constructor for a new hasher of a block header
+     * @param midstate Hash state after compressing the first 64 bytes of the header
+     * @param header The full header bytes
+     */
+    HeaderHasher(int[] midstate, byte[] header){
+        this.midstate = midstate;
+
+        //Copy the remainder of the header into the final chunk and pad it
+        int remaining = header.length - Sha256.BLOCK_SIZE;
+        System.arraycopy(header, Sha256.BLOCK_SIZE, tail, 0, remaining);
+        tail[remaining] = (byte) 0x80;
+        long bitLength = header.length * 8L;
+        for(int i = 0; i < 8; i++){
+            tail[Sha256.BLOCK_SIZE - 1 - i] = (byte) (bitLength >>> (8 * i));
+        }
+    }
+
+    /**
+     * Hashes the header with the given count
+     * @param count The count to place in the header
+     * @return The digest, which is overwritten by the next call
+     */
+    byte[] hash(int count){
+        int p = Block.COUNT_OFFSET - Sha256.BLOCK_SIZE;
+        tail[p] = (byte) (count >>> 24);
+        tail[p + 1] = (byte) (count >>> 16);
+        tail[p + 2] = (byte) (count >>> 8);
+        tail[p + 3] = (byte) count;
+
+        System.arraycopy(midstate, 0, state, 0, 8);
+        Sha256.compress(state, tail, 0, w);
+        Sha256.writeDigest(state, digest);
+        return digest;
+    }
+}
\ No newline at end of file
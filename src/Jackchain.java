@@ -1,115 +1,566 @@
+import java.io.IOException;
+import java.security.PublicKey;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 public class Jackchain{
 
-    private static final ArrayList<Block> chain = new ArrayList<>(); //The chain of blocks
-    static HashMap<String, TransactionOutput> UTXOs = new HashMap<>(); //The unspent transaction outputs on the chain
+    private static final ChainState state = new ChainState(); //The chain of blocks and the unspent outputs after them, read through snapshots
+    static UTXOStore UTXOs = new UTXOSet(); //Unspent outputs including those of processed transactions not yet on the chain, only used by the thread building blocks
     
     public static final int DIFF = 3; //Required difficulty for mining blocks
     public static final float MINIMUM_TRANSACTION = 0.1f; //Minimum amount transferred in a transaction
 
     private static Transaction genesisTransaction; //The first transaction
+    private static ParallelMiner miner; //Miner used to add blocks, blocks are mined on the calling thread when not set
+    private static final Mempool mempool = new Mempool(); //Transactions waiting to be mined
+    private static BlockStore store; //Store each mined block is appended to, blocks are only kept in memory when not set
+    private static final SignatureVerifier verifier = new SignatureVerifier(); //Verifies signatures in parallel and remembers those already verified
+    private static final ChainValidator validator = new ChainValidator(DIFF, verifier, UTXOSet::new); //Validates the chain from the last checkpoint
+    private static final BlockIndex index = new BlockIndex(validator, state); //Every known block, choosing the branch with the most work as the chain
+    private static final TransactionIndex transactionIndex = new TransactionIndex(); //Blocks by hash, transactions by id and each key's transactions on the chain
+    private static final List<Block> building = new ArrayList<>(); //Blocks being built whose transactions the unspent outputs include, in the order they were built, only changed under the write lock
+    private static int pruneDepth; //Blocks back from the tip that keep their transactions in memory, 0 to keep every block whole
+    public static final int SNAPSHOT_INTERVAL = 1000; //Blocks added between writing the unspent outputs to the store
+    private static int snapshotHeight; //Height of the chain when its unspent outputs were last written to the store
+    private static final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jackchain-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    }); //Thread the unspent outputs are written to the store on, so the chain does not wait for them
+    private static long prunedBytes; //Estimated heap memory freed by pruning
 
     public static void main(String[] args){}
 
     /**
-     * Checks if the chain is still valid
+     * Checks if the chain is still valid, only checking the blocks added since the last time the chain was validated
      * @return Whether the chain is valid
      */
     public static Boolean isValidChain(){
-        Block current; //Iterator to go over every block in the chain
-        Block previous; //Iterator to track the previous block to ensure the hashes line up
-        String target = new String(new char[DIFF]).replace('\0', '0'); //A string of the required number of zeroes to compare to the hash attempts
-        HashMap<String, TransactionOutput> tempUTXOs = new HashMap<>(); //A temporary store for the UTXOs during the check
-
-        //Start by readding the genesis transaction
-        tempUTXOs.put(genesisTransaction.getOutputs().get(0).id, genesisTransaction.getOutputs().get(0));
-
-        //Iterate over every block in the chain
-        for(int i = 1; i < chain.size(); i++){
-            current = chain.get(i);
-            previous = chain.get(i - 1);
-            
-            //Return false if the current block's hash is not what it should be
-            if(!current.getHash().equals(current.calculateHash())){
-                System.out.println("Error! Current hashes not aligning");
-                return false;
-            }
+        return validator.validate(getFullChain());
+    }
+
+    /**
+     * Checks the blocks added since the last time the chain was validated, reporting where the chain is invalid
+     * @return The result, holding the height of the first invalid block and the position of its invalid transaction if there is one
+     */
+    public static ChainValidator.Result validateChain(){
+        return validator.validateChain(getFullChain());
+    }
+
+    /**
+     * Checks the whole chain from the genesis block, checking every signature again
+     * @return Whether the chain is valid
+     */
+    public static boolean auditChain(){
+        return validator.audit(getFullChain());
+    }
+
+    /**
+     * Checks the whole chain from the genesis block on a background thread
+     * @return A future completed with whether the chain is valid
+     */
+    public static CompletableFuture<Boolean> auditChainInBackground(){
+        return validator.auditSnapshotInBackground(getFullChain());
+    }
+
+    /**
+     * Gets the current state of the chain, which can be read from any thread without locking and never changes once returned
+     * @return The latest snapshot of the chain
+     */
+    public static ChainSnapshot snapshot(){
+        return state.snapshot();
+    }
+
+    /**
+     * Mines and adds a block to the chain
+     * @param newBlock The block to be added
+     */
+    public static void addBlock(Block newBlock){
+        if(miner == null) newBlock.mineBlock(DIFF);
+        else newBlock.mineBlock(DIFF, miner);
+        addMinedBlock(newBlock);
+    }
+
+    /**
+     * Adds a block that has been mined from the unspent outputs used to build blocks.
+     * The block's transactions were checked as they were processed, so it is added without checking them again
+     * @param block The mined block
+     * @return What happened to the block and how the chain changed
+     */
+    static ChainChange addMinedBlock(Block block){
+        ChainChange[] change = new ChainChange[1];
+        state.write(() -> {
+            change[0] = index.accept(block, true);
+            update(change[0], block);
+        });
+        return change[0];
+    }
+
+    /**
+     * Adds a block mined elsewhere, such as one received from another node.
+     * The block is checked and kept even if it is on a branch with less work, and the chain switches to its branch once that branch has the most work.
+     * @param block The mined block
+     * @return What happened to the block and how the chain changed
+     */
+    public static ChainChange acceptBlock(Block block){
+        ChainChange[] change = new ChainChange[1];
+        state.write(() -> {
+            change[0] = index.accept(block);
+            update(change[0], null);
+        });
+        return change[0];
+    }
+
+    /**
+     * Adds a mined block that was built with fillBlock, unless it was undone while it was mined because the chain moved on,
+     * in which case its transactions are already back in the mempool
+     * @param block The mined block
+     * @return What happened to the block and how the chain changed, or null if it was undone
+     */
+    static ChainChange addBuiltBlock(Block block){
+        ChainChange[] change = new ChainChange[1];
+        state.write(() -> {
+            if(!building.contains(block)) return;
+            change[0] = index.accept(block, true);
+            update(change[0], block);
+        });
+        return change[0];
+    }
 
-            //Return false if the actual previous hash does not match the expected previous hash
-            if(!previous.getHash().equals(current.getPrevious())){
-                System.out.println("Error! Previous hashes not aligning");
-                return false;
+    /**
+     * Brings the store and the unspent outputs used to build blocks in line with a change to the chain, called under the write lock.
+     * Unless the chain just grew by the local block, every block still being built is out of date, so it is undone and its
+     * transactions go back to the mempool along with those of the blocks that left the chain.
+     * @param change How the chain changed
+     * @param local Block built from the unspent outputs, whose transactions they already include, or null
+     */
+    private static void update(ChainChange change, Block local){
+        List<Block> connected = change.getConnected();
+        boolean extended = local != null && change.getDisconnected().isEmpty() && connected.size() == 1 && connected.get(0) == local;
+
+        //Undo the out of date blocks newest first, then the blocks that left the chain, then apply those that joined
+        List<Block> stale = new ArrayList<>();
+        if(extended){
+            building.remove(local);
+        } else if(change.changedChain() || local != null){
+            stale.addAll(building);
+            building.clear();
+            if(local != null && !stale.contains(local)) stale.add(local);
+        }
+        for(int i = stale.size() - 1; i >= 0; i--){
+            revert(stale.get(i));
+        }
+        for(Block block : change.getDisconnected()){
+            revert(block);
+        }
+        for(Block block : connected){
+            if(!(extended && block == local)) ChainValidator.applyBlock(block, UTXOs, null);
+        }
+        requeue(change, stale);
+
+        if(store != null && change.changedChain()){
+            try{
+                store.truncate(change.getForkHeight());
+                for(Block block : connected){
+                    store.append(block);
+                }
+            } catch(IOException e){
+                throw new RuntimeException(e);
             }
+            snapshotIfDue();
+        }
+        if(change.changedChain()){
+            prune();
+            transactionIndex.sync(state.snapshot().getBlocks());
+            if(ChainEvents.isEnabled()) ChainEvents.chainChanged(state.snapshot().getTip());
+        }
+    }
 
-            //Return false if the current hash does not meet the required difficulty
-            if(!current.getHash().substring(0, DIFF).equals(target)){
-                System.out.println("This block has not been mined");
-                return false;
+    /**
+     * Writes the unspent outputs to the store on the snapshot thread once the chain has grown by the snapshot interval since they were last written,
+     * called under the write lock. The snapshot never changes, so the chain carries on while it is written.
+     * A failed write leaves the outputs written before in place, which restore still uses
+     */
+    private static void snapshotIfDue(){
+        ChainSnapshot snapshot = state.snapshot();
+        if(snapshot.getHeight() - snapshotHeight < SNAPSHOT_INTERVAL) return;
+        snapshotHeight = snapshot.getHeight();
+        BlockStore target = store;
+        snapshotWriter.execute(() -> {
+            try{
+                target.writeSnapshot(snapshot.getHeight(), snapshot.getTip().getHash(), snapshot.getUTXOs());
+            } catch(IOException e){
+                //Restore falls back to the outputs written before, or to reading every block
             }
+        });
+    }
 
-            TransactionOutput tempOutput;
+    /**
+     * Writes the unspent outputs after the tip to the store now, so restore only has to decode the blocks added after them
+     * @return Whether the outputs were written, which they are not if the store does not hold the tip
+     */
+    public static boolean saveSnapshot(){
+        ChainSnapshot snapshot = snapshot();
+        BlockStore target = store;
+        if(target == null) throw new IllegalStateException("There is no block store to write the outputs to");
+        if(snapshot.getHeight() == 0) return false;
+        try{
+            return target.writeSnapshot(snapshot.getHeight(), snapshot.getTip().getHash(), snapshot.getUTXOs());
+        } catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
 
-            //Iterate over every transaction in the current block
-            for(int j = 0; j < current.getTransactions().size(); j++){
-                Transaction currentTransaction = current.getTransactions().get(j);
+    /**
+     * Returns the transactions of the blocks that left the chain and of out of date blocks to the mempool, oldest first,
+     * skipping any the blocks that joined the chain hold
+     * @param change How the chain changed
+     * @param stale Out of date blocks that were undone, in the order they were built
+     */
+    private static void requeue(ChainChange change, List<Block> stale){
+        List<Block> disconnected = change.getDisconnected();
+        if(disconnected.isEmpty() && stale.isEmpty()) return;
+
+        Set<String> mined = new HashSet<>();
+        for(Block block : change.getConnected()){
+            for(Transaction transaction : block.getTransactions()){
+                mined.add(transaction.getID());
+            }
+        }
+        List<Block> blocks = new ArrayList<>(disconnected.size() + stale.size());
+        for(int i = disconnected.size() - 1; i >= 0; i--){
+            blocks.add(disconnected.get(i));
+        }
+        blocks.addAll(stale);
+
+        List<Transaction> returned = new ArrayList<>();
+        for(Block block : blocks){
+            for(Transaction transaction : block.getTransactions()){
+                if(!mined.contains(transaction.getID())) returned.add(transaction);
+            }
+        }
+        mempool.requeue(returned);
+    }
 
-                //Return false if the signature cannot be verified
-                if(!currentTransaction.verifySignature()){
-                    System.out.println("Signature on transaction " + j + "is invalid");
-                    return false;
+    /**
+     * Drains pending transactions from the mempool into a block being built, processing them into the unspent outputs used to build blocks.
+     * The block is undone and its transactions returned to the mempool if the chain moves on before it is added
+     * @param block The block being built
+     * @param transactions Most transactions to add
+     * @param bytes Largest estimated size of the transactions added
+     * @return The estimated size of the transactions added, or -1 if the block does not follow the tip or was undone because the chain moved on
+     */
+    static int fillBlock(Block block, int transactions, int bytes){
+        int[] used = new int[1];
+        state.write(() -> {
+            if(!building.contains(block)){
+                //Only start building a new block on the tip, a block already holding transactions has been undone
+                Block tip = state.snapshot().getTip();
+                if(!block.getTransactions().isEmpty() || tip == null || !tip.getHash().equals(block.getPrevious())){
+                    used[0] = -1;
+                    return;
                 }
+                building.add(block);
+            }
+            used[0] = mempool.fill(block, transactions, bytes);
+        });
+        return used[0];
+    }
 
-                //Return false if there is an inconsistency between the amount going in and out
-                if(currentTransaction.getInputsValue() != currentTransaction.getOutputsValue()){
-                    System.out.println("Inputs are not equal to outputs on transaction " + j);
-                    return false;
+    /**
+     * Replaces blocks being built with a single new block holding all of their transactions, without processing them again
+     * @param parts The blocks to combine, the most recently built blocks in the order they were built
+     * @param previous Hash of the block the new block follows
+     * @return The new block, or null if any of the blocks was undone because the chain moved on
+     */
+    static Block combineBlocks(List<Block> parts, String previous){
+        Block[] combined = new Block[1];
+        state.write(() -> {
+            if(!building.containsAll(parts)) return;
+            Block block = new Block(previous);
+            for(Block part : parts){
+                for(Transaction transaction : part.getTransactions()){
+                    block.addProcessed(transaction);
                 }
+            }
+            int at = building.indexOf(parts.get(0));
+            building.removeAll(parts);
+            building.add(at, block);
+            combined[0] = block;
+        });
+        return combined[0];
+    }
 
-                //Iterate over the inputs to the transaction
-                for(TransactionInput input : currentTransaction.getInputs()){
-                    tempOutput = tempUTXOs.get(input.transactionOutputId);
+    /**
+     * Abandons blocks being built, undoing their transactions and returning them to the mempool
+     * @param blocks The blocks, in the order they were built, skipping any already undone
+     */
+    static void withdrawBlocks(List<Block> blocks){
+        state.write(() -> {
+            List<Transaction> returned = new ArrayList<>();
+            for(int i = blocks.size() - 1; i >= 0; i--){
+                if(!building.remove(blocks.get(i))) continue;
+                revert(blocks.get(i));
+                returned.addAll(0, blocks.get(i).getTransactions());
+            }
+            mempool.requeue(returned);
+        });
+    }
 
-                    //Return false if there are no inputs
-                    if(tempOutput == null){
-                        System.out.println("No input for transaction " + j);
-                        return false;
-                    }
+    /**
+     * Prunes the blocks more than the prune depth back from the tip, called under the write lock
+     */
+    private static void prune(){
+        if(pruneDepth <= 0) return;
+        int from = index.getPrunedHeight();
+        List<Block> pruned = index.prune(state.snapshot().getHeight() - pruneDepth);
+        if(pruned.isEmpty()) return;
+        transactionIndex.prune(pruned, from);
+        for(Block block : pruned){
+            prunedBytes += block.estimateTransactionMemory();
+        }
+    }
 
-                    //Return false if input does not align with the output
-                    if(input.UTXO.val != tempOutput.val){
-                        System.out.println("Input for transaction " + j + "is invalid." );
-                        return false;
-                    }
+    /**
+     * Turns pruning on or off. Blocks further back from the tip than the depth are swapped for header only copies, keeping their hashes,
+     * merkle roots and filters but dropping their transactions and undo logs, so memory stays bounded as the chain grows.
+     * The unspent outputs are kept whole, so new blocks are still checked and balances still read from snapshots.
+     * Pruned blocks are read back whole from the store when needed, such as by getBlock, isValidChain and auditChain, so a store must be set first.
+     * The chain can no longer switch to a branch splitting off below the pruned blocks, and the kind of output store can no longer be changed
+     * @param depth Number of blocks back from the tip that keep their transactions, or 0 to stop pruning, which leaves blocks already pruned as they are
+     */
+    public static void setPruneDepth(int depth){
+        if(depth < 0) throw new IllegalArgumentException("The prune depth cannot be negative");
+        state.write(() -> {
+            if(depth > 0 && store == null) throw new IllegalStateException("Pruning needs a block store to read pruned blocks back from");
+            if(depth > 0 && store.size() != state.snapshot().getHeight()) throw new IllegalStateException("The block store does not hold the whole chain");
+            pruneDepth = depth;
+            prune();
+            transactionIndex.sync(state.snapshot().getBlocks());
+        });
+    }
 
-                    tempUTXOs.remove(input.transactionOutputId);
-                }
+    /**
+     * Gets a block on the chain with its transactions, reading it back from the store if it has been pruned
+     * @param height Height of the block
+     * @return The whole block
+     */
+    public static Block getBlock(int height){
+        return getFullChain().get(height);
+    }
 
-                //Iterate over all the outputs of the transaction
-                for(TransactionOutput output : currentTransaction.getOutputs()){
-                    tempUTXOs.put(output.id, output);
+    /**
+     * Gets the chain with every block whole, reading pruned blocks back from the store only as they are used
+     * @return A read only list of the latest snapshot's blocks
+     */
+    private static List<Block> getFullChain(){
+        List<Block> blocks = snapshot().getBlocks();
+        return (index.getPrunedHeight() == 0) ? blocks : new StoredChain(blocks, store);
+    }
+
+    /**
+     * Undoes a block's transactions on the unspent outputs used to build blocks
+     * @param block The block to undo
+     */
+    private static void revert(Block block){
+        List<Transaction> transactions = block.getTransactions();
+        for(int i = transactions.size() - 1; i >= 0; i--){
+            for(TransactionOutput output : transactions.get(i).getOutputs()){
+                UTXOs.remove(output.id);
+            }
+            for(TransactionInput input : transactions.get(i).getInputs()){
+                if(input.UTXO != null) UTXOs.put(input.UTXO);
+            }
+        }
+    }
+
+    /**
+     * Sets the store each mined block is appended to
+     * @param blockStore The store to use, or null to keep blocks only in memory, which is not allowed while pruning
+     */
+    public static void setStore(BlockStore blockStore){
+        state.write(() -> {
+            if(blockStore == null && (pruneDepth > 0 || index.getPrunedHeight() > 0)) throw new IllegalStateException("Pruned blocks can only be read back from a block store");
+            store = blockStore;
+        });
+    }
+
+    /**
+     * Replaces the chain with the blocks in a store, without checking signatures again. If the store holds a snapshot of the unspent outputs,
+     * the blocks it covers are only read as headers and treated as pruned, their transactions read back from the store when needed,
+     * and only the blocks after it are decoded and applied to the outputs. Otherwise the outputs are rebuilt from every block's transactions.
+     * The store is then used for new blocks.
+     * @param blockStore The store to read
+     */
+    public static void restore(BlockStore blockStore){
+        state.write(() -> {
+            reset();
+            try{
+                int from = 0;
+                BlockStore.Snapshot snapshot = blockStore.readSnapshot();
+                if(snapshot != null){
+                    List<Block> headers = new ArrayList<>(snapshot.getHeight());
+                    for(int height = 0; height < snapshot.getHeight(); height++){
+                        headers.add(blockStore.readHeader(height));
+                    }
+                    index.load(headers, snapshot.getUTXOs());
+                    snapshot.getUTXOs().forEach(UTXOs::put);
+                    from = snapshot.getHeight();
                 }
+                snapshotHeight = from;
 
-                //Return false if the expected and actual receiver do not align
-                if(currentTransaction.getOutputs().get(0).receiver != currentTransaction.getReceiverKey()){
-                    System.out.println("Receiver for transaction " + j + " is incorrect.");
-                    return false;
+                for(Block block : blockStore.readFrom(from)){
+                    for(Transaction transaction : block.getTransactions()){
+                        for(TransactionInput input : transaction.getInputs()){
+                            UTXOs.remove(input.transactionOutputId);
+                        }
+                        for(TransactionOutput output : transaction.getOutputs()){
+                            UTXOs.put(output);
+                        }
+                    }
+                    index.accept(block, true);
                 }
+            } catch(IOException e){
+                throw new RuntimeException(e);
             }
+            store = blockStore;
+            prune();
+            transactionIndex.sync(state.snapshot().getBlocks());
+        });
+
+        //The genesis transaction is the only transaction in the first block
+        Block genesis = (snapshot().getHeight() == 0) ? null : getBlock(0);
+        if(genesis != null && !genesis.getTransactions().isEmpty()) genesisTransaction = genesis.getTransactions().get(0);
+    }
+
+    /**
+     * Assembles a block from the next batch of transactions in the mempool, then mines it and adds it to the chain
+     * @return The new block, or null if no pending transactions could be processed or the chain moved on while it was mined
+     */
+    public static Block mineFromMempool(){
+        Block tip = getTip();
+        if(tip == null) throw new IllegalStateException("The chain needs a genesis block first");
+
+        Block block = new Block(tip.getHash());
+        fillBlock(block, mempool.getMaxTransactions(), mempool.getMaxBytes());
+        if(block.getTransactions().isEmpty()){
+            withdrawBlocks(List.of(block));
+            return null;
         }
+        if(miner == null) block.mineBlock(DIFF);
+        else block.mineBlock(DIFF, miner);
+        return (addBuiltBlock(block) == null) ? null : block;
+    }
 
-        //Otherwise return that the chain is valid
-        System.out.println("Chain is valid");
-        return true;
+    /**
+     * Starts the chain with a genesis block holding a single transaction that creates the initial funds
+     * @param coinbase The wallet signing the genesis transaction
+     * @param receiver The public key of the wallet to receive the initial funds
+     * @param val The amount of funds to create
+     * @return The mined genesis block
+     */
+    public static Block createGenesis(Wallet coinbase, PublicKey receiver, float val){
+        //Create the genesis transaction and add its output to the unspent outputs directly, as it has no inputs
+        Block genesis = new Block("0");
+        state.write(() -> {
+            if(snapshot().getHeight() > 0) throw new IllegalStateException("The chain already has a genesis block");
+            genesisTransaction = coinbase.createGenesisTransaction(receiver, val);
+            UTXOs.put(genesisTransaction.getOutputs().get(0));
+
+            //Add the transaction to the first block, which skips processing
+            genesis.addTransaction(genesisTransaction);
+        });
+        addBlock(genesis);
+        return genesis;
     }
 
     /**
-     * Mines and adds a block to the chain
-     * @param newBlock The block to be added
+     * Copies an owner's outputs from the unspent outputs used to build blocks while holding the write lock,
+     * so threads other than the one building blocks can read them while blocks are built with fillBlock or a MiningScheduler
+     * @param owner Public key of the owner
+     * @return A new list of the owner's outputs
      */
-    public static void addBlock(Block newBlock){
-        newBlock.mineBlock(DIFF);
-        chain.add(newBlock);
+    static List<TransactionOutput> copyOutputs(PublicKey owner){
+        List<TransactionOutput> outputs = new ArrayList<>();
+        state.write(() -> outputs.addAll(UTXOs.getOutputs(owner)));
+        return outputs;
+    }
+
+    /**
+     * Clears the chain and every unspent output so a new chain can be started
+     */
+    static void reset(){
+        state.write(() -> {
+            index.clear();
+            building.clear();
+            transactionIndex.sync(snapshot().getBlocks());
+            UTXOs.clear();
+            validator.reset();
+            prunedBytes = 0;
+            snapshotHeight = 0;
+            genesisTransaction = null;
+        });
+    }
+
+    /**
+     * Gets the most recent block on the chain
+     * @return The last block, or null if the chain is empty
+     */
+    public static Block getTip(){
+        return snapshot().getTip();
+    }
+
+    /**
+     * Registers a listener for mining, transaction and validation events, such as a ConsoleListener or ChainMetrics
+     * @param listener The listener to add
+     */
+    public static void addListener(ChainListener listener){
+        ChainEvents.add(listener);
+    }
+
+    /**
+     * Stops a listener receiving events
+     * @param listener The listener to remove
+     * @return Whether the listener was registered
+     */
+    public static boolean removeListener(ChainListener listener){
+        return ChainEvents.remove(listener);
+    }
+
+    public static Mempool getMempool(){return mempool;}
+    public static TransactionIndex getTransactionIndex(){return transactionIndex;}
+    public static SignatureVerifier getSignatureVerifier(){return verifier;}
+    public static int getPruneDepth(){return pruneDepth;}
+    public static int getPrunedHeight(){return index.getPrunedHeight();}
+    public static long getPrunedBytes(){return prunedBytes;}
+
+    /**
+     * Changes the kind of store the unspent outputs used to build blocks and to validate the chain are kept in, moving the existing outputs into a new store.
+     * The chain's own outputs stay in the views its snapshots share
+     * @param storeFactory Creates an empty store, such as UTXOSet::new for objects on the heap or OffHeapUTXOStore::new
+     */
+    public static void setUTXOStore(Supplier<UTXOStore> storeFactory){
+        //Copy every output the store holds, including those of processed transactions not yet on the chain, while nothing can change it
+        state.write(() -> {
+            UTXOStore replacement = storeFactory.get();
+            UTXOs.forEach(replacement::put);
+            UTXOs = replacement;
+            validator.setStoreFactory(storeFactory);
+        });
+    }
+
+    /**
+     * Sets the miner used to mine blocks as they are added to the chain
+     * @param parallelMiner The miner to use, or null to mine on the calling thread
+     */
+    public static void setMiner(ParallelMiner parallelMiner){
+        miner = parallelMiner;
     }
 }
\ No newline at end of file
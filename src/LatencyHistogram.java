@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in buckets by powers of two, which can be recorded into from many threads without locking.
+ * Percentiles are reported as the upper bound of the bucket they fall in, so they are within a factor of two.
+ */
+final class LatencyHistogram{
+    private final LongAdder[] buckets = new LongAdder[64]; //Bucket i counts values from 2^(i-1) up to 2^i - 1 nanoseconds
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    LatencyHistogram(){
+        for(int i = 0; i < buckets.length; i++){
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a single value
+     * @param nanos The latency
+     */
+    void record(long nanos){
+        record(nanos, 1);
+    }
+
+    /**
+     * Records the same value a number of times, such as the average latency of a batch
+     * @param nanos The latency
+     * @param times Number of times to record it
+     */
+    void record(long nanos, int times){
+        long value = Math.max(0, nanos);
+        buckets[64 - Long.numberOfLeadingZeros(value)].add(times);
+        count.add(times);
+        total.add(value * times);
+    }
+
+    long getCount(){return count.sum();}
+
+    double getMean(){
+        long n = count.sum();
+        return (n == 0) ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Gets an upper bound on a percentile
+     * @param fraction The percentile as a fraction, such as 0.99
+     * @return The upper bound of the bucket holding the percentile, 0 if nothing has been recorded
+     */
+    long getPercentile(double fraction){
+        long n = count.sum();
+        if(n == 0) return 0;
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for(int i = 0; i < buckets.length; i++){
+            seen += buckets[i].sum();
+            if(seen >= rank) return (i == 0) ? 0 : (i == 63) ? Long.MAX_VALUE : (1L << i) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+}
\ No newline at end of file
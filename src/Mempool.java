@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds transactions waiting to be mined.
+ * Any number of threads can submit transactions without blocking, while a single assembler drains them in batches into new blocks.
+ */
+public final class Mempool{
+    public static final int DEFAULT_MAX_TRANSACTIONS = 1000; //Default number of transactions in each block
+    public static final int DEFAULT_MAX_BYTES = 1_000_000; //Default estimated size of each block
+
+    private final int maxTransactions; //Most transactions drained into one block
+    private final int maxBytes; //Largest estimated size of the transactions drained into one block
+    private final ConcurrentLinkedDeque<Entry> pending = new ConcurrentLinkedDeque<>(); //Transactions in the order they were submitted
+    private final ConcurrentHashMap<String, Transaction> spent = new ConcurrentHashMap<>(); //Output ids spent by pending transactions, mapped to the transaction spending them
+    private final AtomicInteger size = new AtomicInteger(); //Number of pending transactions
+
+    /**
+     * Constructor for a mempool with the default block limits
+     */
+    public Mempool(){
+        this(DEFAULT_MAX_TRANSACTIONS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Constructor for a new mempool
+     * @param maxTransactions Most transactions drained into one block
+     * @param maxBytes Largest estimated size of the transactions drained into one block
+     */
+    public Mempool(int maxTransactions, int maxBytes){
+        if(maxTransactions < 1 || maxBytes < 1) throw new IllegalArgumentException("Block limits must be positive");
+        this.maxTransactions = maxTransactions;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a transaction to the pool, unless it spends an output that a pending transaction already spends
+     * @param transaction The transaction to add
+     * @return Whether the transaction was added
+     */
+    public boolean submit(Transaction transaction){
+        if(transaction == null) return false;
+
+        //Claim each output the transaction spends, backing out if another pending transaction got there first
+        List<TransactionInput> inputs = transaction.getInputs();
+        for(int i = 0; i < inputs.size(); i++){
+            Transaction existing = spent.putIfAbsent(inputs.get(i).transactionOutputId, transaction);
+            if(existing != null){
+                release(transaction, i);
+                return false;
+            }
+        }
+
+        pending.add(new Entry(transaction, transaction.estimateSize()));
+        size.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Drains a batch of pending transactions into a new block, stopping at the transaction or byte limit.
+     * Transactions that fail to process are dropped. Only one thread assembles blocks at a time, submitting threads are never held up.
+     * @param previous Hash of the block the new block follows
+     * @return The new block, which may have no transactions if none were pending or none processed
+     */
+    public synchronized Block assembleBlock(String previous){
+        Block block = new Block(previous);
+        fill(block, maxTransactions, maxBytes);
+        return block;
+    }
+
+    /**
+     * Drains pending transactions into a block until a number of them have been added or the next would go over a byte limit,
+     * so a block can be built up in several batches. Transactions that fail to process are dropped.
+     * @param block The block to add the transactions to
+     * @param transactions Most transactions to add
+     * @param bytes Largest estimated size of the transactions added
+     * @return The estimated size of the transactions added
+     */
+    synchronized int fill(Block block, int transactions, int bytes){
+        int added = 0;
+        int used = 0;
+        while(added < transactions){
+            //Leave the next transaction for the following block if it would go over the byte limit
+            Entry next = pending.peek();
+            if(next == null || (used > 0 && used + next.size > bytes)) break;
+            pending.poll();
+            size.decrementAndGet();
+
+            if(block.addTransaction(next.transaction)){
+                added++;
+                used += next.size;
+            }
+            release(next.transaction, next.transaction.getInputs().size());
+        }
+        return used;
+    }
+
+    /**
+     * Puts transactions that were taken for a block back at the front of the pool, in their original order, as the block will not be mined.
+     * They take back the outputs they spend from any pending transaction claiming the same outputs since, which will then fail to process.
+     * @param transactions The transactions, in the order they were processed
+     */
+    public void requeue(List<Transaction> transactions){
+        for(int i = transactions.size() - 1; i >= 0; i--){
+            Transaction transaction = transactions.get(i);
+            for(TransactionInput input : transaction.getInputs()){
+                spent.put(input.transactionOutputId, transaction);
+            }
+            pending.addFirst(new Entry(transaction, transaction.estimateSize()));
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Releases the outputs a transaction claimed
+     * @param transaction The transaction leaving the pool
+     * @param count Number of the transaction's inputs that were claimed
+     */
+    private void release(Transaction transaction, int count){
+        List<TransactionInput> inputs = transaction.getInputs();
+        for(int i = 0; i < count; i++){
+            spent.remove(inputs.get(i).transactionOutputId, transaction);
+        }
+    }
+
+    /**
+     * Checks whether a pending transaction already spends an output
+     * @param outputId Id of the output
+     * @return Whether the output is spent by a pending transaction
+     */
+    public boolean isSpent(String outputId){
+        return spent.containsKey(outputId);
+    }
+
+    public int size(){return size.get();}
+    public boolean isEmpty(){return size.get() == 0;}
+    public int getMaxTransactions(){return this.maxTransactions;}
+    public int getMaxBytes(){return this.maxBytes;}
+
+    /**
+     * A pending transaction with its estimated size
+     */
+    private static final class Entry{
+        private final Transaction transaction;
+        private final int size;
+
+        private Entry(Transaction transaction, int size){
+            this.transaction = transaction;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact proof that a transaction is in a block, holding the position of the leaf and one sibling hash per level
+ */
+final class MerkleProof{
+    private final int index; //Position of the leaf, whose bits give the side of each sibling
+    private final List<String> siblings; //Sibling hashes from the leaf up to just below the root
+
+    /**
+     * Constructor for a new merkle proof
+     * @param index Position of the leaf
+     * @param siblings Sibling hashes from the leaf upwards
+     */
+    MerkleProof(int index, List<String> siblings){
+        this.index = index;
+        this.siblings = Collections.unmodifiableList(siblings);
+    }
+
+    public int getIndex(){return this.index;}
+    public List<String> getSiblings(){return this.siblings;}
+}
\ No newline at end of file
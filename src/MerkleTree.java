@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A binary merkle tree over transaction ids that keeps every level, so appending a leaf only rehashes the path to the root.
+ * A level with an odd number of nodes pairs its last node with itself.
+ */
+public final class MerkleTree{
+    private final ArrayList<ArrayList<String>> levels = new ArrayList<>(); //Nodes of each level, starting with the leaves
+
+    /**
+     * Constructor for an empty tree
+     */
+    public MerkleTree(){
+        levels.add(new ArrayList<>());
+    }
+
+    /**
+     * Constructor for a tree over a list of leaves, hashing each level once
+     * @param leaves The leaves of the tree
+     */
+    public MerkleTree(List<String> leaves){
+        ArrayList<String> level = new ArrayList<>(leaves);
+        levels.add(level);
+
+        //Hash pairs of nodes into the next level until there is only the root left
+        while(level.size() > 1){
+            ArrayList<String> next = new ArrayList<>((level.size() + 1) / 2);
+            for(int i = 0; i < level.size(); i += 2){
+                next.add(hashPair(level, i));
+            }
+            levels.add(next);
+            level = next;
+        }
+    }
+
+    /**
+     * Adds a leaf to the end of the tree, rehashing only the nodes on its path to the root
+     * @param leaf The leaf to add
+     */
+    public void append(String leaf){
+        levels.get(0).add(leaf);
+
+        int index = levels.get(0).size() - 1;
+        for(int depth = 0; levels.get(depth).size() > 1; depth++){
+            int parent = index / 2;
+            String hash = hashPair(levels.get(depth), parent * 2);
+
+            //Grow the tree by a level when the old root gains a sibling
+            if(depth + 1 == levels.size()) levels.add(new ArrayList<>());
+            ArrayList<String> next = levels.get(depth + 1);
+            if(parent < next.size()) next.set(parent, hash);
+            else next.add(hash);
+
+            index = parent;
+        }
+    }
+
+    /**
+     * Hashes a node with its right hand sibling, or with itself if it has none
+     * @param level The level the nodes are on
+     * @param left Index of the left node
+     * @return The hash of the parent node
+     */
+    private static String hashPair(List<String> level, int left){
+        String node = level.get(left);
+        String sibling = (left + 1 < level.size()) ? level.get(left + 1) : node;
+        return Block.encryptSha(node + sibling);
+    }
+
+    /**
+     * Gets the root of the tree
+     * @return The root, the only leaf if there is one leaf, or an empty string if there are none
+     */
+    public String getRoot(){
+        ArrayList<String> top = levels.get(levels.size() - 1);
+        return top.isEmpty() ? "" : top.get(0);
+    }
+
+    /**
+     * Generates a proof that a leaf is in the tree, made of the sibling of each node on the leaf's path to the root
+     * @param index Position of the leaf
+     * @return The proof for the leaf
+     */
+    public MerkleProof getProof(int index){
+        if(index < 0 || index >= size()) throw new IndexOutOfBoundsException("No leaf at " + index);
+
+        List<String> siblings = new ArrayList<>(levels.size() - 1);
+        int position = index;
+        for(int depth = 0; depth < levels.size() - 1; depth++){
+            ArrayList<String> level = levels.get(depth);
+            int sibling = position ^ 1;
+            siblings.add((sibling < level.size()) ? level.get(sibling) : level.get(position));
+            position /= 2;
+        }
+        return new MerkleProof(index, siblings);
+    }
+
+    /**
+     * Checks that a proof links a leaf to a root
+     * @param leaf The leaf being proven
+     * @param proof The proof for the leaf
+     * @param root The root the leaf should be under
+     * @return Whether the proof rebuilds the root from the leaf
+     */
+    public static boolean verify(String leaf, MerkleProof proof, String root){
+        String hash = leaf;
+        int position = proof.getIndex();
+
+        //Combine with each sibling on the side given by the position's bit at that depth
+        for(String sibling : proof.getSiblings()){
+            hash = ((position & 1) == 0) ? Block.encryptSha(hash + sibling) : Block.encryptSha(sibling + hash);
+            position /= 2;
+        }
+        return hash.equals(root);
+    }
+
+    public int size(){return levels.get(0).size();}
+    public int getDepth(){return levels.size() - 1;}
+}
\ No newline at end of file
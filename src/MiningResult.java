@@ -0,0 +1,37 @@
+/**
+ * The outcome of a mining search
+ */
+final class MiningResult{
+    private final int nonce; //Count value that produced the winning hash
+    private final String hash; //Winning hash
+    private final long attempts; //Number of hashes tried across every worker
+    private final long elapsedNanos; //Time taken for the search
+
+    /**
+     * Constructor for a new mining result
+     * @param nonce Count value that produced the winning hash
+     * @param hash The winning hash
+     * @param attempts Number of hashes tried
+     * @param elapsedNanos Time taken for the search
+     */
+    MiningResult(int nonce, String hash, long attempts, long elapsedNanos){
+        this.nonce = nonce;
+        this.hash = hash;
+        this.attempts = attempts;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Calculates the hash rate of the search
+     * @return The number of hashes tried per second
+     */
+    public double getAttemptsPerSecond(){
+        if(elapsedNanos == 0) return 0;
+        return attempts * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    public int getNonce(){return this.nonce;}
+    public String getHash(){return this.hash;}
+    public long getAttempts(){return this.attempts;}
+    public long getElapsedNanos(){return this.elapsedNanos;}
+}
\ No newline at end of file
@@ -0,0 +1,226 @@
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps mining blocks from the mempool on a background thread, building the next block while the current one is searched.
+ * While the miner's workers search a block, the scheduler processes newly submitted transactions into a staged block.
+ * Once enough are staged and the block being searched has room, the search is cancelled and restarted on a block holding both,
+ * so the transactions do not wait for the block after. If the block being searched fills up, the staged block becomes the next one.
+ * When the chain moves to a new tip the search is cancelled straight away, as a block on the old tip can no longer join the chain,
+ * and the transactions of both blocks go back to the mempool to be built on the new tip.
+ */
+public final class MiningScheduler implements Closeable{
+    public static final int DEFAULT_REFRESH_THRESHOLD = 50; //Default number of staged transactions that restarts the search on a fuller block
+    private static final long POLL_MILLIS = 5; //How often new transactions are staged while a search runs
+
+    private final ParallelMiner miner; //Miner the searches run on
+    private final int refreshThreshold; //Staged transactions that restart the search on a fuller block
+    private final Thread thread; //Builds blocks and waits on the searches
+    private final ChainListener tipListener = new ChainListener(){
+        @Override
+        public void chainChanged(Block tip){
+            Search search = current;
+            if(search != null && !search.block.getPrevious().equals(tip.getHash())) search.search.cancel();
+        }
+    }; //Cancels the running search when the chain moves to a tip it does not follow
+    private volatile Search current; //The running search, null between searches
+    private volatile boolean closed;
+    private volatile Consumer<Block> blockListener = block -> {}; //Called on the scheduler's thread for each block it adds to the chain
+
+    private final AtomicLong blocksMined = new AtomicLong(); //Blocks mined and added to the chain
+    private final AtomicLong templatesRefreshed = new AtomicLong(); //Searches restarted on a block holding staged transactions
+    private final AtomicLong searchesCancelled = new AtomicLong(); //Searches abandoned because the chain moved to a new tip
+
+    /**
+     * Constructor for a scheduler restarting the search once the default number of transactions are staged
+     * @param miner Miner to run the searches on
+     */
+    public MiningScheduler(ParallelMiner miner){
+        this(miner, DEFAULT_REFRESH_THRESHOLD);
+    }
+
+    /**
+     * Constructor for a new scheduler, which does nothing until started
+     * @param miner Miner to run the searches on
+     * @param refreshThreshold Number of staged transactions that restarts the search on a block holding them
+     */
+    public MiningScheduler(ParallelMiner miner, int refreshThreshold){
+        if(refreshThreshold < 1) throw new IllegalArgumentException("The refresh threshold must be positive");
+        this.miner = miner;
+        this.refreshThreshold = refreshThreshold;
+        this.thread = new Thread(this::run, "jackchain-scheduler");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts mining blocks from the mempool onto the chain, which needs a genesis block first
+     */
+    public void start(){
+        Jackchain.addListener(tipListener);
+        thread.start();
+    }
+
+    /**
+     * Mines blocks until closed, keeping a block being searched and a staged block of the transactions that arrived since it started
+     */
+    private void run(){
+        Mempool mempool = Jackchain.getMempool();
+        int maxTransactions = mempool.getMaxTransactions();
+        int maxBytes = mempool.getMaxBytes();
+        Block block = null; //Block to search, built on the tip
+        int blockBytes = 0;
+        Block staged = null; //Transactions processed while the block is searched, to join it or follow it
+        int stagedBytes = 0;
+
+        //Return the transactions of the blocks being built even if a search fails, such as when the miner is shut down
+        try{
+            while(!closed){
+                //Start again on the tip if there is no block or the chain has moved on
+                Block tip = Jackchain.getTip();
+                if(tip == null){
+                    pause();
+                    continue;
+                }
+                if(block == null || !block.getPrevious().equals(tip.getHash())){
+                    withdraw(block, staged);
+                    block = new Block(tip.getHash());
+                    blockBytes = 0;
+                    staged = null;
+                    stagedBytes = 0;
+                }
+                int added = Jackchain.fillBlock(block, maxTransactions - block.getTransactions().size(), maxBytes - blockBytes);
+                if(added < 0){
+                    block = null;
+                    continue;
+                }
+                blockBytes += added;
+                if(block.getTransactions().isEmpty()){
+                    pause();
+                    continue;
+                }
+
+                //Search the block, staging new transactions meanwhile, until it is mined, the chain moves on, or enough are staged to refresh it
+                Search search = new Search(block, block.startMining(Jackchain.DIFF, miner));
+                current = search;
+                if(!Jackchain.getTip().getHash().equals(block.getPrevious())) search.search.cancel();
+                boolean refresh = false;
+                while(!search.search.await(POLL_MILLIS)){
+                    if(closed){
+                        search.search.cancel();
+                        continue;
+                    }
+                    int room = maxTransactions - block.getTransactions().size();
+                    int roomBytes = maxBytes - blockBytes;
+                    boolean full = room <= 0 || roomBytes <= 0;
+                    if(staged == null) staged = new Block(block.getPrevious());
+                    int stage = (full ? maxTransactions : room) - staged.getTransactions().size();
+                    if(stage > 0){
+                        int stagedAdded = Jackchain.fillBlock(staged, stage, (full ? maxBytes : roomBytes) - stagedBytes);
+                        if(stagedAdded < 0){
+                            staged = null;
+                            stagedBytes = 0;
+                            continue;
+                        }
+                        stagedBytes += stagedAdded;
+                    }
+                    if(!full && !refresh && staged.getTransactions().size() >= Math.min(refreshThreshold, room)){
+                        refresh = true;
+                        search.search.cancel();
+                    }
+                }
+                MiningResult result = search.search.join();
+                current = null;
+
+                if(result == null){
+                    if(refresh && staged != null){
+                        //Swap in a block holding the staged transactions too, the loop then searches it
+                        Block refreshed = Jackchain.combineBlocks(List.of(block, staged), block.getPrevious());
+                        if(refreshed == null) withdraw(block, staged);
+                        block = refreshed;
+                        blockBytes += stagedBytes;
+                        staged = null;
+                        stagedBytes = 0;
+                        if(refreshed != null) templatesRefreshed.incrementAndGet();
+                    } else if(!closed){
+                        searchesCancelled.incrementAndGet();
+                    }
+                    continue;
+                }
+
+                //Add the mined block, then carry the staged transactions over to a block following it
+                block.finishMining(result);
+                ChainChange change = Jackchain.addBuiltBlock(block);
+                if(change != null && change.getStatus() == ChainChange.Status.CONNECTED){
+                    blocksMined.incrementAndGet();
+                    blockListener.accept(block);
+                }
+                block = (staged == null) ? null : Jackchain.combineBlocks(List.of(staged), block.getHash());
+                blockBytes = stagedBytes;
+                staged = null;
+                stagedBytes = 0;
+            }
+        } finally{
+            withdraw(block, staged);
+        }
+    }
+
+    /**
+     * Abandons the blocks being built, returning their transactions to the mempool
+     */
+    private static void withdraw(Block block, Block staged){
+        if(block != null && staged != null) Jackchain.withdrawBlocks(List.of(block, staged));
+        else if(block != null) Jackchain.withdrawBlocks(List.of(block));
+        else if(staged != null) Jackchain.withdrawBlocks(List.of(staged));
+    }
+
+    private void pause(){
+        try{
+            Thread.sleep(POLL_MILLIS);
+        } catch(InterruptedException e){
+            closed = true;
+        }
+    }
+
+    /**
+     * Sets the callback for each block the scheduler adds to the chain
+     * @param listener Called on the scheduler's thread with each block
+     */
+    public void setBlockListener(Consumer<Block> listener){
+        this.blockListener = (listener == null) ? block -> {} : listener;
+    }
+
+    /**
+     * Stops mining, cancelling any running search and returning the transactions of the blocks being built to the mempool
+     */
+    @Override
+    public void close(){
+        closed = true;
+        Search search = current;
+        if(search != null) search.search.cancel();
+        try{
+            thread.join();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        Jackchain.removeListener(tipListener);
+    }
+
+    public long getBlocksMined(){return blocksMined.get();}
+    public long getTemplatesRefreshed(){return templatesRefreshed.get();}
+    public long getSearchesCancelled(){return searchesCancelled.get();}
+
+    /**
+     * A running search with the block it is for
+     */
+    private static final class Search{
+        private final Block block;
+        private final MiningSearch search;
+
+        private Search(Block block, MiningSearch search){
+            this.block = block;
+            this.search = search;
+        }
+    }
+}
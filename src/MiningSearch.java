@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A search started on a parallel miner, which can be waited for or cancelled from another thread
+ */
+final class MiningSearch{
+    final AtomicBoolean stopped = new AtomicBoolean(false); //Set by the winning worker or by cancelling, stopping every worker
+    final AtomicReference<MiningResult> winner = new AtomicReference<>();
+    final AtomicReference<Throwable> failure = new AtomicReference<>(); //First error thrown by a worker
+    final LongAdder attempts = new LongAdder(); //Total hashes tried across every worker
+    final CountDownLatch running; //Counts down as each worker stops
+    final List<Future<?>> workers;
+    private final long start = System.nanoTime();
+
+    MiningSearch(int threads){
+        this.running = new CountDownLatch(threads);
+        this.workers = new ArrayList<>(threads);
+    }
+
+    /**
+     * Stops the search with an error, which join throws once every worker has stopped
+     * @param error Why the search failed, only the first error is kept
+     */
+    void fail(Throwable error){
+        stopped.set(true);
+        failure.compareAndSet(null, error);
+    }
+
+    /**
+     * Stops the search at each worker's next nonce without waiting for the workers, so it can be called while holding a lock
+     */
+    public void cancel(){
+        stopped.set(true);
+    }
+
+    /**
+     * Waits for the search to stop
+     * @param millis Most milliseconds to wait
+     * @return Whether every worker has stopped
+     */
+    public boolean await(long millis){
+        try{
+            return running.await(millis, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e){
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Waits for every worker to stop
+     * @return The winning nonce and hash, or null if the search was cancelled or the whole nonce space was searched without a solution
+     */
+    public MiningResult join(){
+        try{
+            running.await();
+        } catch(InterruptedException e){
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally{
+            for(Future<?> worker : workers){
+                worker.cancel(true);
+            }
+        }
+        Throwable error = failure.get();
+        if(error != null) throw new RuntimeException(error);
+
+        MiningResult result = winner.get();
+        if(result == null) return null;
+        return new MiningResult(result.getNonce(), result.getHash(), attempts.sum(), System.nanoTime() - start);
+    }
+
+    public boolean isDone(){return running.getCount() == 0;}
+}
\ No newline at end of file
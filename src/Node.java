@@ -0,0 +1,961 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A peer to peer node that gossips transactions and mined blocks with other nodes over non blocking sockets.
+ * Transactions are announced by inventory and only sent to peers that ask for them. Blocks are pushed as compact blocks
+ * holding a short id for each transaction, so a peer rebuilds the block from transactions it already holds and only asks for the rest.
+ * Each node keeps its own chain state and pending transactions, so several nodes can run in one JVM as well as in separate ones.
+ * <p>
+ * One selector thread moves bytes and one worker thread handles every message and owns the node's state,
+ * so slow work such as checking signatures never holds up the sockets.
+ */
+public final class Node implements Closeable{
+    static final byte HELLO = 0; //Height of the sender's chain, sent on connecting
+    static final byte INV = 1; //Announces transactions or blocks by id
+    static final byte GETDATA = 2; //Asks for announced transactions or blocks in full
+    static final byte TX = 3; //A signed transaction that has not been mined
+    static final byte BLOCK = 4; //A full block
+    static final byte CMPCTBLOCK = 5; //A block header with a short id for each transaction
+    static final byte GETBLOCKTXN = 6; //Asks for the transactions of a compact block that could not be found
+    static final byte BLOCKTXN = 7; //Transactions asked for with GETBLOCKTXN
+    static final byte GETBLOCKS = 8; //Asks for the hashes of the blocks after the last of a list of block hashes the peer also has
+
+    static final byte ITEM_TX = 1; //Inventory item for a transaction, identified by its relay id
+    static final byte ITEM_BLOCK = 2; //Inventory item for a block, identified by its hash
+
+    private static final int MAX_FRAME = 32 * 1024 * 1024; //Largest message accepted from a peer
+    private static final int MAX_INV = 500; //Most items in a single inventory message
+    private static final int KNOWN_LIMIT = 10_000; //Most ids remembered as known by each peer
+    private static final int SHORT_ID_BYTES = 6; //Bytes of each short id in a compact block
+    private static final int MIN_COMPACT_ENTRY = SHORT_ID_BYTES + 2; //Fewest bytes a transaction takes in a compact block: its short id, an empty id and its output count
+
+    private final ServerSocketChannel server; //Accepts connections from peers
+    private final Selector selector; //Watches every socket
+    private final Thread selectorThread; //Moves bytes between sockets and peers
+    private final ExecutorService worker; //Handles messages, the only thread that changes the node's state
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>(); //Work that must happen on the selector thread
+    private final CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<>(); //Connected peers
+    private volatile boolean closed;
+
+    private final ChainState state = new ChainState(); //This node's chain
+    private final SignatureVerifier verifier = new SignatureVerifier(); //Remembers the signatures of relayed transactions, so blocks holding them verify quickly
+    private final ChainValidator validator = new ChainValidator(Jackchain.DIFF, verifier, UTXOSet::new); //Validates blocks before they join the chain
+    private final BlockIndex index = new BlockIndex(validator, state); //Every known block, with the branch holding the most work as the chain
+    private final LinkedHashMap<String, Transaction> pool = new LinkedHashMap<>(); //Transactions waiting to be mined, by relay id
+    private final HashMap<String, String> spent = new HashMap<>(); //Output ids spent by pooled transactions, mapped to the spender's relay id
+    private final HashMap<String, PendingBlock> pendingBlocks = new HashMap<>(); //Compact blocks waiting for missing transactions, by hash
+    private final HashMap<String, Peer> requested = new HashMap<>(); //Ids asked for and not yet received, with the peer each was asked of
+
+    private volatile Consumer<Block> blockListener = block -> {}; //Called on the worker thread for each block added to the chain
+    private volatile Consumer<Transaction> transactionListener = transaction -> {}; //Called on the worker thread for each transaction added to the pool
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong compactBlocksRebuilt = new AtomicLong(); //Compact blocks rebuilt without asking for any transaction
+    private final AtomicLong transactionsRequested = new AtomicLong(); //Transactions asked for to finish compact blocks
+
+    /**
+     * Constructor for a node listening on a port
+     * @param port Port to listen on, 0 to pick any free port
+     */
+    public Node(int port) throws IOException{
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        int bound = getPort();
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jackchain-node-worker-" + bound);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selectorThread = new Thread(this::selectLoop, "jackchain-node-" + bound);
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Connects to another node
+     * @param host Host the node is on
+     * @param port Port the node listens on
+     */
+    public void connect(String host, int port) throws IOException{
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(new InetSocketAddress(host, port));
+        onSelector(() -> {
+            try{
+                Peer peer = new Peer(channel);
+                peer.key = channel.register(selector, SelectionKey.OP_CONNECT, peer);
+            } catch(IOException e){
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Adds a transaction created on this node to the pool and announces it to every peer
+     * @param transaction A signed transaction
+     */
+    public void broadcastTransaction(Transaction transaction){
+        worker.execute(() -> acceptTransaction(transaction, null));
+    }
+
+    /**
+     * Adds a block mined on this node to the chain and sends it to every peer
+     * @param block A mined block following this node's tip
+     */
+    public void broadcastBlock(Block block){
+        worker.execute(() -> acceptBlock(block, null));
+    }
+
+    /**
+     * Sets what happens when a block from any source joins this node's chain
+     * @param listener Called on the worker thread with the block
+     */
+    public void setBlockListener(Consumer<Block> listener){
+        this.blockListener = (listener == null) ? block -> {} : listener;
+    }
+
+    /**
+     * Sets what happens when a transaction from any source joins this node's pool
+     * @param listener Called on the worker thread with the transaction
+     */
+    public void setTransactionListener(Consumer<Transaction> listener){
+        this.transactionListener = (listener == null) ? transaction -> {} : listener;
+    }
+
+    /**
+     * Gets this node's chain, which can be read from any thread
+     * @return The latest snapshot of the node's chain
+     */
+    public ChainSnapshot snapshot(){
+        return state.snapshot();
+    }
+
+    // ---------------------------------------------------------------- Handling messages, on the worker thread
+
+    /**
+     * Handles a complete message from a peer
+     * @param peer The peer that sent it
+     * @param type The message type
+     * @param payload The message body
+     */
+    private void handle(Peer peer, byte type, ByteBuffer payload){
+        switch(type){
+            case HELLO:
+                int theirHeight = payload.getInt();
+                if(theirHeight > state.snapshot().getHeight()) requestBlocks(peer);
+                break;
+            case INV:
+                handleInventory(peer, payload);
+                break;
+            case GETDATA:
+                handleGetData(peer, payload);
+                break;
+            case TX:
+                Transaction transaction = BlockCodec.readTransaction(payload);
+                requested.remove(relayId(transaction));
+                acceptTransaction(transaction, peer);
+                break;
+            case BLOCK:
+                Block block = BlockCodec.decodeBlock(payload);
+                requested.remove(block.getHash());
+                acceptBlock(block, peer);
+                break;
+            case CMPCTBLOCK:
+                handleCompactBlock(peer, payload);
+                break;
+            case GETBLOCKTXN:
+                handleGetBlockTransactions(peer, payload);
+                break;
+            case BLOCKTXN:
+                handleBlockTransactions(peer, payload);
+                break;
+            case GETBLOCKS:
+                handleGetBlocks(peer, payload);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message type " + type);
+        }
+    }
+
+    /**
+     * Asks a peer for the hashes of the blocks it has after this node's chain.
+     * The request lists the hashes of the last ten blocks and then of blocks further and further back to the genesis block,
+     * so however far back the peer's chain splits from this one it can find the split from a few dozen hashes.
+     */
+    private void requestBlocks(Peer peer){
+        List<Block> blocks = state.snapshot().getBlocks();
+        List<String> locator = new ArrayList<>();
+        int step = 1;
+        for(int height = blocks.size() - 1; height > 0; height -= step){
+            locator.add(blocks.get(height).getHash());
+            if(locator.size() >= 10) step *= 2;
+        }
+        if(!blocks.isEmpty()) locator.add(blocks.get(0).getHash());
+        sendGetBlocks(peer, locator);
+    }
+
+    private void sendGetBlocks(Peer peer, List<String> locator){
+        peer.send(GETBLOCKS, out -> {
+            out.writeInt(locator.size());
+            for(String hash : locator){
+                BlockCodec.writeHex(out, hash);
+            }
+        });
+    }
+
+    /**
+     * Asks for every announced item this node does not have
+     */
+    private void handleInventory(Peer peer, ByteBuffer payload){
+        int count = payload.getInt();
+        int blocks = 0;
+        String lastBlock = null;
+        List<String> wanted = new ArrayList<>();
+        List<Byte> types = new ArrayList<>();
+        for(int i = 0; i < count; i++){
+            byte type = payload.get();
+            String id = BlockCodec.readHex(payload);
+            if(type == ITEM_BLOCK){
+                blocks++;
+                lastBlock = id;
+            }
+            peer.remember(id);
+            boolean have = (type == ITEM_TX) ? pool.containsKey(id) : index.contains(id) || pendingBlocks.containsKey(id);
+            if(have || requested.putIfAbsent(id, peer) != null) continue;
+            wanted.add(id);
+            types.add(type);
+        }
+        if(!wanted.isEmpty()){
+            peer.send(GETDATA, out -> {
+                out.writeInt(wanted.size());
+                for(int i = 0; i < wanted.size(); i++){
+                    out.writeByte(types.get(i));
+                    BlockCodec.writeHex(out, wanted.get(i));
+                }
+            });
+        }
+
+        //A full batch of block hashes means the peer has more, so ask for the hashes after the last of them
+        if(blocks == MAX_INV) sendGetBlocks(peer, List.of(lastBlock));
+    }
+
+    /**
+     * Sends each asked for item this node has, blocks are sent in full as the peer asked for them by hash
+     */
+    private void handleGetData(Peer peer, ByteBuffer payload){
+        int count = payload.getInt();
+        for(int i = 0; i < count; i++){
+            byte type = payload.get();
+            String id = BlockCodec.readHex(payload);
+            if(type == ITEM_TX){
+                Transaction transaction = pool.get(id);
+                if(transaction != null) peer.send(TX, out -> BlockCodec.writeTransaction(out, transaction));
+            } else{
+                Block block = index.getBlock(id);
+                if(block != null) sendFullBlock(peer, block);
+            }
+        }
+    }
+
+    /**
+     * Announces the hashes of the blocks on this node's chain after the first listed hash that is also on it,
+     * or from the genesis block if none is, so a peer that is behind or on another branch can ask for them
+     */
+    private void handleGetBlocks(Peer peer, ByteBuffer payload){
+        int from = 0;
+        int count = payload.getInt();
+        for(int i = 0; i < count; i++){
+            String hash = BlockCodec.readHex(payload);
+            if(index.isOnChain(hash)){
+                from = index.getHeight(hash) + 1;
+                break;
+            }
+        }
+        List<Block> blocks = state.snapshot().getBlocks();
+        if(from >= blocks.size()) return;
+        int start = from;
+        int to = Math.min(blocks.size(), start + MAX_INV);
+        peer.send(INV, out -> {
+            out.writeInt(to - start);
+            for(int i = start; i < to; i++){
+                out.writeByte(ITEM_BLOCK);
+                BlockCodec.writeHex(out, blocks.get(i).getHash());
+            }
+        });
+    }
+
+    /**
+     * Adds a transaction to the pool if its signature verifies and it spends unspent outputs no pooled transaction already spends,
+     * then announces it to the peers that have not seen it
+     * @param transaction The transaction
+     * @param source The peer that sent it, or null if it was created on this node
+     * @return Whether the transaction was added
+     */
+    private boolean acceptTransaction(Transaction transaction, Peer source){
+        String id = relayId(transaction);
+        if(id == null || pool.containsKey(id) || transaction.getInputs().isEmpty()) return false;
+
+        //Check the inputs against this node's chain before the more expensive signature check
+        UTXOView UTXOs = state.snapshot().getUTXOs();
+        float inputsValue = 0;
+        for(TransactionInput input : transaction.getInputs()){
+            TransactionOutput output = UTXOs.get(input.transactionOutputId);
+            if(output == null || !output.isOwner(transaction.getSenderKey()) || spent.containsKey(input.transactionOutputId)) return false;
+            inputsValue += output.val;
+        }
+        if(inputsValue < Jackchain.MINIMUM_TRANSACTION || inputsValue < transaction.getValue()) return false;
+        if(!verifier.verify(transaction)) return false;
+
+        pool.put(id, transaction);
+        for(TransactionInput input : transaction.getInputs()){
+            spent.put(input.transactionOutputId, id);
+        }
+        transactionListener.accept(transaction);
+
+        for(Peer peer : peers){
+            if(peer != source && peer.remember(id)) peer.send(INV, out -> {
+                out.writeInt(1);
+                out.writeByte(ITEM_TX);
+                BlockCodec.writeHex(out, id);
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Adds a block to the index if it is valid, switching the chain to its branch once that branch has the most work,
+     * then sends it to the peers that have not seen it. Transactions of blocks that leave the chain go back to the pool.
+     * @param block The block
+     * @param source The peer that sent it, or null if it was mined on this node
+     * @return Whether the block was added
+     */
+    private boolean acceptBlock(Block block, Peer source){
+        ChainChange change = index.accept(block);
+        if(change.getStatus() == ChainChange.Status.ORPHAN){
+            //Ask for the blocks between this node's chain and the one this block is on
+            if(source != null) requestBlocks(source);
+            return false;
+        }
+        if(change.getStatus() != ChainChange.Status.CONNECTED && change.getStatus() != ChainChange.Status.STORED) return false;
+
+        for(Block connected : change.getConnected()){
+            removeMined(connected);
+            blockListener.accept(connected);
+        }
+        for(Block disconnected : change.getDisconnected()){
+            for(Transaction transaction : disconnected.getTransactions()){
+                acceptTransaction(transaction, null);
+            }
+        }
+
+        for(Peer peer : peers){
+            if(peer != source && peer.remember(block.getHash())) sendCompactBlock(peer, block);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the pooled transactions a block mined, and any that now spend an output the block spent
+     */
+    private void removeMined(Block block){
+        for(Transaction transaction : block.getTransactions()){
+            String id = relayId(transaction);
+            if(id != null) dropFromPool(id);
+            for(TransactionInput input : transaction.getInputs()){
+                String spender = spent.get(input.transactionOutputId);
+                if(spender != null) dropFromPool(spender);
+            }
+        }
+    }
+
+    private void dropFromPool(String id){
+        Transaction removed = pool.remove(id);
+        if(removed == null) return;
+        for(TransactionInput input : removed.getInputs()){
+            spent.remove(input.transactionOutputId, id);
+        }
+    }
+
+    private void sendFullBlock(Peer peer, Block block){
+        byte[] encoded = BlockCodec.encodeBlock(block);
+        peer.send(BLOCK, out -> out.write(encoded));
+    }
+
+    /**
+     * Sends a block as its header and, for each transaction, a short id the peer can find it by with the parts mining added:
+     * its id and the change returned to the sender. Blocks whose transactions are not plain payments, such as the genesis block, are sent in full.
+     */
+    private void sendCompactBlock(Peer peer, Block block){
+        for(Transaction transaction : block.getTransactions()){
+            if(!isCompactable(transaction)){
+                sendFullBlock(peer, block);
+                return;
+            }
+        }
+        peer.send(CMPCTBLOCK, out -> {
+            BlockCodec.writeHex(out, block.getHash());
+            BlockCodec.writeHex(out, block.getPrevious());
+            BlockCodec.writeHex(out, block.getMerkleRoot());
+            out.writeLong(block.getTimeStamp());
+            out.writeInt(block.getCount());
+            out.writeInt(block.getTransactions().size());
+            for(Transaction transaction : block.getTransactions()){
+                writeShortId(out, shortId(block.getHash(), relayId(transaction)));
+                BlockCodec.writeHex(out, transaction.getID());
+                List<TransactionOutput> outputs = transaction.getOutputs();
+                out.writeByte(outputs.size());
+                if(outputs.size() > 1) out.writeFloat(outputs.get(1).val);
+            }
+        });
+    }
+
+    /**
+     * Checks whether a mined transaction can be rebuilt from its unmined form, its id and its change.
+     * That holds when it pays the receiver first and returns any change to the sender.
+     */
+    private static boolean isCompactable(Transaction transaction){
+        List<TransactionOutput> outputs = transaction.getOutputs();
+        if(transaction.getSignatureHash() == null || transaction.getInputs().isEmpty() || outputs.isEmpty() || outputs.size() > 2) return false;
+        TransactionOutput payment = outputs.get(0);
+        if(!payment.receiver.equals(transaction.getReceiverKey()) || payment.val != transaction.getValue()) return false;
+        return outputs.size() == 1 || outputs.get(1).receiver.equals(transaction.getSenderKey());
+    }
+
+    /**
+     * Rebuilds a compact block from the pool, asking the peer for any transaction that is not there
+     */
+    private void handleCompactBlock(Peer peer, ByteBuffer payload){
+        PendingBlock pending = new PendingBlock();
+        pending.hash = BlockCodec.readHex(payload);
+        pending.previous = BlockCodec.readHex(payload);
+        pending.merkleRoot = BlockCodec.readHex(payload);
+        pending.timeStamp = payload.getLong();
+        pending.count = payload.getInt();
+        peer.remember(pending.hash);
+        requested.remove(pending.hash);
+        if(index.contains(pending.hash) || pendingBlocks.containsKey(pending.hash)) return;
+
+        //Check the count against the bytes sent before making room for that many transactions
+        int size = payload.getInt();
+        if(size < 0 || size > payload.remaining() / MIN_COMPACT_ENTRY) throw new IllegalArgumentException("Compact block claims " + size + " transactions");
+        pending.peer = peer;
+        pending.transactions = new Transaction[size];
+        pending.ids = new String[size];
+        pending.changes = new float[size];
+        pending.outputCounts = new int[size];
+        long[] shortIds = new long[size];
+        for(int i = 0; i < size; i++){
+            shortIds[i] = readShortId(payload);
+            pending.ids[i] = BlockCodec.readHex(payload);
+            pending.outputCounts[i] = payload.get();
+            if(pending.outputCounts[i] > 1) pending.changes[i] = payload.getFloat();
+        }
+
+        //Index the pool by this block's short ids, leaving out any short id two pooled transactions share
+        HashMap<Long, Transaction> byShortId = new HashMap<>();
+        HashMap<Long, Boolean> collisions = new HashMap<>();
+        for(Map.Entry<String, Transaction> entry : pool.entrySet()){
+            long shortId = shortId(pending.hash, entry.getKey());
+            if(byShortId.putIfAbsent(shortId, entry.getValue()) != null) collisions.put(shortId, Boolean.TRUE);
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for(int i = 0; i < size; i++){
+            Transaction found = collisions.containsKey(shortIds[i]) ? null : byShortId.get(shortIds[i]);
+            if(found == null) missing.add(i);
+            else pending.transactions[i] = found;
+        }
+
+        if(missing.isEmpty()){
+            compactBlocksRebuilt.incrementAndGet();
+            finishCompactBlock(peer, pending);
+            return;
+        }
+        transactionsRequested.addAndGet(missing.size());
+        pendingBlocks.put(pending.hash, pending);
+        peer.send(GETBLOCKTXN, out -> {
+            BlockCodec.writeHex(out, pending.hash);
+            out.writeInt(missing.size());
+            for(int index : missing){
+                out.writeInt(index);
+            }
+        });
+    }
+
+    /**
+     * Sends the asked for transactions of a block, ignoring a request for more transactions than the block holds or for one it does not hold,
+     * which includes any request for a pruned block as its copy in memory holds none
+     */
+    private void handleGetBlockTransactions(Peer peer, ByteBuffer payload){
+        String hash = BlockCodec.readHex(payload);
+        Block block = index.getBlock(hash);
+        if(block == null) return;
+        List<Transaction> transactions = block.getTransactions();
+
+        int count = payload.getInt();
+        if(count < 0 || count > transactions.size() || count > payload.remaining() / Integer.BYTES) return;
+        int[] indexes = new int[count];
+        for(int i = 0; i < count; i++){
+            indexes[i] = payload.getInt();
+            if(indexes[i] < 0 || indexes[i] >= transactions.size()) return;
+        }
+        peer.send(BLOCKTXN, out -> {
+            BlockCodec.writeHex(out, hash);
+            out.writeInt(count);
+            for(int index : indexes){
+                out.writeInt(index);
+                BlockCodec.writeTransaction(out, transactions.get(index));
+            }
+        });
+    }
+
+    /**
+     * Fills in the missing transactions of a compact block and finishes it, dropping the block if the reply claims more transactions
+     * than the block has or places one outside it
+     */
+    private void handleBlockTransactions(Peer peer, ByteBuffer payload){
+        PendingBlock pending = pendingBlocks.remove(BlockCodec.readHex(payload));
+        if(pending == null) return;
+        int count = payload.getInt();
+        if(count < 0 || count > pending.transactions.length || count > payload.remaining() / Integer.BYTES) return;
+        for(int i = 0; i < count; i++){
+            int index = payload.getInt();
+            if(index < 0 || index >= pending.transactions.length) return;
+            pending.transactions[index] = BlockCodec.readTransaction(payload);
+        }
+        finishCompactBlock(peer, pending);
+    }
+
+    /**
+     * Turns the found transactions of a compact block back into their mined form and adds the block.
+     * If the rebuilt block does not match its header, such as after a short id matched the wrong transaction, the full block is asked for.
+     */
+    private void finishCompactBlock(Peer peer, PendingBlock pending){
+        List<Transaction> transactions = new ArrayList<>(pending.transactions.length);
+        HashMap<String, TransactionOutput> created = new HashMap<>(); //Outputs created earlier in the block, which later transactions may spend
+        UTXOView UTXOs = state.snapshot().getUTXOs();
+        boolean complete = true;
+
+        for(int i = 0; i < pending.transactions.length && complete; i++){
+            Transaction found = pending.transactions[i];
+            if(found == null){
+                complete = false;
+                break;
+            }
+
+            //Attach the output each input spends, as validation checks inputs against the outputs they claim to spend
+            ArrayList<TransactionInput> inputs = new ArrayList<>(found.getInputs().size());
+            for(TransactionInput input : found.getInputs()){
+                TransactionInput copy = new TransactionInput(input.transactionOutputId);
+                copy.UTXO = created.containsKey(input.transactionOutputId) ? created.get(input.transactionOutputId) : UTXOs.get(input.transactionOutputId);
+                if(copy.UTXO == null) complete = false;
+                inputs.add(copy);
+            }
+
+            String id = pending.ids[i];
+            List<TransactionOutput> outputs = new ArrayList<>(2);
+            outputs.add(new TransactionOutput(found.getReceiverKey(), found.getValue(), id));
+            if(pending.outputCounts[i] > 1) outputs.add(new TransactionOutput(found.getSenderKey(), pending.changes[i], id));
+            for(TransactionOutput output : outputs){
+                created.put(output.id, output);
+            }
+            transactions.add(new Transaction(id, found.getSenderKey(), found.getReceiverKey(), found.getValue(), found.getSignature(), inputs, outputs));
+        }
+
+        if(complete && Block.getMerkleRoot(new ArrayList<>(transactions)).equals(pending.merkleRoot)){
+            Block block = new Block(pending.previous, pending.timeStamp, pending.merkleRoot, pending.count, pending.hash, transactions);
+            acceptBlock(block, peer);
+            return;
+        }
+
+        if(requested.putIfAbsent(pending.hash, peer) == null){
+            peer.send(GETDATA, out -> {
+                out.writeInt(1);
+                out.writeByte(ITEM_BLOCK);
+                BlockCodec.writeHex(out, pending.hash);
+            });
+        }
+    }
+
+    /**
+     * Gets the id a transaction is relayed and pooled under, a hash of its signature hash and the ids of the outputs it spends.
+     * The signature only covers the keys and the value, so equal payments between the same keys can share a signature hash but never their inputs.
+     * The transaction's own id is only given when it is mined, so it cannot be part of an id both unmined and mined copies share
+     * @param transaction The transaction
+     * @return The relay id, or null if the transaction has not been signed
+     */
+    static String relayId(Transaction transaction){
+        String signatureHash = transaction.getSignatureHash();
+        if(signatureHash == null) return null;
+        StringBuilder data = new StringBuilder(signatureHash);
+        for(TransactionInput input : transaction.getInputs()){
+            data.append(input.transactionOutputId);
+        }
+        return Block.encryptSha(data.toString());
+    }
+
+    /**
+     * Gets the short id of a transaction within a block, salted with the block's hash so ids that collide in one block are unlikely to collide in the next
+     * @param blockHash Hash of the block
+     * @param relayId Relay id of the transaction
+     * @return The first six bytes of the salted hash
+     */
+    static long shortId(String blockHash, String relayId){
+        return Long.parseLong(Block.encryptSha(blockHash + relayId).substring(0, SHORT_ID_BYTES * 2), 16);
+    }
+
+    private static void writeShortId(DataOutputStream out, long shortId) throws IOException{
+        for(int i = SHORT_ID_BYTES - 1; i >= 0; i--){
+            out.writeByte((int) (shortId >>> (i * 8)));
+        }
+    }
+
+    private static long readShortId(ByteBuffer in){
+        long shortId = 0;
+        for(int i = 0; i < SHORT_ID_BYTES; i++){
+            shortId = (shortId << 8) | (in.get() & 0xff);
+        }
+        return shortId;
+    }
+
+    // ---------------------------------------------------------------- Sockets, on the selector thread
+
+    /**
+     * Waits for sockets to be ready and moves bytes between them and their peers until the node is closed
+     */
+    private void selectLoop(){
+        try{
+            while(!closed){
+                Runnable task;
+                while((task = selectorTasks.poll()) != null){
+                    task.run();
+                }
+                for(Peer peer : peers){
+                    if(peer.key.isValid() && !peer.outbound.isEmpty()) peer.key.interestOps(peer.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()) continue;
+                    try{
+                        if(key.isAcceptable()) accept();
+                        else if(key.isConnectable()) finishConnect((Peer) key.attachment());
+                        else{
+                            if(key.isReadable()) read((Peer) key.attachment());
+                            if(key.isValid() && key.isWritable()) write((Peer) key.attachment());
+                        }
+                    } catch(IOException | RuntimeException e){
+                        if(key.attachment() instanceof Peer) disconnect((Peer) key.attachment());
+                    }
+                }
+            }
+        } catch(IOException | ClosedSelectorException e){
+            //The selector only fails once the node is closing
+        }
+    }
+
+    private void accept() throws IOException{
+        SocketChannel channel = server.accept();
+        if(channel == null) return;
+        channel.configureBlocking(false);
+        Peer peer = new Peer(channel);
+        peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+        connected(peer);
+    }
+
+    private void finishConnect(Peer peer) throws IOException{
+        peer.channel.finishConnect();
+        peer.key.interestOps(SelectionKey.OP_READ);
+        connected(peer);
+    }
+
+    /**
+     * Adds a peer once its connection is open and tells it the height of this node's chain
+     */
+    private void connected(Peer peer){
+        peers.add(peer);
+        worker.execute(() -> peer.send(HELLO, out -> out.writeInt(state.snapshot().getHeight())));
+    }
+
+    /**
+     * Reads what a peer has sent, handing each complete message to the worker
+     */
+    private void read(Peer peer) throws IOException{
+        int read = peer.channel.read(peer.inbound);
+        if(read < 0) throw new IOException("Peer closed the connection");
+        bytesReceived.addAndGet(read);
+
+        peer.inbound.flip();
+        while(peer.inbound.remaining() >= 4){
+            int length = peer.inbound.getInt(peer.inbound.position());
+            if(length < 1 || length > MAX_FRAME) throw new IOException("Bad frame length " + length);
+            if(peer.inbound.remaining() < 4 + length){
+                //Grow the buffer if the frame will not fit once the buffer is compacted
+                if(4 + length > peer.inbound.capacity()){
+                    ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(peer.inbound);
+                    peer.inbound = larger;
+                    return;
+                }
+                break;
+            }
+            peer.inbound.getInt();
+            byte type = peer.inbound.get();
+            byte[] body = new byte[length - 1];
+            peer.inbound.get(body);
+            worker.execute(() -> {
+                try{
+                    handle(peer, type, ByteBuffer.wrap(body));
+                } catch(RuntimeException e){
+                    //A malformed message ends the connection rather than the node
+                    onSelector(() -> disconnect(peer));
+                }
+            });
+        }
+        peer.inbound.compact();
+    }
+
+    /**
+     * Writes as much of a peer's queued messages as the socket accepts
+     */
+    private void write(Peer peer) throws IOException{
+        ByteBuffer next;
+        while((next = peer.outbound.peek()) != null){
+            bytesSent.addAndGet(peer.channel.write(next));
+            if(next.hasRemaining()) return;
+            peer.outbound.poll();
+        }
+        peer.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void disconnect(Peer peer){
+        peers.remove(peer);
+        peer.key.cancel();
+        closeQuietly(peer.channel);
+        try{
+            worker.execute(() -> forget(peer));
+        } catch(RejectedExecutionException e){
+            //The node is closing, so nothing is left waiting on the peer
+        }
+    }
+
+    /**
+     * Drops the requests a disconnected peer will never answer, so the items can be asked of other peers, on the worker thread
+     */
+    private void forget(Peer peer){
+        requested.values().removeIf(asked -> asked == peer);
+        pendingBlocks.values().removeIf(pending -> pending.peer == peer);
+    }
+
+    private void onSelector(Runnable task){
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private static void closeQuietly(Closeable closeable){
+        try{
+            closeable.close();
+        } catch(IOException e){
+            //Nothing more can be done with a channel that fails to close
+        }
+    }
+
+    /**
+     * Stops the node and closes every connection
+     */
+    @Override
+    public void close() throws IOException{
+        closed = true;
+        worker.shutdownNow();
+        selector.wakeup();
+        try{
+            selectorThread.join(5000);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        for(Peer peer : peers){
+            closeQuietly(peer.channel);
+        }
+        peers.clear();
+        server.close();
+        selector.close();
+    }
+
+    /**
+     * Waits until the worker has handled every message received so far
+     * @param timeout Longest time to wait in milliseconds
+     */
+    void awaitIdle(long timeout) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + timeout;
+        CountDownLatch latch = new CountDownLatch(1);
+        worker.execute(latch::countDown);
+        latch.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    public int getPort(){return server.socket().getLocalPort();}
+    public int getPeerCount(){return peers.size();}
+    public long getBytesSent(){return bytesSent.get();}
+    public long getBytesReceived(){return bytesReceived.get();}
+    public long getCompactBlocksRebuilt(){return compactBlocksRebuilt.get();}
+    public long getTransactionsRequested(){return transactionsRequested.get();}
+
+    /**
+     * Gets the number of transactions waiting to be mined
+     * @return The pool size, read on the worker thread
+     */
+    public int getPoolSize(){
+        try{
+            return worker.submit(pool::size).get();
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs a node from the command line: java Node port [host:port...] [--mine]
+     * A mining node starts a chain on the global Jackchain, keeps making payments between a few wallets and mines them into blocks.
+     * Other nodes follow the chain and print each block they receive.
+     */
+    public static void main(String[] args) throws Exception{
+        Node node = new Node(Integer.parseInt(args[0]));
+        boolean mine = false;
+        for(int i = 1; i < args.length; i++){
+            if(args[i].equals("--mine")){
+                mine = true;
+                continue;
+            }
+            String[] address = args[i].split(":");
+            node.connect(address[0], Integer.parseInt(address[1]));
+        }
+        node.setBlockListener(block -> System.out.println("Height " + node.snapshot().getHeight() + " block " + block.getHash() + " with " + block.getTransactions().size() + " transactions"));
+        System.out.println("Listening on " + node.getPort());
+        if(!mine){
+            Thread.currentThread().join();
+            return;
+        }
+
+        //Pass funds between a few wallets, relaying each payment and mining a block every few seconds
+        List<Wallet> wallets = new ArrayList<>();
+        for(int i = 0; i < 4; i++){
+            wallets.add(new Wallet());
+        }
+        node.broadcastBlock(Jackchain.createGenesis(new Wallet(), wallets.get(0).getPublicKey(), 1000f));
+        java.util.Random random = new java.util.Random();
+        while(true){
+            for(int i = 0; i < 20; i++){
+                Transaction payment = wallets.get(random.nextInt(wallets.size())).sendFunds(wallets.get(random.nextInt(wallets.size())).getPublicKey(), 1 + random.nextInt(5));
+                if(payment != null && Jackchain.getMempool().submit(payment)) node.broadcastTransaction(payment);
+            }
+            Thread.sleep(2000);
+            Block block = Jackchain.mineFromMempool();
+            if(block != null) node.broadcastBlock(block);
+        }
+    }
+
+    /**
+     * A connection to another node
+     */
+    private final class Peer{
+        private final SocketChannel channel;
+        private SelectionKey key; //Registration with the selector
+        private ByteBuffer inbound = ByteBuffer.allocate(64 * 1024); //Bytes read and not yet handled
+        private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>(); //Framed messages waiting to be written
+        private final Map<String, Boolean> known = new LinkedHashMap<>(){ //Ids the peer is known to have, oldest first
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest){
+                return size() > KNOWN_LIMIT;
+            }
+        };
+
+        private Peer(SocketChannel channel){
+            this.channel = channel;
+        }
+
+        /**
+         * Notes that the peer has an item, only used on the worker thread
+         * @param id Id of the item
+         * @return Whether the item was not already known
+         */
+        private boolean remember(String id){
+            return known.put(id, Boolean.TRUE) == null;
+        }
+
+        /**
+         * Queues a framed message for the selector thread to write
+         * @param type The message type
+         * @param body Writes the message body
+         */
+        private void send(byte type, MessageWriter body){
+            try{
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0);
+                out.writeByte(type);
+                body.write(out);
+                out.flush();
+                ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+                frame.putInt(0, frame.capacity() - 4);
+                outbound.add(frame);
+                selector.wakeup();
+            } catch(IOException e){
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the body of a message
+     */
+    private interface MessageWriter{
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A compact block waiting for transactions from the peer that sent it
+     */
+    private static final class PendingBlock{
+        private Peer peer; //Peer asked for the missing transactions
+        private String hash;
+        private String previous;
+        private String merkleRoot;
+        private long timeStamp;
+        private int count;
+        private Transaction[] transactions; //Unmined form of each transaction, null until found
+        private String[] ids; //Id mining gave each transaction
+        private int[] outputCounts; //Number of outputs of each transaction
+        private float[] changes; //Change returned to the sender of each transaction with two outputs
+    }
+}
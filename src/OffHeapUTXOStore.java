@@ -0,0 +1,363 @@
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Unspent transaction outputs held outside the Java heap in an open addressing hash table keyed by the raw 32 byte output id.
+ * Each slot holds the amount, a reference to the owner's key and the raw parent id as primitives, and links to the owner's other outputs
+ * so balances and coin gathering only visit the owner's own slots. Outputs are only turned back into objects when they are read.
+ */
+public final class OffHeapUTXOStore implements UTXOStore{
+    private static final int SLOT_SIZE = 84; //Bytes in each slot
+    private static final int STATE = 0; //Slot state: empty, used or deleted
+    private static final int PARENT_LENGTH = 1; //Number of hex characters in the parent id
+    private static final int AMOUNT = 4; //Value of the output
+    private static final int OWNER = 8; //Reference to the owner's key
+    private static final int PREVIOUS = 12; //Slot of the owner's previous output, -1 for the first
+    private static final int NEXT = 16; //Slot of the owner's next output, -1 for the last
+    private static final int KEY = 20; //Raw output id
+    private static final int PARENT = 52; //Raw parent transaction id
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private static final float LOAD_FACTOR = 0.7f; //Share of slots in use or deleted before the table is rebuilt
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_SIZE; //Most slots a single buffer can address
+
+    private ByteBuffer slots; //The hash table
+    private int capacity; //Number of slots, always a power of two
+    private int used; //Slots holding an output
+    private int deleted; //Slots whose output has been removed
+
+    private final ArrayList<PublicKey> keys = new ArrayList<>(); //Owner keys by reference
+    private final HashMap<PublicKey, Integer> references = new HashMap<>(); //Reference of each owner key
+    private int[] heads = new int[16]; //First slot of each owner's outputs, -1 if the owner has none
+    private int[] counts = new int[16]; //Number of outputs each owner has
+    private double[] balances = new double[16]; //Running balance of each owner
+
+    /**
+     * Constructor for an empty store
+     */
+    public OffHeapUTXOStore(){
+        this(1024);
+    }
+
+    /**
+     * Constructor for an empty store sized for an expected number of outputs
+     * @param expected Number of outputs the store should hold before it has to grow
+     */
+    public OffHeapUTXOStore(int expected){
+        int size = Integer.highestOneBit(Math.max(16, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+        allocate(size);
+    }
+
+    /**
+     * Replaces the table with an empty one
+     * @param size Number of slots
+     */
+    private void allocate(int size){
+        if(size > MAX_CAPACITY) throw new IllegalStateException("Off heap UTXO store cannot hold more than " + (int) (MAX_CAPACITY * LOAD_FACTOR) + " outputs");
+        slots = ByteBuffer.allocateDirect(size * SLOT_SIZE);
+        capacity = size;
+        used = 0;
+        deleted = 0;
+    }
+
+    @Override
+    public void put(TransactionOutput output){
+        byte[] key = decode(output.id);
+        if(key == null) throw new IllegalArgumentException("Output id is not a 64 character lower case hex hash: " + output.id);
+        int existing = find(key);
+        if(existing >= 0) release(existing);
+
+        if(used + deleted + 1 > capacity * LOAD_FACTOR) rebuild();
+        int slot = insertionSlot(key);
+        if(slots.get(slot * SLOT_SIZE + STATE) == DELETED) deleted--;
+        write(slot, key, output);
+        used++;
+    }
+
+    @Override
+    public TransactionOutput get(String id){
+        byte[] key = decode(id);
+        int slot = (key == null) ? -1 : find(key);
+        return (slot < 0) ? null : read(slot, id);
+    }
+
+    @Override
+    public TransactionOutput remove(String id){
+        byte[] key = decode(id);
+        int slot = (key == null) ? -1 : find(key);
+        if(slot < 0) return null;
+        TransactionOutput removed = read(slot, id);
+        release(slot);
+        return removed;
+    }
+
+    @Override
+    public boolean contains(String id){
+        byte[] key = decode(id);
+        return key != null && find(key) >= 0;
+    }
+
+    @Override
+    public float getBalance(PublicKey owner){
+        Integer reference = references.get(owner);
+        return (reference == null) ? 0 : (float) balances[reference];
+    }
+
+    @Override
+    public Collection<TransactionOutput> getOutputs(PublicKey owner){
+        Integer reference = references.get(owner);
+        if(reference == null) return new ArrayList<>();
+
+        //Follow the owner's links rather than scanning the table
+        List<TransactionOutput> outputs = new ArrayList<>(counts[reference]);
+        byte[] id = new byte[32];
+        for(int slot = heads[reference]; slot >= 0; slot = slots.getInt(slot * SLOT_SIZE + NEXT)){
+            slots.get(slot * SLOT_SIZE + KEY, id);
+            outputs.add(read(slot, Block.toHex(id)));
+        }
+        return outputs;
+    }
+
+    @Override
+    public int size(){return used;}
+
+    @Override
+    public void forEach(Consumer<TransactionOutput> action){
+        byte[] id = new byte[32];
+        for(int slot = 0; slot < capacity; slot++){
+            if(slots.get(slot * SLOT_SIZE + STATE) != USED) continue;
+            slots.get(slot * SLOT_SIZE + KEY, id);
+            action.accept(read(slot, Block.toHex(id)));
+        }
+    }
+
+    @Override
+    public void clear(){
+        allocate(capacity);
+        keys.clear();
+        references.clear();
+    }
+
+    /**
+     * Gets the number of bytes held outside the heap
+     * @return The size of the table
+     */
+    public long getOffHeapBytes(){
+        return (long) capacity * SLOT_SIZE;
+    }
+
+    /**
+     * Finds the slot holding an output id
+     * @param id The raw output id
+     * @return The slot, or -1 if the id is not in the table
+     */
+    private int find(byte[] id){
+        int mask = capacity - 1;
+        for(int slot = hash(id) & mask; ; slot = (slot + 1) & mask){
+            byte state = slots.get(slot * SLOT_SIZE + STATE);
+            if(state == EMPTY) return -1;
+            if(state == USED && matches(slot, id)) return slot;
+        }
+    }
+
+    /**
+     * Finds the first empty or deleted slot along an id's probe sequence
+     * @param id The raw output id
+     * @return The slot to insert into
+     */
+    private int insertionSlot(byte[] id){
+        int mask = capacity - 1;
+        for(int slot = hash(id) & mask; ; slot = (slot + 1) & mask){
+            if(slots.get(slot * SLOT_SIZE + STATE) != USED) return slot;
+        }
+    }
+
+    /**
+     * Writes an output into a slot and links it to the front of its owner's outputs
+     * @param slot The slot
+     * @param id The raw output id
+     * @param output The output
+     */
+    private void write(int slot, byte[] id, TransactionOutput output){
+        int base = slot * SLOT_SIZE;
+        int owner = reference(output.receiver);
+
+        slots.put(base + STATE, USED);
+        slots.putFloat(base + AMOUNT, output.val);
+        slots.putInt(base + OWNER, owner);
+        slots.put(base + KEY, id);
+
+        //Store the parent id raw, with its character count so ids shorter than a hash such as the genesis "0" read back unchanged
+        byte[] parent = new byte[32];
+        String parentId = output.parentTransactionId;
+        Block.hexToBytes(parentId, parent, 0);
+        slots.put(base + PARENT_LENGTH, (byte) ((parentId == null) ? -1 : parentId.length()));
+        slots.put(base + PARENT, parent);
+
+        link(slot, owner, output.val);
+    }
+
+    /**
+     * Adds a slot to the front of its owner's outputs
+     * @param slot The slot
+     * @param owner The owner's reference
+     * @param val Value of the output
+     */
+    private void link(int slot, int owner, float val){
+        int base = slot * SLOT_SIZE;
+        int head = heads[owner];
+        slots.putInt(base + PREVIOUS, -1);
+        slots.putInt(base + NEXT, head);
+        if(head >= 0) slots.putInt(head * SLOT_SIZE + PREVIOUS, slot);
+        heads[owner] = slot;
+        counts[owner]++;
+        balances[owner] += val;
+    }
+
+    /**
+     * Marks a slot deleted and unlinks it from its owner's outputs
+     * @param slot The slot
+     */
+    private void release(int slot){
+        int base = slot * SLOT_SIZE;
+        int owner = slots.getInt(base + OWNER);
+        int previous = slots.getInt(base + PREVIOUS);
+        int next = slots.getInt(base + NEXT);
+
+        if(previous >= 0) slots.putInt(previous * SLOT_SIZE + NEXT, next);
+        else heads[owner] = next;
+        if(next >= 0) slots.putInt(next * SLOT_SIZE + PREVIOUS, previous);
+
+        //Reset the balance when the owner has nothing left rather than keeping any rounding error
+        if(--counts[owner] == 0) balances[owner] = 0;
+        else balances[owner] -= slots.getFloat(base + AMOUNT);
+
+        slots.put(base + STATE, DELETED);
+        used--;
+        deleted++;
+    }
+
+    /**
+     * Turns a slot back into an output object
+     * @param slot The slot
+     * @param id The output id as a hex string
+     * @return The output
+     */
+    private TransactionOutput read(int slot, String id){
+        int base = slot * SLOT_SIZE;
+        String parent = null;
+        int parentLength = slots.get(base + PARENT_LENGTH);
+        if(parentLength >= 0){
+            byte[] raw = new byte[32];
+            slots.get(base + PARENT, raw);
+            parent = Block.toHex(raw).substring(64 - parentLength);
+        }
+        return new TransactionOutput(id, keys.get(slots.getInt(base + OWNER)), slots.getFloat(base + AMOUNT), parent);
+    }
+
+    /**
+     * Rebuilds the table, doubling it if it is over half full and otherwise only clearing out deleted slots
+     */
+    private void rebuild(){
+        ByteBuffer old = slots;
+        int oldCapacity = capacity;
+        allocate((used > oldCapacity * LOAD_FACTOR / 2) ? oldCapacity * 2 : oldCapacity);
+        Arrays.fill(heads, 0, keys.size(), -1);
+        Arrays.fill(counts, 0, keys.size(), 0);
+        Arrays.fill(balances, 0, keys.size(), 0);
+
+        //Copy each used slot across and relink it, as its position in the new table has changed
+        byte[] id = new byte[32];
+        for(int i = 0; i < oldCapacity; i++){
+            int from = i * SLOT_SIZE;
+            if(old.get(from + STATE) != USED) continue;
+            old.get(from + KEY, id);
+            int slot = insertionSlot(id);
+            slots.put(slot * SLOT_SIZE, old, from, SLOT_SIZE);
+            link(slot, old.getInt(from + OWNER), old.getFloat(from + AMOUNT));
+            used++;
+        }
+    }
+
+    /**
+     * Gets the reference for an owner's key, registering the key if it has not been seen before
+     * @param key The owner's key
+     * @return The reference
+     */
+    private int reference(PublicKey key){
+        Integer reference = references.get(key);
+        if(reference != null) return reference;
+
+        int next = keys.size();
+        keys.add(key);
+        references.put(key, next);
+        if(next == heads.length){
+            heads = Arrays.copyOf(heads, next * 2);
+            counts = Arrays.copyOf(counts, next * 2);
+            balances = Arrays.copyOf(balances, next * 2);
+        }
+        heads[next] = -1;
+        counts[next] = 0;
+        balances[next] = 0;
+        return next;
+    }
+
+    /**
+     * Checks whether a slot holds an output id
+     * @param slot The slot
+     * @param id The raw output id
+     * @return Whether the ids are equal
+     */
+    private boolean matches(int slot, byte[] id){
+        int base = slot * SLOT_SIZE + KEY;
+        for(int i = 0; i < 32; i++){
+            if(slots.get(base + i) != id[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes an output id, which is already a SHA-256 hash so its last four bytes are spread evenly
+     * @param id The raw output id
+     * @return The hash
+     */
+    private static int hash(byte[] id){
+        return ((id[28] & 0xff) << 24) | ((id[29] & 0xff) << 16) | ((id[30] & 0xff) << 8) | (id[31] & 0xff);
+    }
+
+    /**
+     * Decodes an output id into a new array, so lookups from different threads never share one
+     * @param id The hex output id
+     * @return The raw output id, or null if the id is not 64 lower case hex characters
+     */
+    private static byte[] decode(String id){
+        if(!isCanonical(id)) return null;
+        byte[] raw = new byte[32];
+        Block.hexToBytes(id, raw, 0);
+        return raw;
+    }
+
+    /**
+     * Checks whether an id is written the one way the store can give it back, as 64 lower case hex characters.
+     * Raw keys are padded and hex digits ignore case, so any other spelling would find the slot of a different string
+     * @param id The output id
+     * @return Whether the id can be looked up
+     */
+    private static boolean isCanonical(String id){
+        if(id == null || id.length() != 64) return false;
+        for(int i = 0; i < 64; i++){
+            char c = id.charAt(i);
+            if((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+}
\ No newline at end of file
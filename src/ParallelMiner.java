@@ -0,0 +1,111 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Mines blocks across a pool of worker threads by splitting the nonce space between them
+ */
+public final class ParallelMiner{
+    private final int threads; //Number of workers searching the nonce space
+    private final ExecutorService pool; //Pool the workers are run on
+
+    /**
+     * Constructor for a miner using one worker per available core
+     */
+    public ParallelMiner(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor for a miner with a set number of workers
+     * @param threads Number of workers to split the nonce space between
+     */
+    public ParallelMiner(int threads){
+        if(threads < 1) throw new IllegalArgumentException("A miner needs at least one worker");
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jackchain-miner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Searches for a nonce that gives the block a hash meeting the difficulty, waiting for the search to finish
+     * @param block The block to mine, which must already have its merkle root set
+     * @param diff The difficulty (number of leading zeroes) the final hash should have
+     * @return The winning nonce and hash, or null if the whole nonce space was searched without a solution
+     */
+    public MiningResult mine(Block block, int diff){
+        return start(block, diff).join();
+    }
+
+    /**
+     * Starts searching for a nonce that gives the block a hash meeting the difficulty, without waiting for the search.
+     * Worker i tries the nonces i, i + threads, i + 2 * threads... so no two workers ever try the same nonce.
+     * The first worker to find a solution stops all the others, and cancelling the search stops every worker at its next nonce.
+     * @param block The block to mine, which must already have its merkle root set
+     * @param diff The difficulty (number of leading zeroes) the final hash should have
+     * @return The running search
+     */
+    public MiningSearch start(Block block, int diff){
+        MiningSearch search = new MiningSearch(threads);
+
+        //Start a worker for each slice of the nonce space
+        for(int i = 0; i < threads; i++){
+            final int offset = i;
+            FutureTask<Void> worker = new FutureTask<>(() -> {
+                try{
+                    HeaderHasher hasher = block.newHasher(); //Each worker hashes with its own scratch space
+                    long tried = 0;
+                    for(long nonce = offset; nonce <= Integer.MAX_VALUE && !search.stopped.get() && !Thread.currentThread().isInterrupted(); nonce += threads){
+                        tried++;
+                        byte[] digest = hasher.hash((int) nonce);
+                        if(Block.meetsDifficulty(digest, diff) && search.stopped.compareAndSet(false, true)){
+                            search.winner.set(new MiningResult((int) nonce, Block.toHex(digest), 0, 0));
+                        }
+                    }
+                    search.attempts.add(tried);
+
+                    //Shutting the miner down interrupts running workers, which ends the search unless a solution was already found
+                    if(Thread.currentThread().isInterrupted() && search.winner.get() == null) search.fail(new IllegalStateException("The miner was shut down"));
+                } catch(Throwable e){
+                    search.fail(e);
+                }
+            }, null){
+                @Override
+                protected void done(){
+                    //Runs however the worker ends, including when the miner is shut down before the worker starts
+                    if(isCancelled()) search.fail(new IllegalStateException("The miner was shut down"));
+                    search.running.countDown();
+                }
+            };
+            try{
+                pool.execute(worker);
+            } catch(RejectedExecutionException e){
+                //The workers that never started will never count down, so they are counted down here
+                search.fail(new IllegalStateException("The miner was shut down", e));
+                for(int j = i; j < threads; j++){
+                    search.running.countDown();
+                }
+                break;
+            }
+            search.workers.add(worker);
+        }
+        return search;
+    }
+
+    /**
+     * Stops the worker threads, the miner cannot be used afterwards and searches started on it afterwards fail
+     */
+    public void shutdown(){
+        //Workers still queued never run, so cancelling them is what ends their searches
+        for(Runnable queued : pool.shutdownNow()){
+            if(queued instanceof Future) ((Future<?>) queued).cancel(false);
+        }
+    }
+
+    public int getThreads(){return this.threads;}
+}
\ No newline at end of file
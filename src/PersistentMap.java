@@ -0,0 +1,261 @@
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map held as a trie of 32 way nodes indexed by five bits of the key's hash at a time.
+ * Putting or removing a key copies only the nodes on the path to it and shares every other node with the map it was made from,
+ * so keeping many versions of a large map costs little more than keeping one.
+ * Keys and values must not be null.
+ */
+final class PersistentMap<K, V>{
+    private static final int BITS = 5; //Bits of the hash used at each level
+    private static final int MAX_SHIFT = 30; //Shift of the last level that still has hash bits left, below it keys with equal hashes share a collision node
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(Node.EMPTY, 0);
+
+    private final Node root; //Top node of the trie
+    private final int size; //Number of keys in the map
+
+    private PersistentMap(Node root, int size){
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Gets a map with no keys
+     * @return The empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty(){
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Gets the value of a key
+     * @param key The key
+     * @return The value, or null if the map does not hold the key
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object key){
+        int hash = hash(key);
+        Node node = root;
+        for(int shift = 0; ; shift += BITS){
+            if(node.collision){
+                for(int i = 0; i < node.slots.length; i += 2){
+                    if(node.slots[i].equals(key)) return (V) node.slots[i + 1];
+                }
+                return null;
+            }
+            int bit = bit(hash, shift);
+            if((node.bitmap & bit) == 0) return null;
+            int i = index(node.bitmap, bit);
+            Object found = node.slots[i];
+            if(found == null){
+                node = (Node) node.slots[i + 1];
+                continue;
+            }
+            return found.equals(key) ? (V) node.slots[i + 1] : null;
+        }
+    }
+
+    boolean containsKey(Object key){
+        return get(key) != null;
+    }
+
+    /**
+     * Creates a map with a key set to a value
+     * @param key The key
+     * @param value The value
+     * @return The new map, or this map if the key already has the value
+     */
+    PersistentMap<K, V> put(K key, V value){
+        boolean[] added = new boolean[1];
+        Node next = put(root, hash(key), key, value, 0, added);
+        return (next == root) ? this : new PersistentMap<>(next, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Creates a map without a key
+     * @param key The key
+     * @return The new map, or this map if it does not hold the key
+     */
+    PersistentMap<K, V> remove(Object key){
+        Node next = remove(root, hash(key), key, 0);
+        if(next == root) return this;
+        return new PersistentMap<>((next == null) ? Node.EMPTY : next, size - 1);
+    }
+
+    int size(){return this.size;}
+    boolean isEmpty(){return this.size == 0;}
+
+    /**
+     * Runs an action on every key and value, in no particular order
+     * @param action The action to run
+     */
+    void forEach(BiConsumer<? super K, ? super V> action){
+        forEach(root, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEach(Node node, BiConsumer<? super K, ? super V> action){
+        for(int i = 0; i < node.slots.length; i += 2){
+            if(node.slots[i] == null) forEach((Node) node.slots[i + 1], action);
+            else action.accept((K) node.slots[i], (V) node.slots[i + 1]);
+        }
+    }
+
+    /**
+     * Puts a key into a node, copying the node if it changes
+     * @param added Set to true if the key was not in the node before
+     * @return The changed copy, or the same node if the key already had the value
+     */
+    private static Node put(Node node, int hash, Object key, Object value, int shift, boolean[] added){
+        if(node.collision){
+            for(int i = 0; i < node.slots.length; i += 2){
+                if(node.slots[i].equals(key)) return (node.slots[i + 1] == value) ? node : node.with(i + 1, value);
+            }
+            added[0] = true;
+            return new Node(0, node.insert(node.slots.length, key, value), true);
+        }
+
+        int bit = bit(hash, shift);
+        int i = index(node.bitmap, bit);
+        if((node.bitmap & bit) == 0){
+            added[0] = true;
+            return new Node(node.bitmap | bit, node.insert(i, key, value), false);
+        }
+        Object found = node.slots[i];
+        if(found == null){
+            Node child = (Node) node.slots[i + 1];
+            Node next = put(child, hash, key, value, shift + BITS, added);
+            return (next == child) ? node : node.with(i + 1, next);
+        }
+        if(found.equals(key)) return (node.slots[i + 1] == value) ? node : node.with(i + 1, value);
+
+        //Another key has the same bits at this level, so both move down into a new node
+        added[0] = true;
+        Node child = pair(found, node.slots[i + 1], key, value, hash, shift + BITS);
+        Object[] slots = node.slots.clone();
+        slots[i] = null;
+        slots[i + 1] = child;
+        return new Node(node.bitmap, slots, false);
+    }
+
+    /**
+     * Creates a node holding two keys whose hashes matched down to the level above
+     */
+    private static Node pair(Object firstKey, Object firstValue, Object secondKey, Object secondValue, int secondHash, int shift){
+        if(shift > MAX_SHIFT) return new Node(0, new Object[]{firstKey, firstValue, secondKey, secondValue}, true);
+        int firstPosition = (hash(firstKey) >>> shift) & 31;
+        int secondPosition = (secondHash >>> shift) & 31;
+        if(firstPosition == secondPosition){
+            return new Node(1 << firstPosition, new Object[]{null, pair(firstKey, firstValue, secondKey, secondValue, secondHash, shift + BITS)}, false);
+        }
+        Object[] slots = (firstPosition < secondPosition)
+            ? new Object[]{firstKey, firstValue, secondKey, secondValue}
+            : new Object[]{secondKey, secondValue, firstKey, firstValue};
+        return new Node((1 << firstPosition) | (1 << secondPosition), slots, false);
+    }
+
+    /**
+     * Removes a key from a node, copying the node if it changes
+     * @return The changed copy, the same node if it does not hold the key, or null if the node is left empty
+     */
+    private static Node remove(Node node, int hash, Object key, int shift){
+        if(node.collision){
+            for(int i = 0; i < node.slots.length; i += 2){
+                if(node.slots[i].equals(key)) return (node.slots.length == 2) ? null : new Node(0, node.without(i), true);
+            }
+            return node;
+        }
+
+        int bit = bit(hash, shift);
+        if((node.bitmap & bit) == 0) return node;
+        int i = index(node.bitmap, bit);
+        Object found = node.slots[i];
+        if(found == null){
+            Node child = (Node) node.slots[i + 1];
+            Node next = remove(child, hash, key, shift + BITS);
+            if(next == child) return node;
+            if(next == null) return (node.bitmap == bit) ? null : new Node(node.bitmap & ~bit, node.without(i), false);
+
+            //A child left holding a single key is folded back into this node
+            if(next.slots.length == 2 && next.slots[0] != null){
+                Object[] slots = node.slots.clone();
+                slots[i] = next.slots[0];
+                slots[i + 1] = next.slots[1];
+                return new Node(node.bitmap, slots, false);
+            }
+            return node.with(i + 1, next);
+        }
+        if(!found.equals(key)) return node;
+        return (node.bitmap == bit) ? null : new Node(node.bitmap & ~bit, node.without(i), false);
+    }
+
+    /**
+     * Spreads the key's hash so keys whose hashes only differ in their high bits do not all share the first levels
+     */
+    private static int hash(Object key){
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bit(int hash, int shift){
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    /**
+     * Gets where a bit's key and value are in a node's slots, after those of every lower bit that is set
+     */
+    private static int index(int bitmap, int bit){
+        return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     * A node of the trie. Each set bit of the bitmap has two slots, a key and its value, or null and a child node for keys sharing those bits.
+     * A collision node instead holds keys and values in pairs for keys whose hashes are equal
+     */
+    private static final class Node{
+        private static final Node EMPTY = new Node(0, new Object[0], false);
+
+        private final int bitmap; //Which of the 32 positions hold a key or child, unused by a collision node
+        private final Object[] slots; //Key and value, or null and child, of each set position in order
+        private final boolean collision; //Whether this is a collision node
+
+        private Node(int bitmap, Object[] slots, boolean collision){
+            this.bitmap = bitmap;
+            this.slots = slots;
+            this.collision = collision;
+        }
+
+        /**
+         * Copies the node's slots with one slot changed
+         */
+        private Node with(int slot, Object value){
+            Object[] next = slots.clone();
+            next[slot] = value;
+            return new Node(bitmap, next, collision);
+        }
+
+        /**
+         * Copies the node's slots with a key and value inserted
+         */
+        private Object[] insert(int slot, Object key, Object value){
+            Object[] next = new Object[slots.length + 2];
+            System.arraycopy(slots, 0, next, 0, slot);
+            next[slot] = key;
+            next[slot + 1] = value;
+            System.arraycopy(slots, slot, next, slot + 2, slots.length - slot);
+            return next;
+        }
+
+        /**
+         * Copies the node's slots without a key and value
+         */
+        private Object[] without(int slot){
+            Object[] next = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, next, 0, slot);
+            System.arraycopy(slots, slot + 2, next, slot, slots.length - slot - 2);
+            return next;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * A read only HTTP service answering queries about the chain as JSON, on the JDK's built in server.
+ * Every request reads a single snapshot of the chain, so it never takes a lock or waits for a block to be added.
+ * The index is brought up to date by the chain's listener rather than by requests, through chainChanged.
+ * Responses about blocks and transactions buried under enough later blocks are kept in a bounded cache so repeated queries skip encoding altogether,
+ * and the cache is emptied whenever the chain switches branches, as even a buried block can then leave the chain.
+ * <p>
+ * Endpoints: /tip, /block/height/{height}, /block/hash/{hash}, /tx/{id}, /balance/{key} and /history/{key}/{page}, where the key is the
+ * Base64 encoding of the public key with / and + written as _ and -.
+ */
+public final class QueryService implements Closeable{
+    public static final int CONFIRMATIONS = 6; //Blocks that must follow a block before responses about it are cached
+    public static final int DEFAULT_CACHE_SIZE = 10_000; //Default number of cached responses
+    public static final int HISTORY_PAGE = 50; //Transactions in each page of a key's history
+
+    private final HttpServer server;
+    private final ExecutorService executor; //Runs each request, on its own virtual thread where the JDK has them
+    private final Supplier<ChainSnapshot> chain; //Gets the latest snapshot of the chain being served
+    private final TransactionIndex index; //Finds blocks by hash and transactions by id without scanning the chain
+    private final IntFunction<Block> reader; //Reads a pruned block back whole by height, null if pruned blocks cannot be read back
+    private final Map<String, byte[]> cache; //Encoded responses that can no longer change, by path, least recently used first
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final ChainListener listener; //Brings the index up to date as Jackchain's chain changes, null when serving another chain
+    private String syncedHash; //Hash of the tip when the index was last brought up to date, null before the first block, guarded by the cache
+    private int syncedHeight = -1; //Height of that tip, guarded by the cache
+    private long generation; //Times the cache has been emptied, so a response built from a branch that has since left the chain is not cached, guarded by the cache
+
+    /**
+     * Constructor for a service over Jackchain's chain, listening on the loopback address
+     * @param port The port to listen on, or 0 for any free port
+     */
+    public QueryService(int port) throws IOException{
+        this(port, Jackchain::snapshot, Jackchain.getTransactionIndex(), DEFAULT_CACHE_SIZE, Jackchain::getBlock, true);
+    }
+
+    /**
+     * Constructor for a service over any chain, such as a node's, listening on the loopback address.
+     * The chain's listener must call chainChanged whenever the chain changes, such as a node's block listener
+     * @param port The port to listen on, or 0 for any free port
+     * @param chain Gets the latest snapshot of the chain
+     * @param cacheSize Most responses kept in the cache
+     */
+    public QueryService(int port, Supplier<ChainSnapshot> chain, int cacheSize) throws IOException{
+        this(port, chain, new TransactionIndex(), cacheSize);
+    }
+
+    /**
+     * Constructor for a service over any chain, sharing an index of it.
+     * The chain's listener must call chainChanged whenever the chain changes, such as a node's block listener
+     * @param port The port to listen on, or 0 for any free port
+     * @param chain Gets the latest snapshot of the chain
+     * @param index Index of the chain, brought up to date by chainChanged
+     * @param cacheSize Most responses kept in the cache
+     */
+    public QueryService(int port, Supplier<ChainSnapshot> chain, TransactionIndex index, int cacheSize) throws IOException{
+        this(port, chain, index, cacheSize, null, false);
+    }
+
+    /**
+     * Constructor for a service over any chain, sharing an index of it and reading pruned blocks back whole
+     * @param port The port to listen on, or 0 for any free port
+     * @param chain Gets the latest snapshot of the chain
+     * @param index Index of the chain, brought up to date by chainChanged
+     * @param cacheSize Most responses kept in the cache
+     * @param reader Reads a pruned block back whole by height, or null to answer that pruned blocks are not available
+     * @param listen Whether to listen to Jackchain's chain rather than wait for chainChanged to be called
+     */
+    QueryService(int port, Supplier<ChainSnapshot> chain, TransactionIndex index, int cacheSize, IntFunction<Block> reader, boolean listen) throws IOException{
+        this.chain = chain;
+        this.index = index;
+        this.reader = reader;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest){
+                return size() > cacheSize;
+            }
+        };
+        chainChanged();
+        this.listener = listen ? new ChainListener(){
+            @Override
+            public void chainChanged(Block tip){
+                QueryService.this.chainChanged();
+            }
+        } : null;
+        if(listener != null) Jackchain.addListener(listener);
+        this.executor = newExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread for each request if the JDK supports them, or uses a pool of threads if not
+     * @return The executor
+     */
+    private static ExecutorService newExecutor(){
+        try{
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch(ReflectiveOperationException e){
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "jackchain-query");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Brings the index up to the latest snapshot and empties the cache if the chain has switched branches since the last call.
+     * Call it from the chain's listener whenever the chain changes
+     */
+    public void chainChanged(){
+        //Take the snapshot under the index's lock, so the index only ever moves forward to newer snapshots
+        synchronized(index){
+            ChainSnapshot snapshot = chain.get();
+            List<Block> blocks = snapshot.getBlocks();
+            index.sync(blocks);
+            synchronized(cache){
+                if(syncedHash != null && (syncedHeight >= blocks.size() || !blocks.get(syncedHeight).getHash().equals(syncedHash))){
+                    cache.clear();
+                    generation++;
+                }
+                syncedHeight = blocks.size() - 1;
+                syncedHash = blocks.isEmpty() ? null : snapshot.getTip().getHash();
+            }
+        }
+    }
+
+    /**
+     * Answers a request from the cache or by encoding a response from the latest snapshot
+     */
+    private void handle(HttpExchange exchange) throws IOException{
+        try{
+            if(!exchange.getRequestMethod().equals("GET")){
+                send(exchange, 405, error("Only GET is supported"));
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            byte[] cached;
+            long cachedGeneration;
+            synchronized(cache){
+                cached = cache.get(path);
+                cachedGeneration = generation;
+            }
+            if(cached != null){
+                cacheHits.incrementAndGet();
+                send(exchange, 200, cached);
+                return;
+            }
+            cacheMisses.incrementAndGet();
+
+            ChainSnapshot snapshot = chain.get();
+            Response response = route(path.split("/"), snapshot);
+            if(response.cacheable){
+                synchronized(cache){
+                    if(generation == cachedGeneration) cache.put(path, response.body);
+                }
+            }
+            send(exchange, response.status, response.body);
+        } catch(RuntimeException e){
+            send(exchange, 400, error("Bad request"));
+        } finally{
+            exchange.close();
+        }
+    }
+
+    /**
+     * Builds the response to a path from a snapshot of the chain
+     * @param parts The path split at each /, starting with an empty part
+     * @param snapshot The chain to answer from
+     * @return The response
+     */
+    private Response route(String[] parts, ChainSnapshot snapshot){
+        String endpoint = (parts.length > 1) ? parts[1] : "";
+        int height = snapshot.getHeight();
+        switch(endpoint){
+            case "tip":
+                if(parts.length != 2) break;
+                if(height == 0) return Response.notFound("The chain is empty");
+                StringBuilder tip = new StringBuilder();
+                tip.append("{\"height\":").append(height - 1).append(",\"hash\":\"").append(snapshot.getTip().getHash()).append("\"}");
+                return new Response(200, tip.toString(), false);
+            case "block":
+                if(parts.length != 4) break;
+                if(parts[2].equals("height")){
+                    int at = Integer.parseInt(parts[3]);
+                    if(at < 0 || at >= height) return Response.notFound("No block at height " + at);
+                    Block block = read(snapshot, at);
+                    if(block == null) return Response.notFound("Block " + at + " has been pruned");
+                    return new Response(200, blockJson(block, at), at + CONFIRMATIONS < height);
+                }
+                if(parts[2].equals("hash")){
+                    //The index may have moved on to a newer snapshot, so check the block is in this one
+                    int at = index.getBlockHeight(parts[3]);
+                    if(at < 0 || at >= height || !snapshot.getBlocks().get(at).getHash().equals(parts[3])) return Response.notFound("No block with hash " + parts[3]);
+                    Block block = read(snapshot, at);
+                    if(block == null) return Response.notFound("Block " + at + " has been pruned");
+                    return new Response(200, blockJson(block, at), at + CONFIRMATIONS < height);
+                }
+                break;
+            case "tx":
+                if(parts.length != 3) break;
+                long location = index.getLocation(parts[2]);
+                int at = TransactionIndex.height(location);
+                if(location >= 0 && at < height){
+                    List<Transaction> transactions = snapshot.getBlocks().get(at).getTransactions();
+                    int position = TransactionIndex.position(location);
+                    if(position < transactions.size() && parts[2].equals(transactions.get(position).getID())){
+                        return new Response(200, transactionJson(new StringBuilder(), transactions.get(position), at, position).toString(), at + CONFIRMATIONS < height);
+                    }
+                }
+                return Response.notFound("No transaction with id " + parts[2]);
+            case "balance":
+                if(parts.length != 3) break;
+                PublicKey key = decodeKey(parts[2]);
+                if(key == null) return new Response(400, error("Not a public key"), false);
+                StringBuilder balance = new StringBuilder();
+                balance.append("{\"height\":").append(height - 1).append(",\"balance\":").append(snapshot.getUTXOs().getBalance(key))
+                    .append(",\"outputs\":").append(snapshot.getUTXOs().getOutputs(key).size()).append('}');
+                return new Response(200, balance.toString(), false);
+            case "history":
+                if(parts.length != 4) break;
+                PublicKey owner = decodeKey(parts[2]);
+                if(owner == null) return new Response(400, error("Not a public key"), false);
+                int page = Integer.parseInt(parts[3]);
+                if(page < 0) return Response.notFound("No page " + page);
+                StringBuilder history = new StringBuilder();
+                history.append("{\"height\":").append(height - 1).append(",\"total\":").append(index.getHistorySize(owner)).append(",\"transactions\":[");
+                boolean first = true;
+                for(long place : index.getHistoryLocations(owner, page * HISTORY_PAGE, HISTORY_PAGE)){
+                    //Skip anything the index holds from a newer snapshot, or from a block that has since been pruned
+                    int blockHeight = TransactionIndex.height(place);
+                    if(blockHeight >= height) continue;
+                    List<Transaction> transactions = snapshot.getBlocks().get(blockHeight).getTransactions();
+                    if(TransactionIndex.position(place) >= transactions.size()) continue;
+                    if(!first) history.append(',');
+                    first = false;
+                    transactionJson(history, transactions.get(TransactionIndex.position(place)), blockHeight, TransactionIndex.position(place));
+                }
+                return new Response(200, history.append("]}").toString(), false);
+            default:
+                break;
+        }
+        return Response.notFound("Unknown endpoint");
+    }
+
+    /**
+     * Gets a block of a snapshot with its transactions, reading it back whole if it has been pruned
+     * @param snapshot The chain
+     * @param height Height of the block
+     * @return The whole block, or null if it has been pruned and cannot be read back
+     */
+    private Block read(ChainSnapshot snapshot, int height){
+        Block block = snapshot.getBlocks().get(height);
+        if(!block.isPruned()) return block;
+        Block whole = (reader == null) ? null : reader.apply(height);
+        return (whole != null && whole.getHash().equals(block.getHash())) ? whole : null;
+    }
+
+    /**
+     * Encodes a block and its transactions as JSON
+     */
+    private static String blockJson(Block block, int height){
+        StringBuilder json = new StringBuilder(256 + block.getTransactions().size() * 512);
+        json.append("{\"height\":").append(height)
+            .append(",\"hash\":\"").append(block.getHash())
+            .append("\",\"previous\":\"").append(block.getPrevious())
+            .append("\",\"merkleRoot\":\"").append(block.getMerkleRoot())
+            .append("\",\"timeStamp\":").append(block.getTimeStamp())
+            .append(",\"nonce\":").append(block.getCount())
+            .append(",\"pruned\":").append(block.isPruned())
+            .append(",\"transactionCount\":").append(block.getTransactionCount())
+            .append(",\"transactions\":[");
+        List<Transaction> transactions = block.getTransactions();
+        for(int i = 0; i < transactions.size(); i++){
+            if(i > 0) json.append(',');
+            transactionJson(json, transactions.get(i), height, i);
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Encodes a transaction with where it is on the chain as JSON
+     */
+    private static StringBuilder transactionJson(StringBuilder json, Transaction transaction, int height, int position){
+        json.append("{\"id\":\"").append(transaction.getID())
+            .append("\",\"height\":").append(height)
+            .append(",\"position\":").append(position)
+            .append(",\"sender\":\"").append(Transaction.getStringFromKey(transaction.getSenderKey()))
+            .append("\",\"receiver\":\"").append(Transaction.getStringFromKey(transaction.getReceiverKey()))
+            .append("\",\"value\":").append(transaction.getValue())
+            .append(",\"inputs\":[");
+        List<TransactionInput> inputs = transaction.getInputs();
+        for(int i = 0; i < inputs.size(); i++){
+            if(i > 0) json.append(',');
+            json.append('"').append(inputs.get(i).transactionOutputId).append('"');
+        }
+        json.append("],\"outputs\":[");
+        List<TransactionOutput> outputs = transaction.getOutputs();
+        for(int i = 0; i < outputs.size(); i++){
+            TransactionOutput output = outputs.get(i);
+            if(i > 0) json.append(',');
+            json.append("{\"id\":\"").append(output.id)
+                .append("\",\"receiver\":\"").append(Transaction.getStringFromKey(output.receiver))
+                .append("\",\"value\":").append(output.val).append('}');
+        }
+        return json.append("]}");
+    }
+
+    /**
+     * Reads a public key from the URL safe Base64 encoding of its X.509 form, trying each signature scheme's key algorithm
+     * @param encoded The encoded key
+     * @return The key, or null if no scheme can read it
+     */
+    static PublicKey decodeKey(String encoded){
+        byte[] bytes;
+        try{
+            bytes = Base64.getUrlDecoder().decode(encoded);
+        } catch(IllegalArgumentException e){
+            return null;
+        }
+        for(SignatureScheme scheme : SignatureScheme.values()){
+            try{
+                return KeyFactory.getInstance(scheme.getKeyAlgorithm()).generatePublic(new X509EncodedKeySpec(bytes));
+            } catch(Exception e){
+                //Not a key of this scheme, try the next
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encodes a public key the way the balance endpoint reads it
+     * @param key The key
+     * @return The URL safe Base64 encoding of the key
+     */
+    public static String encodeKey(PublicKey key){
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getEncoded());
+    }
+
+    private static String error(String message){
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    /**
+     * Writes a string as a JSON string, escaping quotes, backslashes and control characters so text taken from the path cannot break out of it
+     * @param text The text
+     * @return The quoted text
+     */
+    static String quote(String text){
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c == '"' || c == '\\') json.append('\\').append(c);
+            else if(c < 0x20) json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            else json.append(c);
+        }
+        return json.append('"').toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException{
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException{
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try(OutputStream out = exchange.getResponseBody()){
+            out.write(body);
+        }
+    }
+
+    public int getPort(){return server.getAddress().getPort();}
+    public long getCacheHits(){return cacheHits.get();}
+    public long getCacheMisses(){return cacheMisses.get();}
+
+    /**
+     * Stops accepting requests and stops the request threads
+     */
+    @Override
+    public void close(){
+        if(listener != null) Jackchain.removeListener(listener);
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * An encoded response and whether it can be cached
+     */
+    private static final class Response{
+        private final int status;
+        private final byte[] body;
+        private final boolean cacheable; //Whether the response can never change, so can be served from the cache
+
+        private Response(int status, String body, boolean cacheable){
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+            this.cacheable = cacheable && status == 200;
+        }
+
+        private static Response notFound(String message){
+            return new Response(404, error(message), false);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * A minimal SHA-256 implementation that exposes the compression function, so the hash state after
+ * the unchanging part of a block header (the midstate) can be kept and reused for every mining attempt
+ */
+final class Sha256{
+    //Round constants
+    private static final int[] K = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+        0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+        0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+        0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+        0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+        0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    //Initial hash state
+    private static final int[] IV = {
+        0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    static final int BLOCK_SIZE = 64; //Number of bytes consumed by each compression
+
+    private Sha256(){}
+
+    /**
+     * Gets the state a hash starts from before any input is compressed
+     * @return A new copy of the initial state
+     */
+    static int[] initialState(){
+        return IV.clone();
+    }
+
+    /**
+     * Compresses one 64 byte chunk of input into the hash state
+     * @param state The eight word hash state, updated in place
+     * @param chunk The input bytes
+     * @param off Offset of the chunk in the input
+     * @param w Scratch space for the 64 word message schedule
+     */
+    static void compress(int[] state, byte[] chunk, int off, int[] w){
+        //Expand the chunk into the message schedule
+        for(int i = 0; i < 16; i++){
+            int p = off + i * 4;
+            w[i] = (chunk[p] << 24) | ((chunk[p + 1] & 0xff) << 16) | ((chunk[p + 2] & 0xff) << 8) | (chunk[p + 3] & 0xff);
+        }
+        for(int i = 16; i < 64; i++){
+            int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = state[0], b = state[1], c = state[2], d = state[3];
+        int e = state[4], f = state[5], g = state[6], h = state[7];
+
+        //Run the 64 rounds
+        for(int i = 0; i < 64; i++){
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = h + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        state[0] += a; state[1] += b; state[2] += c; state[3] += d;
+        state[4] += e; state[5] += f; state[6] += g; state[7] += h;
+    }
+
+    /**
+     * Writes the hash state out as the 32 byte digest
+     * @param state The eight word hash state
+     * @param out The array to write the digest to
+     */
+    static void writeDigest(int[] state, byte[] out){
+        for(int i = 0; i < 8; i++){
+            out[i * 4] = (byte) (state[i] >>> 24);
+            out[i * 4 + 1] = (byte) (state[i] >>> 16);
+            out[i * 4 + 2] = (byte) (state[i] >>> 8);
+            out[i * 4 + 3] = (byte) state[i];
+        }
+    }
+
+    /**
+     * Counts the number of zero bits at the start of a digest
+     * @param digest The digest to check
+     * @return The number of leading zero bits
+     */
+    static int leadingZeroBits(byte[] digest){
+        int bits = 0;
+        for(byte b : digest){
+            if(b != 0) return bits + Integer.numberOfLeadingZeros(b & 0xff) - 24;
+            bits += 8;
+        }
+        return bits;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,69 @@
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A store over a chain of views, each change making a new view that shares everything else with the one before,
+ * so the store can be changed in place while every view it has handed out stays as it was.
+ * The chain's outputs are kept in one of these and its current view is published with each snapshot, so the chain and every snapshot share one copy of the outputs
+ */
+final class SharedUTXOStore implements UTXOStore{
+    private UTXOView view = UTXOView.empty(); //Current outputs
+
+    @Override
+    public void put(TransactionOutput output){
+        view = view.put(output);
+    }
+
+    @Override
+    public TransactionOutput get(String id){
+        return view.get(id);
+    }
+
+    @Override
+    public TransactionOutput remove(String id){
+        TransactionOutput removed = view.get(id);
+        view = view.remove(id);
+        return removed;
+    }
+
+    @Override
+    public float getBalance(PublicKey owner){
+        return view.getBalance(owner);
+    }
+
+    @Override
+    public Collection<TransactionOutput> getOutputs(PublicKey owner){
+        return view.getOutputs(owner);
+    }
+
+    @Override
+    public boolean contains(String id){return view.contains(id);}
+
+    @Override
+    public int size(){return view.size();}
+
+    @Override
+    public void forEach(Consumer<TransactionOutput> action){
+        view.forEach(action);
+    }
+
+    /**
+     * Gets the current outputs, which stay as they are however the store changes afterwards
+     * @return The current view
+     */
+    UTXOView view(){return this.view;}
+
+    /**
+     * Replaces every output with those of a view
+     * @param view The outputs to hold
+     */
+    void set(UTXOView view){
+        this.view = view;
+    }
+
+    @Override
+    public void clear(){
+        view = UTXOView.empty();
+    }
+}
\ No newline at end of file
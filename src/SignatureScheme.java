@@ -0,0 +1,164 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.ECGenParameterSpec;
+import java.util.List;
+
+/**
+ * The signature algorithms wallets can sign transactions with.
+ * DSA is kept so existing keys and signatures still verify. Ed25519 and ECDSA over P-256 have far smaller keys, which shrinks every stored transaction,
+ * but which scheme signs and verifies fastest depends on the JDK's implementation, so compare them with the signing benchmarks before switching.
+ * Each scheme keeps one signature engine per thread, as creating an engine costs more than resetting one.
+ */
+public enum SignatureScheme{
+    DSA("DSA", "DSA"){
+        @Override
+        KeyPairGenerator newGenerator() throws GeneralSecurityException{
+            KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+            gen.initialize(1024, SecureRandom.getInstance("SHA1PRNG"));
+            return gen;
+        }
+    },
+    ED25519("EdDSA", "Ed25519"){
+        @Override
+        KeyPairGenerator newGenerator() throws GeneralSecurityException{
+            return KeyPairGenerator.getInstance("Ed25519");
+        }
+    },
+    ECDSA_P256("EC", "SHA256withECDSA"){
+        @Override
+        KeyPairGenerator newGenerator() throws GeneralSecurityException{
+            KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+            gen.initialize(new ECGenParameterSpec("secp256r1"));
+            return gen;
+        }
+    };
+
+    public static final SignatureScheme DEFAULT = DSA; //Scheme used by wallets created without choosing one
+
+    private final String keyAlgorithm; //Algorithm name the scheme's keys report
+    private final String signatureAlgorithm; //Algorithm name of the signature engine
+    private final ThreadLocal<Signature> engine; //Signature engine for each thread
+
+    SignatureScheme(String keyAlgorithm, String signatureAlgorithm){
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.engine = ThreadLocal.withInitial(() -> {
+            try{
+                return Signature.getInstance(signatureAlgorithm);
+            } catch(GeneralSecurityException e){
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Creates a key pair generator for the scheme
+     * @return The initialised generator
+     */
+    abstract KeyPairGenerator newGenerator() throws GeneralSecurityException;
+
+    /**
+     * Generates a new key pair for the scheme
+     * @return The key pair
+     */
+    public KeyPair generateKeyPair(){
+        try{
+            return newGenerator().generateKeyPair();
+        } catch(GeneralSecurityException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Signs some data
+     * @param privateKey The private key of the person signing
+     * @param data The data to sign
+     * @return The signature
+     */
+    public byte[] sign(PrivateKey privateKey, String data){
+        try{
+            Signature signature = engine.get();
+            signature.initSign(privateKey);
+            signature.update(data.getBytes(StandardCharsets.UTF_8));
+            return signature.sign();
+        } catch(InvalidKeyException | SignatureException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Verifies that a signature is correct
+     * @param publicKey The public key of the signer
+     * @param data The data that should have been signed
+     * @param signature The signature to check
+     * @return Whether the signature is correct, false if it is malformed
+     */
+    public boolean verify(PublicKey publicKey, String data, byte[] signature){
+        return verify(engine.get(), publicKey, data, signature);
+    }
+
+    /**
+     * Verifies a signature with a given engine
+     */
+    private static boolean verify(Signature engine, PublicKey publicKey, String data, byte[] signature){
+        try{
+            engine.initVerify(publicKey);
+            engine.update(data.getBytes(StandardCharsets.UTF_8));
+            return engine.verify(signature);
+        } catch(SignatureException e){
+            //A signature that cannot be parsed is simply invalid
+            return false;
+        } catch(InvalidKeyException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Verifies the signatures of a batch of transactions on the calling thread, fetching each scheme's engine once for the whole batch
+     * rather than once per signature. Transactions may use different schemes.
+     * @param transactions The transactions to check
+     * @param from Position of the first transaction to check
+     * @param to Position after the last transaction to check
+     * @return Position of the first transaction with an invalid signature, or -1 if every signature is valid
+     */
+    public static int verifyBatch(List<Transaction> transactions, int from, int to){
+        Signature[] engines = new Signature[values().length]; //Engine of each scheme seen so far in the batch
+        for(int i = from; i < to; i++){
+            Transaction transaction = transactions.get(i);
+            if(transaction.getSignature() == null) return i;
+
+            SignatureScheme scheme = forKey(transaction.getSenderKey());
+            Signature engine = engines[scheme.ordinal()];
+            if(engine == null) engine = engines[scheme.ordinal()] = scheme.engine.get();
+            if(!verify(engine, transaction.getSenderKey(), transaction.getSignedData(), transaction.getSignature())) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the scheme a key belongs to
+     * @param key A public or private key
+     * @return The key's scheme
+     */
+    public static SignatureScheme forKey(Key key){
+        String algorithm = key.getAlgorithm();
+        for(SignatureScheme scheme : values()){
+            if(scheme.keyAlgorithm.equals(algorithm)) return scheme;
+        }
+        //Keys made by asking for Ed25519 directly may report that name rather than EdDSA
+        if(algorithm.equals("Ed25519")) return ED25519;
+        throw new IllegalArgumentException("No signature scheme for " + algorithm + " keys");
+    }
+
+    public String getSignatureAlgorithm(){return this.signatureAlgorithm;}
+    public String getKeyAlgorithm(){return this.keyAlgorithm;}
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies transaction signatures, checking the transactions of a block in parallel and remembering which signatures have already verified
+ */
+public final class SignatureVerifier{
+    public static final int DEFAULT_CACHE_SIZE = 100_000; //Default number of verified signatures remembered
+
+    private final ForkJoinPool pool; //Pool the signatures of a block are verified on
+    private final int cacheSize; //Most verified signatures remembered
+    private final Map<String, Boolean> verified; //Hashes of signatures that have verified, least recently used first
+    private final LongAdder hits = new LongAdder(); //Verifications skipped as the signature was cached
+    private final LongAdder misses = new LongAdder(); //Verifications that had to check the signature
+
+    /**
+     * Constructor for a verifier using every core and the default cache size
+     */
+    public SignatureVerifier(){
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor for a new verifier
+     * @param threads Number of threads to verify a block's signatures on
+     * @param cacheSize Most verified signatures to remember, 0 to remember none
+     */
+    public SignatureVerifier(int threads, int cacheSize){
+        if(cacheSize < 0) throw new IllegalArgumentException("Cache size cannot be negative");
+        this.pool = new ForkJoinPool(threads);
+        this.cacheSize = cacheSize;
+        this.verified = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest){
+                return size() > SignatureVerifier.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Checks a transaction's signature, skipping the check if the same signature over the same data has already verified
+     * @param transaction The transaction to check
+     * @return Whether the signature is valid
+     */
+    public boolean verify(Transaction transaction){
+        String key = transaction.getSignatureHash();
+        if(key == null) return false;
+
+        if(cacheSize > 0){
+            synchronized(verified){
+                if(verified.get(key) != null){
+                    hits.increment();
+                    return true;
+                }
+            }
+        }
+
+        //Only valid signatures are remembered, so a bad signature is checked every time
+        misses.increment();
+        long start = ChainEvents.isEnabled() ? System.nanoTime() : 0;
+        boolean valid = transaction.verifySignature();
+        if(ChainEvents.isEnabled()) ChainEvents.signaturesVerified(1, System.nanoTime() - start);
+        if(valid && cacheSize > 0){
+            synchronized(verified){
+                verified.put(key, Boolean.TRUE);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Checks the signatures of a list of transactions such as a block, skipping those already cached
+     * and splitting the rest into one batch per thread, each verified with a single signature engine per scheme
+     * @param transactions The transactions to check
+     * @return Position of the first transaction with an invalid signature, or -1 if every signature is valid
+     */
+    public int verifyAll(List<Transaction> transactions){
+        return verifyAll(transactions, true);
+    }
+
+    /**
+     * Checks the signatures of a list of transactions, skipping those already cached
+     * @param transactions The transactions to check
+     * @param parallel Whether to split the unchecked transactions across the pool, or check them all on the calling thread
+     *                 as validation does when it is already checking many blocks at once
+     * @return Position of the first transaction with an invalid signature, or -1 if every signature is valid
+     */
+    int verifyAll(List<Transaction> transactions, boolean parallel){
+        if(transactions.size() < 2){
+            return (transactions.isEmpty() || verify(transactions.get(0))) ? -1 : 0;
+        }
+
+        //Gather the transactions whose signatures have not already verified
+        List<Transaction> unchecked = new ArrayList<>(transactions.size());
+        int[] positions = new int[transactions.size()]; //Position of each unchecked transaction in the full list
+        for(int i = 0; i < transactions.size(); i++){
+            Transaction transaction = transactions.get(i);
+            if(isCached(transaction)){
+                hits.increment();
+                continue;
+            }
+            positions[unchecked.size()] = i;
+            unchecked.add(transaction);
+        }
+        if(unchecked.isEmpty()) return -1;
+        misses.add(unchecked.size());
+        long start = ChainEvents.isEnabled() ? System.nanoTime() : 0;
+
+        int batches = parallel ? Math.min(pool.getParallelism(), unchecked.size()) : 1;
+        int invalid;
+        if(batches == 1){
+            invalid = SignatureScheme.verifyBatch(unchecked, 0, unchecked.size());
+        } else{
+            try{
+                //Batches are contiguous, so the lowest failure across them is the first invalid transaction
+                invalid = pool.submit(() -> IntStream.range(0, batches)
+                    .parallel()
+                    .map(b -> SignatureScheme.verifyBatch(unchecked, b * unchecked.size() / batches, (b + 1) * unchecked.size() / batches))
+                    .filter(i -> i >= 0)
+                    .min()
+                    .orElse(-1)).get();
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch(ExecutionException e){
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        if(invalid >= 0) return positions[invalid];
+
+        //Batches stop at their first invalid signature, so latency is only reported once every signature has been checked
+        if(ChainEvents.isEnabled()) ChainEvents.signaturesVerified(unchecked.size(), System.nanoTime() - start);
+
+        //Only remember the signatures once the whole list has verified
+        if(cacheSize > 0){
+            synchronized(verified){
+                for(Transaction transaction : unchecked){
+                    verified.put(transaction.getSignatureHash(), Boolean.TRUE);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether a transaction's signature has already verified
+     * @param transaction The transaction
+     * @return Whether the signature is cached
+     */
+    private boolean isCached(Transaction transaction){
+        if(cacheSize == 0) return false;
+        String key = transaction.getSignatureHash();
+        if(key == null) return false;
+        synchronized(verified){
+            return verified.get(key) != null;
+        }
+    }
+
+    /**
+     * Forgets every verified signature
+     */
+    public void clearCache(){
+        synchronized(verified){
+            verified.clear();
+        }
+    }
+
+    /**
+     * Gets the number of signatures currently remembered
+     * @return The number of cached signatures
+     */
+    public int getCachedCount(){
+        synchronized(verified){
+            return verified.size();
+        }
+    }
+
+    public long getHits(){return hits.sum();}
+    public long getMisses(){return misses.sum();}
+    public int getCacheSize(){return this.cacheSize;}
+    public int getThreads(){return pool.getParallelism();}
+}
\ No newline at end of file
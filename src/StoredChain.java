@@ -0,0 +1,35 @@
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The blocks of a snapshot with each pruned block read back whole from the block store as it is used,
+ * so checks that need every transaction still work on a pruned chain without holding the whole chain in memory
+ */
+final class StoredChain extends AbstractList<Block> implements RandomAccess{
+    private final List<Block> blocks; //The snapshot's blocks, some of them header only copies
+    private final BlockStore store; //Store the pruned blocks are read from, null if there is none
+
+    StoredChain(List<Block> blocks, BlockStore store){
+        this.blocks = blocks;
+        this.store = store;
+    }
+
+    @Override
+    public Block get(int index){
+        Block block = blocks.get(index);
+        if(!block.isPruned()) return block;
+        if(store == null) throw new IllegalStateException("Block " + index + " has been pruned and there is no store to read it from");
+        try{
+            Block whole = store.read(index);
+            if(!whole.getHash().equals(block.getHash())) throw new IllegalStateException("The store holds a different block at height " + index);
+            return whole;
+        } catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int size(){return blocks.size();}
+}
\ No newline at end of file
@@ -1,6 +1,8 @@
 import java.security.*;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a single transaction between two agents
@@ -12,11 +14,14 @@ public class Transaction{
     private final PublicKey receiverKey; //Public key of the receiver wallet
     private final float val; //Value transferred in the transaction
     private byte[] signature; //Signature generated from the sender's public key to verify the transaction 
+    private String signedData; //The keys and value covered by the signature, built once as the fields it uses never change
+    private String signatureHash; //Hash of the signed data and signature, identifying this signature in the verified signature cache
     
     private ArrayList<TransactionInput> inputs = new ArrayList<>(); //Input funds to the transaction 
     private final ArrayList<TransactionOutput> outputs = new ArrayList<>(); //Output funds from the transaction 
 
-    private static int sequence = 0; //Number of transactions executed
+    private static final AtomicLong sequence = new AtomicLong(); //Number of transaction ids made, part of each id so equal payments get different ids
+    private static final long EPOCH = new SecureRandom().nextLong(); //Random for each run, part of each id so payments made after a restart never reuse the ids of earlier runs
 
     /**
      * Constructor for a new transaction 
@@ -32,13 +37,29 @@ public class Transaction{
         this.inputs = inputs;
     } 
 
+    /**
+     * Constructor for a transaction that has already been processed, used when reading transactions back from storage or from other nodes
+     * @param id Transaction id
+     * @param senderKey Public key of the sender
+     * @param receiverKey Public key of the receiver
+     * @param val Value transferred in the transaction
+     * @param signature Signature over the transaction
+     * @param inputs Input funds to the transaction, with the outputs they spent attached
+     * @param outputs Output funds from the transaction
+     */
+    Transaction(String id, PublicKey senderKey, PublicKey receiverKey, float val, byte[] signature, ArrayList<TransactionInput> inputs, List<TransactionOutput> outputs){
+        this(senderKey, receiverKey, val, inputs);
+        this.id = id;
+        this.signature = signature;
+        this.outputs.addAll(outputs);
+    }
+
     /**
      * Hashes the information of the transaction to generate an id
      * @return The hashed string
      */
     private String calculateHash(){
-        sequence++;
-        return Block.encryptSha(getStringFromKey(senderKey) + getStringFromKey(receiverKey) + Float.toString(val) + sequence);
+        return Block.encryptSha(getStringFromKey(senderKey) + getStringFromKey(receiverKey) + Float.toString(val) + EPOCH + ":" + sequence.incrementAndGet());
     }
 
     /**
@@ -51,12 +72,12 @@ public class Transaction{
     }
 
     /**
-     * Uses the sender's private key to sign the transaction 
+     * Uses the sender's private key to sign the transaction with the key's signature scheme
      * @param privateKey Private key of the sender
      */
     public void generateSignature(PrivateKey privateKey){
-        String data = getStringFromKey(senderKey) + getStringFromKey(receiverKey) + Float.toString(val);
-        this.signature = DSASigUtils.applyDSASig(privateKey, data);
+        this.signature = SignatureScheme.forKey(privateKey).sign(privateKey, getSignedData());
+        this.signatureHash = null;
     }
 
     /**
@@ -64,8 +85,35 @@ public class Transaction{
      * @return Whether the signature on the transaction is valid
      */
     public boolean verifySignature(){
-        String data = getStringFromKey(senderKey) + getStringFromKey(receiverKey) + Float.toString(val);
-        return DSASigUtils.verifyDSASig(senderKey, data, signature);
+        if(signature == null) return false;
+        return SignatureScheme.forKey(senderKey).verify(senderKey, getSignedData(), signature);
+    }
+
+    /**
+     * Gets the string of transaction information covered by the signature
+     * @return The sender key, receiver key and value joined together
+     */
+    String getSignedData(){
+        String data = signedData;
+        if(data == null){
+            data = getStringFromKey(senderKey) + getStringFromKey(receiverKey) + Float.toString(val);
+            signedData = data;
+        }
+        return data;
+    }
+
+    /**
+     * Gets a hash of the signed data and the signature, which changes if either does so can stand in for the pair when caching verification results
+     * @return The hash as a hex string, or null if the transaction has not been signed
+     */
+    public String getSignatureHash(){
+        if(signature == null) return null;
+        String hash = signatureHash;
+        if(hash == null){
+            hash = Block.encryptSha(getSignedData() + Base64.getEncoder().encodeToString(signature));
+            signatureHash = hash;
+        }
+        return hash;
     }
 
     /**
@@ -73,34 +121,59 @@ public class Transaction{
      * @return Whether the transaction is able to be correctly processed
      */
     public boolean processTransaction(){
-        //Return false if the signature is invalid
-        if(!verifySignature()){
-            System.out.println("Invalid Signature");
+        //Return false if the signature is invalid, skipping the check if this signature has already been verified
+        if(!Jackchain.getSignatureVerifier().verify(this)){
+            if(ChainEvents.isEnabled()) ChainEvents.transactionRejected(this, "Invalid Signature");
             return false;
         }
 
-        //Get unspent transaction output for each input from the central repository on the chain
-        for(TransactionInput input : inputs){
-            input.UTXO = Jackchain.UTXOs.get(input.transactionOutputId);
+        //Get unspent transaction output for each input from the central repository on the chain,
+        //only attaching them once all are found so a rejected transaction that is already on the chain keeps its inputs
+        TransactionOutput[] spent = new TransactionOutput[inputs.size()];
+        for(int i = 0; i < spent.length; i++){
+            spent[i] = Jackchain.UTXOs.get(inputs.get(i).transactionOutputId);
+
+            //Return false if the input has already been spent, as this would be a double spend
+            if(spent[i] == null){
+                if(ChainEvents.isEnabled()) ChainEvents.transactionRejected(this, "Transaction input " + inputs.get(i).transactionOutputId + " is already spent");
+                return false;
+            }
+
+            //Return false if the output belongs to someone other than the sender, the same rule blocks are checked against
+            if(!spent[i].isOwner(senderKey)){
+                if(ChainEvents.isEnabled()) ChainEvents.transactionRejected(this, "Transaction input " + inputs.get(i).transactionOutputId + " is not owned by the sender");
+                return false;
+            }
+        }
+        for(int i = 0; i < spent.length; i++){
+            inputs.get(i).UTXO = spent[i];
         }
 
         float inputsValue = getInputsValue(); //Calculate the total value of the inputs
 
         //Return false if the transaction is less than the required minimum
         if(inputsValue < Jackchain.MINIMUM_TRANSACTION){
-            System.out.println("Transaction inputs too small. Currently " + inputsValue + ". Needs to be at least " + Jackchain.MINIMUM_TRANSACTION);
+            if(ChainEvents.isEnabled()) ChainEvents.transactionRejected(this, "Transaction inputs too small. Currently " + inputsValue + ". Needs to be at least " + Jackchain.MINIMUM_TRANSACTION);
             return false;
         }
 
-        this.id = calculateHash(); //Generate the id of the transaction
+        //Generate the id of the transaction and its outputs for the receiver and any change for the sender.
+        //A transaction processed again after returning to the mempool keeps them, so transactions spending its outputs stay valid
+        if(outputs.isEmpty()){
+            if(id == null) this.id = calculateHash();
+            outputs.add(new TransactionOutput(this.receiverKey, val, id));
+            if(inputsValue != val) outputs.add(new TransactionOutput(this.senderKey, inputsValue - val, id));
+        }
 
-        //Generate the outputs of the transaction for the sender and receiver 
-        outputs.add(new TransactionOutput(this.receiverKey, val, id));
-        outputs.add(new TransactionOutput(this.senderKey, inputsValue - val, id));
+        //Return false if paying itself leaves change equal to the payment, as both outputs would share an id and one would be lost
+        if(outputs.size() > 1 && outputs.get(0).id.equals(outputs.get(1).id)){
+            if(ChainEvents.isEnabled()) ChainEvents.transactionRejected(this, "Payment and change outputs share an id");
+            return false;
+        }
 
         //Add the outputs to the unspent transaction outputs on the chain
         for(TransactionOutput output : outputs){
-            Jackchain.UTXOs.put(output.id, output);
+            Jackchain.UTXOs.put(output);
         }
 
         //Iterate over the inputs and remove any UTXOs from the centralised chain
@@ -112,6 +185,49 @@ public class Transaction{
         return true;
     }
 
+    /**
+     * Turns the transaction into the genesis transaction, giving it the id "0" and a single output to the receiver without spending any inputs
+     */
+    void makeGenesis(){
+        this.id = "0";
+        outputs.add(new TransactionOutput(this.receiverKey, val, id));
+    }
+
+    /**
+     * Estimates the size of the transaction as it would be sent between nodes, used to fill blocks up to a byte limit
+     * @return The estimated number of bytes
+     */
+    public int estimateSize(){
+        int size = senderKey.getEncoded().length + receiverKey.getEncoded().length + Float.BYTES;
+        if(signature != null) size += signature.length;
+        size += inputs.size() * 32; //Each input refers to a 32 byte output id
+        return size;
+    }
+
+    /**
+     * Estimates the heap memory held by the transaction and the parts of it nothing else refers to: its id, signature, cached signed data,
+     * and its inputs with the outputs they spent. Keys are left out as wallets share them, and so are the transaction's own outputs,
+     * as unspent ones stay in the unspent outputs and spent ones are counted with the input spending them
+     * @return The estimated number of bytes
+     */
+    long estimateMemory(){
+        long bytes = 48 + 2 * 40 + 4L * (inputs.size() + outputs.size()); //The transaction and its two lists
+        bytes += stringMemory(id) + stringMemory(signedData) + stringMemory(signatureHash);
+        if(signature != null) bytes += 16 + signature.length;
+        for(TransactionInput input : inputs){
+            bytes += 24 + stringMemory(input.transactionOutputId);
+            if(input.UTXO != null) bytes += 32 + stringMemory(input.UTXO.id);
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap memory of a string of single byte characters
+     */
+    private static long stringMemory(String value){
+        return (value == null) ? 0 : 40 + ((value.length() + 7) & ~7);
+    }
+
     /**
      * Iterates over the inputs and calculates the total value inputted to the transaction
      * @return The total value of the inputs
@@ -139,61 +255,16 @@ public class Transaction{
     }
 
     ArrayList<TransactionInput> getInputs(){return this.inputs;}
+    byte[] getSignature(){return this.signature;}
+    public PublicKey getSenderKey(){return this.senderKey;}
+    public float getValue(){return this.val;}
     ArrayList<TransactionOutput> getOutputs(){return this.outputs;}
     public String getID(){return this.id;}
     public PublicKey getReceiverKey(){return this.receiverKey;}
 }
 
 /**
- * Represents an input into a transaction
- */
-class TransactionInput{
-    protected String transactionOutputId; //Id of the linked utput
-    protected TransactionOutput UTXO; //Unspent transaction output generated
-
-    /**
-     * Constructor for a new transaction input 
-     * @param transactionOutputId Linked transaction output id
-     */
-    public TransactionInput(String transactionOutputId){
-        this.transactionOutputId = transactionOutputId;
-    }
-}
-
-/**
- * Represents an output from a transaction 
- */
-class TransactionOutput{
-    protected String id; //Id of the output
-    protected PublicKey receiver; //Public key of the sender
-    protected float val; //Value left in the output
-    protected String parentTransactionId; //Id of the transaction
-
-    /**
-     * Constructor for a new transaction output
-     * @param receiver Public key of the receiver
-     * @param val Value of the transaction
-     * @param parentTransactionId Id of the parent transaction
-     */
-    public TransactionOutput(PublicKey receiver, float val, String parentTransactionId){
-        this.receiver = receiver;
-        this.val = val;
-        this.parentTransactionId = parentTransactionId;
-        this.id = Block.encryptSha(Transaction.getStringFromKey(receiver) + Float.toString(val) + parentTransactionId);
-    }
-
-    /**
-     * Checks whether a person is the receiver of a transaction
-     * @param key Public key to check
-     * @return Whether the key given is the same as the receiver of the transaction
-     */
-    public boolean isOwner(PublicKey key){
-        return key == receiver;
-    }
-}
-
-/**
- * A class of utility function for using DSA signatures
+ * A class of utility function for using DSA signatures, kept for existing callers and delegating to the DSA signature scheme
  */
 class DSASigUtils{
     /**
@@ -203,19 +274,7 @@ class DSASigUtils{
      * @return The generated signature
      */
     public static byte[] applyDSASig(PrivateKey privateKey, String input){
-        Signature dsa;
-        byte[] output = new byte[0];
-        try{
-            dsa = Signature.getInstance("DSA");
-            dsa.initSign(privateKey);
-            byte[] strByte = input.getBytes();
-            dsa.update(strByte);
-            byte[] realSig = dsa.sign();
-            output = realSig;
-        } catch(InvalidKeyException | NoSuchAlgorithmException | SignatureException e){
-            throw new RuntimeException(e);
-        }
-        return output;
+        return SignatureScheme.DSA.sign(privateKey, input);
     }
 
     /**
@@ -226,13 +285,6 @@ class DSASigUtils{
      * @return Whether the signature is correct
      */
     public static boolean verifyDSASig(PublicKey publicKey, String data, byte[] signature){
-        try{
-            Signature dsaVerify = Signature.getInstance("DSA");
-            dsaVerify.initVerify(publicKey);
-            dsaVerify.update(data.getBytes());
-            return dsaVerify.verify(signature);
-        } catch(InvalidKeyException | NoSuchAlgorithmException | SignatureException e){
-            throw new RuntimeException(e);
-        }
+        return SignatureScheme.DSA.verify(publicKey, data, signature);
     }
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Indexes of the chain's blocks by hash, transactions by id and each key's transactions, so explorer style lookups
+ * do not scan the chain. Each transaction's place is packed into a long holding its block's height and its position in the block.
+ * The indexes follow a chain incrementally: each sync only indexes the blocks added since the last one,
+ * and if the chain has switched branches it first drops the blocks back to where the branches split.
+ */
+public final class TransactionIndex{
+    private List<Block> chain = new ArrayList<>(); //The chain as of the last sync
+    private final List<String> hashes = new ArrayList<>(); //Hash of each indexed block by height
+    private final HashMap<String, Integer> heights = new HashMap<>(); //Height of each indexed block by hash
+    private final HashMap<String, Long> locations = new HashMap<>(); //Packed place of each indexed transaction by id
+    private final HashMap<PublicKey, History> histories = new HashMap<>(); //Places of the transactions sent or received by each key, in chain order
+
+    /**
+     * Brings the indexes in line with a chain, indexing only the blocks that changed since the last sync
+     * @param blocks The chain
+     */
+    public synchronized void sync(List<Block> blocks){
+        //Find the first indexed block the chain no longer holds
+        int keep = Math.min(hashes.size(), blocks.size());
+        while(keep > 0 && !blocks.get(keep - 1).getHash().equals(hashes.get(keep - 1))){
+            keep--;
+        }
+        truncate(keep);
+
+        for(int height = hashes.size(); height < blocks.size(); height++){
+            Block block = blocks.get(height);
+            hashes.add(block.getHash());
+            heights.put(block.getHash(), height);
+            List<Transaction> transactions = block.getTransactions();
+            for(int position = 0; position < transactions.size(); position++){
+                Transaction transaction = transactions.get(position);
+                long location = pack(height, position);
+                if(transaction.getID() != null) locations.put(transaction.getID(), location);
+                history(transaction.getSenderKey()).add(location);
+                if(!transaction.getReceiverKey().equals(transaction.getSenderKey())) history(transaction.getReceiverKey()).add(location);
+            }
+        }
+        chain = blocks;
+    }
+
+    /**
+     * Drops every indexed block from a height onwards
+     * @param height Number of blocks to keep
+     */
+    private void truncate(int height){
+        for(int i = hashes.size() - 1; i >= height; i--){
+            heights.remove(hashes.remove(i));
+            for(Transaction transaction : chain.get(i).getTransactions()){
+                if(transaction.getID() != null) locations.remove(transaction.getID());
+                truncateHistory(transaction.getSenderKey(), i);
+                truncateHistory(transaction.getReceiverKey(), i);
+            }
+        }
+    }
+
+    /**
+     * Forgets the transactions of blocks that have been pruned, so the index only holds those still on the chain in memory.
+     * The blocks stay indexed by hash
+     * @param blocks The pruned blocks with their transactions, in chain order
+     * @param from Height of the first block
+     */
+    public synchronized void prune(List<Block> blocks, int from){
+        HashSet<PublicKey> owners = new HashSet<>();
+        for(Block block : blocks){
+            for(Transaction transaction : block.getTransactions()){
+                if(transaction.getID() != null) locations.remove(transaction.getID());
+                owners.add(transaction.getSenderKey());
+                owners.add(transaction.getReceiverKey());
+            }
+        }
+        long end = pack(from + blocks.size(), 0);
+        for(PublicKey owner : owners){
+            History history = histories.get(owner);
+            if(history == null) continue;
+            history.drop(end);
+            if(history.size == 0) histories.remove(owner);
+        }
+    }
+
+    private void truncateHistory(PublicKey owner, int height){
+        History history = histories.get(owner);
+        if(history == null) return;
+        history.truncate(pack(height, 0));
+        if(history.size == 0) histories.remove(owner);
+    }
+
+    private History history(PublicKey owner){
+        return histories.computeIfAbsent(owner, key -> new History());
+    }
+
+    /**
+     * Gets an indexed transaction
+     * @param id Id of the transaction
+     * @return The transaction, or null if it is not on the indexed chain or its block has been pruned
+     */
+    public synchronized Transaction getTransaction(String id){
+        Long location = locations.get(id);
+        return (location == null) ? null : resolve(location);
+    }
+
+    /**
+     * Gets the packed place of a transaction, read with height and position
+     * @param id Id of the transaction
+     * @return The packed place, or -1 if the transaction is not on the indexed chain
+     */
+    synchronized long getLocation(String id){
+        return locations.getOrDefault(id, -1L);
+    }
+
+    /**
+     * Gets the height of the block holding a transaction
+     * @param id Id of the transaction
+     * @return The height, or -1 if the transaction is not on the indexed chain
+     */
+    public synchronized int getTransactionHeight(String id){
+        Long location = locations.get(id);
+        return (location == null) ? -1 : height(location);
+    }
+
+    /**
+     * Gets the position of a transaction in its block
+     * @param id Id of the transaction
+     * @return The position, or -1 if the transaction is not on the indexed chain
+     */
+    public synchronized int getTransactionPosition(String id){
+        Long location = locations.get(id);
+        return (location == null) ? -1 : position(location);
+    }
+
+    /**
+     * Gets the height of an indexed block
+     * @param hash Hash of the block
+     * @return The height, or -1 if the block is not on the indexed chain
+     */
+    public synchronized int getBlockHeight(String hash){
+        return heights.getOrDefault(hash, -1);
+    }
+
+    /**
+     * Gets a page of the transactions a key sent or received, oldest first
+     * @param owner The key
+     * @param offset Number of the key's transactions to skip
+     * @param limit Most transactions to return
+     * @return The transactions, empty if there are none past the offset
+     */
+    public synchronized List<Transaction> getHistory(PublicKey owner, int offset, int limit){
+        History history = histories.get(owner);
+        if(history == null || offset >= history.size || limit <= 0) return new ArrayList<>();
+        int end = (int) Math.min(history.size, (long) offset + limit);
+        List<Transaction> page = new ArrayList<>(end - offset);
+        for(int i = Math.max(0, offset); i < end; i++){
+            Transaction transaction = resolve(history.locations[i]);
+            if(transaction != null) page.add(transaction);
+        }
+        return page;
+    }
+
+    /**
+     * Gets the packed places of a page of the transactions a key sent or received, oldest first
+     * @param owner The key
+     * @param offset Number of the key's transactions to skip
+     * @param limit Most places to return
+     * @return The packed places
+     */
+    synchronized long[] getHistoryLocations(PublicKey owner, int offset, int limit){
+        History history = histories.get(owner);
+        if(history == null || offset >= history.size || limit <= 0) return new long[0];
+        return Arrays.copyOfRange(history.locations, Math.max(0, offset), (int) Math.min(history.size, (long) offset + limit));
+    }
+
+    /**
+     * Gets the transactions a key sent or received in blocks from a height onwards, oldest first
+     * @param owner The key
+     * @param fromHeight Height of the first block to include
+     * @param limit Most transactions to return
+     * @return The transactions
+     */
+    public synchronized List<Transaction> getHistoryFrom(PublicKey owner, int fromHeight, int limit){
+        History history = histories.get(owner);
+        if(history == null) return new ArrayList<>();
+        return getHistory(owner, history.indexOf(pack(Math.max(0, fromHeight), 0)), limit);
+    }
+
+    /**
+     * Gets the number of transactions a key sent or received
+     * @param owner The key
+     * @return The length of the key's history
+     */
+    public synchronized int getHistorySize(PublicKey owner){
+        History history = histories.get(owner);
+        return (history == null) ? 0 : history.size;
+    }
+
+    public synchronized int getHeight(){return hashes.size();}
+    public synchronized int size(){return locations.size();}
+
+    private Transaction resolve(long location){
+        List<Transaction> transactions = chain.get(height(location)).getTransactions();
+        return (position(location) < transactions.size()) ? transactions.get(position(location)) : null;
+    }
+
+    static long pack(int height, int position){
+        return ((long) height << 32) | (position & 0xffffffffL);
+    }
+
+    static int height(long location){return (int) (location >>> 32);}
+    static int position(long location){return (int) location;}
+
+    /**
+     * The packed places of one key's transactions in ascending order, which is the order they are indexed in
+     */
+    private static final class History{
+        private long[] locations = new long[4];
+        private int size;
+
+        private void add(long location){
+            if(size == locations.length) locations = Arrays.copyOf(locations, size * 2);
+            locations[size++] = location;
+        }
+
+        /**
+         * Finds the first place at or after a packed place
+         * @param location The packed place
+         * @return Its index, or the size if every place is before it
+         */
+        private int indexOf(long location){
+            int index = Arrays.binarySearch(locations, 0, size, location);
+            if(index < 0) return -index - 1;
+            while(index > 0 && locations[index - 1] == location) index--;
+            return index;
+        }
+
+        /**
+         * Drops every place before a packed place
+         * @param location The packed place
+         */
+        private void drop(long location){
+            int count = indexOf(location);
+            System.arraycopy(locations, count, locations, 0, size - count);
+            size -= count;
+            if(locations.length > 4 && size < locations.length / 4) locations = Arrays.copyOf(locations, Math.max(4, size * 2));
+        }
+
+        /**
+         * Drops every place at or after a packed place
+         * @param location The packed place
+         */
+        private void truncate(long location){
+            size = indexOf(location);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Represents an input into a transaction
+ */
+class TransactionInput{
+    protected String transactionOutputId; //Id of the linked utput
+    protected TransactionOutput UTXO; //Unspent transaction output generated
+
+    /**
+     * Constructor for a new transaction input 
+     * @param transactionOutputId Linked transaction output id
+     */
+    public TransactionInput(String transactionOutputId){
+        this.transactionOutputId = transactionOutputId;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,47 @@
+import java.security.PublicKey;
+
+/**
+ * Represents an output from a transaction 
+ */
+class TransactionOutput{
+    protected String id; //Id of the output
+    protected PublicKey receiver; //Public key of the sender
+    protected float val; //Value left in the output
+    protected String parentTransactionId; //Id of the transaction
+
+    /**
+     * Constructor for a new transaction output
+     * @param receiver Public key of the receiver
+     * @param val Value of the transaction
+     * @param parentTransactionId Id of the parent transaction
+     */
+    public TransactionOutput(PublicKey receiver, float val, String parentTransactionId){
+        this.receiver = receiver;
+        this.val = val;
+        this.parentTransactionId = parentTransactionId;
+        this.id = Block.encryptSha(Transaction.getStringFromKey(receiver) + Float.toString(val) + parentTransactionId);
+    }
+
+    /**
+     * Constructor for an output whose id is already known, used when reading outputs back from storage or from other nodes
+     * @param id Id of the output
+     * @param receiver Public key of the receiver
+     * @param val Value of the transaction
+     * @param parentTransactionId Id of the parent transaction
+     */
+    TransactionOutput(String id, PublicKey receiver, float val, String parentTransactionId){
+        this.id = id;
+        this.receiver = receiver;
+        this.val = val;
+        this.parentTransactionId = parentTransactionId;
+    }
+
+    /**
+     * Checks whether a person is the receiver of a transaction
+     * @param key Public key to check
+     * @return Whether the key given is the same as the receiver of the transaction
+     */
+    public boolean isOwner(PublicKey key){
+        return receiver.equals(key);
+    }
+}
\ No newline at end of file
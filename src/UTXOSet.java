@@ -0,0 +1,132 @@
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The unspent transaction outputs on the chain held as objects on the heap, indexed by the owner of each output so a wallet's funds can be found without scanning every output
+ */
+public final class UTXOSet implements UTXOStore{
+    private final HashMap<String, TransactionOutput> outputs = new HashMap<>(); //Every unspent output, keyed by output id
+    private final HashMap<PublicKey, OwnerEntry> owners = new HashMap<>(); //Unspent outputs and running balance of each owner
+
+    /**
+     * Adds an unspent output, replacing any output with the same id
+     * @param output The output to add
+     */
+    @Override
+    public void put(TransactionOutput output){
+        TransactionOutput replaced = outputs.put(output.id, output);
+        if(replaced != null) unindex(replaced);
+
+        //Add the output to its owner's entry, creating one if this is the owner's first output
+        OwnerEntry owner = owners.computeIfAbsent(output.receiver, key -> new OwnerEntry());
+        owner.outputs.put(output.id, output);
+        owner.balance += output.val;
+    }
+
+    /**
+     * Gets an unspent output
+     * @param id Id of the output
+     * @return The output, or null if there is no unspent output with that id
+     */
+    @Override
+    public TransactionOutput get(String id){
+        return outputs.get(id);
+    }
+
+    /**
+     * Removes an output once it has been spent
+     * @param id Id of the output
+     * @return The removed output, or null if there was no unspent output with that id
+     */
+    @Override
+    public TransactionOutput remove(String id){
+        TransactionOutput removed = outputs.remove(id);
+        if(removed != null) unindex(removed);
+        return removed;
+    }
+
+    /**
+     * Removes an output from its owner's entry, dropping the entry once the owner has nothing left
+     * @param output The output to remove
+     */
+    private void unindex(TransactionOutput output){
+        OwnerEntry owner = owners.get(output.receiver);
+        if(owner == null || owner.outputs.remove(output.id) == null) return;
+
+        //Drop empty entries rather than keeping a balance that may have gathered rounding errors
+        if(owner.outputs.isEmpty()) owners.remove(output.receiver);
+        else owner.balance -= output.val;
+    }
+
+    /**
+     * Gets the total value of the unspent outputs owned by a key
+     * @param owner Public key of the owner
+     * @return The owner's balance
+     */
+    @Override
+    public float getBalance(PublicKey owner){
+        OwnerEntry entry = owners.get(owner);
+        return (entry == null) ? 0 : (float) entry.balance;
+    }
+
+    /**
+     * Gets the unspent outputs owned by a key
+     * @param owner Public key of the owner
+     * @return A read only view of the owner's outputs
+     */
+    @Override
+    public Collection<TransactionOutput> getOutputs(PublicKey owner){
+        OwnerEntry entry = owners.get(owner);
+        return (entry == null) ? Collections.emptyList() : Collections.unmodifiableCollection(entry.outputs.values());
+    }
+
+    @Override
+    public boolean contains(String id){return outputs.containsKey(id);}
+
+    @Override
+    public int size(){return outputs.size();}
+
+    @Override
+    public void forEach(Consumer<TransactionOutput> action){
+        outputs.values().forEach(action);
+    }
+
+    public int getOwnerCount(){return owners.size();}
+
+    /**
+     * Copies the set, sharing the output objects but none of the maps
+     * @return The copy
+     */
+    public UTXOSet copy(){
+        UTXOSet copy = new UTXOSet();
+        copy.outputs.putAll(outputs);
+        for(Map.Entry<PublicKey, OwnerEntry> entry : owners.entrySet()){
+            OwnerEntry owner = new OwnerEntry();
+            owner.outputs.putAll(entry.getValue().outputs);
+            owner.balance = entry.getValue().balance;
+            copy.owners.put(entry.getKey(), owner);
+        }
+        return copy;
+    }
+
+    /**
+     * Removes every output
+     */
+    @Override
+    public void clear(){
+        outputs.clear();
+        owners.clear();
+    }
+
+    /**
+     * The unspent outputs and running balance of a single owner
+     */
+    private static final class OwnerEntry{
+        private final HashMap<String, TransactionOutput> outputs = new HashMap<>(); //The owner's unspent outputs, keyed by output id
+        private double balance; //Total value of the owner's outputs, kept as a double so repeated updates do not drift
+    }
+}
\ No newline at end of file
@@ -0,0 +1,56 @@
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A set of unspent transaction outputs that can be looked up by output id or by owner
+ */
+public interface UTXOStore{
+    /**
+     * Adds an unspent output, replacing any output with the same id
+     * @param output The output to add
+     */
+    void put(TransactionOutput output);
+
+    /**
+     * Gets an unspent output
+     * @param id Id of the output
+     * @return The output, or null if there is no unspent output with that id
+     */
+    TransactionOutput get(String id);
+
+    /**
+     * Removes an output once it has been spent
+     * @param id Id of the output
+     * @return The removed output, or null if there was no unspent output with that id
+     */
+    TransactionOutput remove(String id);
+
+    /**
+     * Gets the total value of the unspent outputs owned by a key
+     * @param owner Public key of the owner
+     * @return The owner's balance
+     */
+    float getBalance(PublicKey owner);
+
+    /**
+     * Gets the unspent outputs owned by a key
+     * @param owner Public key of the owner
+     * @return The owner's outputs
+     */
+    Collection<TransactionOutput> getOutputs(PublicKey owner);
+
+    boolean contains(String id);
+    int size();
+
+    /**
+     * Runs an action on every unspent output, in no particular order
+     * @param action The action to run, which must not change the store
+     */
+    void forEach(Consumer<TransactionOutput> action);
+
+    /**
+     * Removes every output
+     */
+    void clear();
+}
@@ -0,0 +1,141 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An immutable view of the unspent outputs after a block.
+ * The outputs and each owner's outputs are held in persistent maps, so the view after a block shares every node
+ * it did not change with the view before it. Applying a block only copies the paths to the outputs it spent and created,
+ * and every snapshot of the chain shares a single copy of the outputs however long the chain grows.
+ */
+public final class UTXOView{
+    private static final UTXOView EMPTY = new UTXOView(PersistentMap.empty(), PersistentMap.empty());
+
+    private final PersistentMap<String, TransactionOutput> outputs; //Every unspent output, keyed by output id
+    private final PersistentMap<PublicKey, OwnerOutputs> owners; //Unspent outputs and running balance of each owner
+
+    private UTXOView(PersistentMap<String, TransactionOutput> outputs, PersistentMap<PublicKey, OwnerOutputs> owners){
+        this.outputs = outputs;
+        this.owners = owners;
+    }
+
+    /**
+     * Gets a view with no outputs
+     * @return The empty view
+     */
+    static UTXOView empty(){
+        return EMPTY;
+    }
+
+    /**
+     * Gets an unspent output
+     * @param id Id of the output
+     * @return The output, or null if there is no unspent output with that id
+     */
+    public TransactionOutput get(String id){
+        return outputs.get(id);
+    }
+
+    public boolean contains(String id){
+        return outputs.containsKey(id);
+    }
+
+    /**
+     * Gets the total value of the unspent outputs owned by a key
+     * @param owner Public key of the owner
+     * @return The owner's balance
+     */
+    public float getBalance(PublicKey owner){
+        OwnerOutputs entry = owners.get(owner);
+        return (entry == null) ? 0 : (float) entry.balance;
+    }
+
+    /**
+     * Gets the unspent outputs owned by a key
+     * @param owner Public key of the owner
+     * @return A new list of the owner's outputs
+     */
+    public List<TransactionOutput> getOutputs(PublicKey owner){
+        OwnerOutputs entry = owners.get(owner);
+        List<TransactionOutput> found = new ArrayList<>((entry == null) ? 0 : entry.outputs.size());
+        if(entry != null) entry.outputs.forEach((id, output) -> found.add(output));
+        return found;
+    }
+
+    /**
+     * Runs an action on every unspent output, in no particular order
+     * @param action The action to run
+     */
+    public void forEach(Consumer<TransactionOutput> action){
+        outputs.forEach((id, output) -> action.accept(output));
+    }
+
+    public int size(){return outputs.size();}
+
+    /**
+     * Creates a view with an output added, replacing any output with the same id
+     * @param output The output to add
+     * @return The new view, this view is unchanged
+     */
+    UTXOView put(TransactionOutput output){
+        TransactionOutput replaced = outputs.get(output.id);
+        if(replaced == output) return this;
+        PersistentMap<PublicKey, OwnerOutputs> nextOwners = (replaced == null) ? owners : unindex(owners, replaced);
+        OwnerOutputs entry = nextOwners.get(output.receiver);
+        OwnerOutputs next = (entry == null)
+            ? new OwnerOutputs(PersistentMap.<String, TransactionOutput>empty().put(output.id, output), output.val)
+            : new OwnerOutputs(entry.outputs.put(output.id, output), entry.balance + output.val);
+        return new UTXOView(outputs.put(output.id, output), nextOwners.put(output.receiver, next));
+    }
+
+    /**
+     * Creates a view with an output removed
+     * @param id Id of the output
+     * @return The new view, or this view if it has no output with that id
+     */
+    UTXOView remove(String id){
+        TransactionOutput removed = outputs.get(id);
+        if(removed == null) return this;
+        return new UTXOView(outputs.remove(id), unindex(owners, removed));
+    }
+
+    /**
+     * Removes an output from its owner's entry, dropping the entry once the owner has nothing left
+     */
+    private static PersistentMap<PublicKey, OwnerOutputs> unindex(PersistentMap<PublicKey, OwnerOutputs> owners, TransactionOutput output){
+        OwnerOutputs entry = owners.get(output.receiver);
+        if(entry == null || !entry.outputs.containsKey(output.id)) return owners;
+
+        //Drop empty entries rather than keeping a balance that may have gathered rounding errors
+        if(entry.outputs.size() == 1) return owners.remove(output.receiver);
+        return owners.put(output.receiver, new OwnerOutputs(entry.outputs.remove(output.id), entry.balance - output.val));
+    }
+
+    /**
+     * Creates a view holding a set of outputs
+     * @param outputs The outputs
+     * @return The new view
+     */
+    static UTXOView of(Collection<TransactionOutput> outputs){
+        UTXOView view = EMPTY;
+        for(TransactionOutput output : outputs){
+            view = view.put(output);
+        }
+        return view;
+    }
+
+    /**
+     * The unspent outputs and running balance of a single owner, replaced whole whenever either changes
+     */
+    private static final class OwnerOutputs{
+        private final PersistentMap<String, TransactionOutput> outputs; //The owner's unspent outputs, keyed by output id
+        private final double balance; //Total value of the owner's outputs, kept as a double so repeated updates do not drift
+
+        private OwnerOutputs(PersistentMap<String, TransactionOutput> outputs, double balance){
+            this.outputs = outputs;
+            this.balance = balance;
+        }
+    }
+}
\ No newline at end of file
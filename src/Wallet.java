@@ -1,7 +1,11 @@
 import java.security.*;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a user's wallet with their keys and transactions.
@@ -10,12 +14,28 @@ public final class Wallet{
     private PrivateKey privateKey; //Wallet's private key
     private PublicKey publicKey; //Wallet's public key
 
-    private final HashMap<String, TransactionOutput> UTXOs = new HashMap<>(); //Wallet's unspent transaction outputs
+    private final SignatureScheme scheme; //Algorithm the wallet's keys sign with
+    private volatile CoinSelector selector = CoinSelector.DEFAULT; //Chooses the outputs each payment spends
+
+    private static final ScheduledExecutorService consolidator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jackchain-consolidation");
+        thread.setDaemon(true);
+        return thread;
+    }); //Thread that background consolidation runs on, shared by every wallet
 
     /**
-     * Default constructor for a new wallet that automatically generate the public and private keys.
+     * Default constructor for a new wallet that automatically generate the public and private keys using the default signature scheme.
      */
     public Wallet(){
+        this(SignatureScheme.DEFAULT);
+    }
+
+    /**
+     * Constructor for a new wallet that automatically generate the public and private keys for a given signature scheme.
+     * @param scheme The signature scheme the wallet signs transactions with
+     */
+    public Wallet(SignatureScheme scheme){
+        this.scheme = scheme;
         generateKeyPair();
     }
 
@@ -23,40 +43,67 @@ public final class Wallet{
      * Generates a new public and private key for the wallet.
      */
     public void generateKeyPair(){
-        try{
-            //Create the generators for the keys and the random number generator
-            KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
-            SecureRandom rand = SecureRandom.getInstance("SHA1PRNG");
-
-            //Create the keys and assign them
-            gen.initialize(1024, rand);
-            KeyPair keyPair = gen.generateKeyPair();
-
-            this.privateKey = keyPair.getPrivate();
-            this.publicKey = keyPair.getPublic();
-        } catch(NoSuchAlgorithmException e){
-            throw new RuntimeException(e);
-        }
+        KeyPair keyPair = scheme.generateKeyPair();
+        this.privateKey = keyPair.getPrivate();
+        this.publicKey = keyPair.getPublic();
     }
 
     /**
-     * Calculates the current balance in a wallet using its past transactions.
+     * Calculates the current balance in a wallet using the chain's index of unspent outputs by owner.
+     * The balance includes transactions not yet on the chain, so like sendFunds it should only be called from the thread building blocks,
+     * other threads can read the balance on the chain from Jackchain.snapshot().getUTXOs() instead.
      * @return The current balance in the wallet
      */
     public float getBalance(){
-        float total = 0;
+        return Jackchain.UTXOs.getBalance(publicKey);
+    }
 
-        //Iterate over the unspent transaction outputs in the chain 
-        for(Map.Entry<String, TransactionOutput> item : Jackchain.UTXOs.entrySet()){
-            TransactionOutput UTXO = item.getValue();
+    /**
+     * Gathers the outputs the wallet can spend from the chain's index of unspent outputs by owner, leaving out any a pending transaction in the mempool already spends.
+     * They are gathered again on every call, so outputs spent since the last call are never offered again.
+     * Only called from the thread building blocks, which is the only thread that reads the outputs without the write lock
+     * @return A new list of the spendable outputs
+     */
+    private List<TransactionOutput> getSpendable(){
+        return unspent(Jackchain.UTXOs.getOutputs(publicKey));
+    }
 
-            //If the current wallet was the receiver of the transaction, add it to the wallet list and add its value to the total
-            if(UTXO.isOwner(this.publicKey)){
-                UTXOs.put(UTXO.id, UTXO);
-                total += UTXO.val;
-            }
+    /**
+     * Leaves out the outputs a pending transaction in the mempool already spends
+     * @param outputs The wallet's outputs
+     * @return A new list of the outputs no pending transaction spends
+     */
+    private static List<TransactionOutput> unspent(Iterable<TransactionOutput> outputs){
+        Mempool mempool = Jackchain.getMempool();
+        List<TransactionOutput> spendable = new ArrayList<>();
+        for(TransactionOutput output : outputs){
+            if(!mempool.isSpent(output.id)) spendable.add(output);
         }
-        return total;
+        return spendable;
+    }
+
+    /**
+     * Recovers the wallet's unspent outputs by walking the chain, only looking inside the blocks whose filters match the wallet's key
+     * or an output found so far, and reading matching blocks back from the store if they have been pruned
+     * @return The outputs the wallet owns in the latest snapshot of the chain and how many blocks were looked inside
+     * @throws IllegalStateException If the chain switches branches while a pruned block is read back
+     */
+    public BlockFilter.Rescan rescan(){
+        List<Block> blocks = Jackchain.snapshot().getBlocks();
+        return BlockFilter.rescan(blocks, List.of(publicKey), height -> {
+            Block whole = Jackchain.getBlock(height);
+            if(!whole.getHash().equals(blocks.get(height).getHash())) throw new IllegalStateException("The chain switched branches during the rescan");
+            return whole;
+        });
+    }
+
+    /**
+     * Gets the balance of the wallet in the latest snapshot of the chain, only counting transactions in mined blocks.
+     * Unlike getBalance this is safe to call from any thread while blocks are being built.
+     * @return The wallet's balance on the chain
+     */
+    public float getConfirmedBalance(){
+        return Jackchain.snapshot().getUTXOs().getBalance(publicKey);
     }
 
     /**
@@ -67,35 +114,109 @@ public final class Wallet{
      */
     public Transaction sendFunds(PublicKey receiver, float val){
         //Check if the wallet has enough funds to send the requested amount
-        if(getBalance() < val){
-            System.out.println("Not enough funds for transaction.");
+        List<TransactionOutput> spendable = getSpendable();
+        double funds = 0;
+        for(TransactionOutput output : spendable){
+            funds += output.val;
+        }
+        if(funds < val){
+            if(ChainEvents.isEnabled()) ChainEvents.transactionRejected(null, "Not enough funds for transaction.");
             return null;
         }
 
-        ArrayList<TransactionInput> inputs = new ArrayList<>();
-        float total = 0;
-
-        //Iterate over the wallet's unspent transaction outputs to gather the funds
-        for(Map.Entry<String, TransactionOutput> item : UTXOs.entrySet()){
-            //Add the outputs being used to the inputs of the new transaction
-            TransactionOutput UTXO = item.getValue();
-            total += UTXO.val;
+        //Choose which of the wallet's unspent outputs to spend
+        List<TransactionOutput> selected = selector.select(spendable, val);
+        if(selected == null){
+            if(ChainEvents.isEnabled()) ChainEvents.transactionRejected(null, "Not enough funds for transaction.");
+            return null;
+        }
+        ArrayList<TransactionInput> inputs = new ArrayList<>(selected.size());
+        for(TransactionOutput UTXO : selected){
             inputs.add(new TransactionInput(UTXO.id));
-
-            //Once enough is added no more need to added
-            if(total > val) break;
         }
 
         //Generate a new transaction and sign it with the wallet's private key
         Transaction newTransaction = new Transaction(publicKey, receiver, val, inputs);
         newTransaction.generateSignature(privateKey);
+        return newTransaction;
+    }
+
+    /**
+     * Creates the signed first transaction of the chain, which creates funds rather than spending them
+     * @param receiver The public key of the wallet to receive the funds
+     * @param val The amount to create
+     * @return The genesis transaction
+     */
+    Transaction createGenesisTransaction(PublicKey receiver, float val){
+        Transaction genesis = new Transaction(publicKey, receiver, val, new ArrayList<>());
+        genesis.generateSignature(privateKey);
+        genesis.makeGenesis();
+        return genesis;
+    }
 
-        //Remove the used funds from the unspent transactions.
-        //Any amount left over will be readded to the wallet next time the getBalance function iterates over the chain
-        for(TransactionInput input : inputs){
-            UTXOs.remove(input.transactionOutputId);
+    /**
+     * Merges the wallet's smallest unspent outputs into a single output paid back to the wallet,
+     * so later payments need fewer inputs
+     * @param maxInputs Most outputs merged into one
+     * @return The transaction merging them, or null if the wallet has fewer than two outputs
+     */
+    public Transaction consolidate(int maxInputs){
+        return spendToSelf(getSpendable(), maxInputs);
+    }
+
+    /**
+     * Merges the wallet's outputs in the background whenever the mempool is empty and the wallet holds at least a number of outputs.
+     * Only outputs left unspent by the blocks being built and by pending transactions are merged. They are copied under the chain's write lock
+     * and the merging transaction is submitted to the mempool, so this can run alongside blocks built with fillBlock or a MiningScheduler
+     * without double spending what they have drained.
+     * @param minOutputs Number of outputs the wallet must hold before they are merged
+     * @param maxInputs Most outputs merged by one transaction
+     * @param periodMillis Time between checks
+     * @return The scheduled task, which can be cancelled to stop consolidating
+     */
+    public ScheduledFuture<?> consolidateWhenQuiet(int minOutputs, int maxInputs, long periodMillis){
+        if(minOutputs < 2 || maxInputs < 2) throw new IllegalArgumentException("Consolidation needs at least two outputs");
+        return consolidator.scheduleWithFixedDelay(() -> {
+            Mempool mempool = Jackchain.getMempool();
+            if(!mempool.isEmpty()) return;
+
+            List<TransactionOutput> outputs = unspent(Jackchain.copyOutputs(publicKey));
+            if(outputs.size() < minOutputs) return;
+            mempool.submit(spendToSelf(outputs, maxInputs));
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a signed transaction paying the smallest of some outputs back to the wallet
+     * @param outputs The outputs that can be merged
+     * @param maxInputs Most outputs to merge
+     * @return The transaction, or null if there are fewer than two outputs
+     */
+    private Transaction spendToSelf(List<TransactionOutput> outputs, int maxInputs){
+        if(outputs.size() < 2) return null;
+        outputs.sort(Comparator.comparingDouble(output -> output.val));
+
+        ArrayList<TransactionInput> inputs = new ArrayList<>();
+        float total = 0;
+        for(TransactionOutput output : outputs.subList(0, Math.min(maxInputs, outputs.size()))){
+            inputs.add(new TransactionInput(output.id));
+            total += output.val;
         }
 
-        return newTransaction;
+        //Paying the whole total leaves no change, so the transaction has a single output
+        Transaction transaction = new Transaction(publicKey, publicKey, total, inputs);
+        transaction.generateSignature(privateKey);
+        return transaction;
+    }
+
+    /**
+     * Sets how the wallet chooses which outputs a payment spends
+     * @param selector The selector, such as CoinSelector.LARGEST_FIRST
+     */
+    public void setCoinSelector(CoinSelector selector){
+        this.selector = selector;
     }
+
+    public PublicKey getPublicKey(){return this.publicKey;}
+    public SignatureScheme getScheme(){return this.scheme;}
 }
\ No newline at end of file